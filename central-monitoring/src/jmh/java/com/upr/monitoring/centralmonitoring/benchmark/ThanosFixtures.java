@@ -0,0 +1,149 @@
+package com.upr.monitoring.centralmonitoring.benchmark;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Thanos query responses of any size built from a recorded response.
+ * <p>
+ * The recorded vector response in {@code fixtures/thanos-vector.json} holds
+ * the series of one pod. Larger fixtures repeat them for more pods and
+ * applications, {@link #SERIES_PER_APPLICATION} series per application, so
+ * label sets, value formats and the share of distinct label values stay
+ * those of the recording. Fixtures are deterministic and built on every call,
+ * so a million series response lives only as long as the trial holding it.
+ */
+public final class ThanosFixtures {
+
+    public static final int SERIES_PER_APPLICATION = 1000;
+
+    private static final String RECORDING = "/fixtures/thanos-vector.json";
+
+    private static final List<JsonNode> RECORDED_SERIES = loadRecording();
+
+    private static final int RESPONSE_OVERHEAD = 64;
+
+    // Average encoded size of a series, so large responses are written without regrowing the buffer
+    private static final int SERIES_BYTES = measureSeriesBytes();
+
+    private ThanosFixtures() {
+    }
+
+    /**
+     * @param seriesCount The number of series in the response
+     * @return The body of an instant query response with that many series
+     */
+    public static byte[] vectorResponse(int seriesCount) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(RESPONSE_OVERHEAD + seriesCount * SERIES_BYTES);
+        writeVectorResponse(out, seriesCount);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param seriesCount The number of series in the fixture
+     * @return The application IDs of the fixture
+     */
+    public static List<String> applicationIds(int seriesCount) {
+        int applications = Math.max(1, Math.ceilDiv(seriesCount, SERIES_PER_APPLICATION));
+        List<String> appIds = new ArrayList<>(applications);
+        for (int i = 0; i < applications; i++) {
+            appIds.add(applicationId(i));
+        }
+        return appIds;
+    }
+
+    /**
+     * @return The distinct metric names of the recording
+     */
+    public static List<String> metricNames() {
+        return RECORDED_SERIES.stream()
+                .map(series -> series.get("metric").get("__name__").asText())
+                .distinct()
+                .toList();
+    }
+
+    private static void writeVectorResponse(OutputStream out, int seriesCount) {
+        try (JsonGenerator generator = new JsonFactory().createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeStringField("status", "success");
+            generator.writeObjectFieldStart("data");
+            generator.writeStringField("resultType", "vector");
+            generator.writeArrayFieldStart("result");
+            for (int i = 0; i < seriesCount; i++) {
+                writeSeries(generator, i);
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeEndObject();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int measureSeriesBytes() {
+        // Pod names and values get longer with the index, so measure where a large fixture ends
+        int sample = RECORDED_SERIES.size() * 100;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        writeVectorResponse(out, sample);
+        return Math.ceilDiv(out.size(), sample) + 8;
+    }
+
+    private static void writeSeries(JsonGenerator generator, int index) throws IOException {
+        JsonNode recorded = RECORDED_SERIES.get(index % RECORDED_SERIES.size());
+        int pod = index / RECORDED_SERIES.size();
+        String appId = applicationId(index / SERIES_PER_APPLICATION);
+
+        Map<String, String> labels = new LinkedHashMap<>();
+        for (Iterator<Map.Entry<String, JsonNode>> it = recorded.get("metric").fields(); it.hasNext(); ) {
+            Map.Entry<String, JsonNode> label = it.next();
+            labels.put(label.getKey(), label.getValue().asText());
+        }
+        labels.put("application_id", appId);
+        labels.computeIfPresent("pod", (name, value) -> appId + "-" + Integer.toString(pod, 36));
+        labels.computeIfPresent("namespace", (name, value) -> "ns-" + (index / SERIES_PER_APPLICATION % 50));
+
+        generator.writeStartObject();
+        generator.writeObjectFieldStart("metric");
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            generator.writeStringField(label.getKey(), label.getValue());
+        }
+        generator.writeEndObject();
+        JsonNode sample = recorded.get("value");
+        double recordedValue = Double.parseDouble(sample.get(1).asText());
+        generator.writeArrayFieldStart("value");
+        generator.writeNumber(sample.get(0).decimalValue());
+        generator.writeString(Double.toString(recordedValue + index % 997));
+        generator.writeEndArray();
+        generator.writeEndObject();
+    }
+
+    private static String applicationId(int index) {
+        return "app-" + index;
+    }
+
+    private static List<JsonNode> loadRecording() {
+        try (InputStream in = ThanosFixtures.class.getResourceAsStream(RECORDING)) {
+            if (in == null) {
+                throw new IllegalStateException("Missing fixture " + RECORDING);
+            }
+            List<JsonNode> series = new ArrayList<>();
+            new ObjectMapper().readTree(in).get("data").get("result").forEach(series::add);
+            return List.copyOf(series);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
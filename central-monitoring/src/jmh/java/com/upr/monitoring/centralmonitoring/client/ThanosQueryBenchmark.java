@@ -0,0 +1,83 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.upr.monitoring.centralmonitoring.benchmark.ThanosFixtures;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Building PromQL selectors and query URIs for every application of a fixture.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ThanosQueryBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    int seriesCount;
+
+    private ThanosClient client;
+
+    private Map<String, List<String>> appMetrics;
+
+    private List<Map<String, List<String>>> batches;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        // URI construction never touches the transport
+        client = new ThanosClient(null, null, new SimpleMeterRegistry(), 100, Duration.ofSeconds(120),
+                200, 6000, 50000);
+        ReflectionTestUtils.setField(client, "thanosBaseUrl", "http://thanos-query.monitoring.svc:10904");
+        appMetrics = new LinkedHashMap<>();
+        List<String> metricNames = ThanosFixtures.metricNames();
+        for (String appId : ThanosFixtures.applicationIds(seriesCount)) {
+            appMetrics.put(appId, metricNames);
+        }
+        batches = client.planBatches(appMetrics);
+    }
+
+    @Benchmark
+    public List<URI> specificMetricsUris() {
+        List<URI> uris = new ArrayList<>(appMetrics.size());
+        appMetrics.forEach((appId, metricNames) -> uris.add(client.specificMetricsUri(appId, metricNames)));
+        return uris;
+    }
+
+    @Benchmark
+    public List<Map<String, List<String>>> planBatches() {
+        return client.planBatches(appMetrics);
+    }
+
+    @Benchmark
+    public List<URI> batchUris() {
+        List<URI> uris = new ArrayList<>(batches.size());
+        for (Map<String, List<String>> batch : batches) {
+            uris.add(client.batchUri(batch));
+        }
+        return uris;
+    }
+}
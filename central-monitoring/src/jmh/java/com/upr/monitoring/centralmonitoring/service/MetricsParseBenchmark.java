@@ -0,0 +1,70 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.upr.monitoring.centralmonitoring.benchmark.ThanosFixtures;
+import com.upr.monitoring.centralmonitoring.client.ThanosResponseParser;
+import com.upr.monitoring.centralmonitoring.model.ThanosQueryResult;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Parsing a Thanos response body and turning the parsed series into the published metric entries.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class MetricsParseBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    int seriesCount;
+
+    private byte[] body;
+
+    private ThanosResponseParser parser;
+
+    private ThanosQueryResult parsed;
+
+    private MetricsService metricsService;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        body = ThanosFixtures.vectorResponse(seriesCount);
+        // One parser is shared by all calls in ThanosClient, so its interned label values stay warm
+        parser = new ThanosResponseParser();
+        parsed = parser.parse(new ByteArrayInputStream(body));
+        // Only the conversion is exercised, it needs none of the collaborators
+        metricsService = new MetricsService(null, null, null, null, null, null, null, null, null, null, null, null,
+                null, new SimpleMeterRegistry());
+    }
+
+    @Benchmark
+    public ThanosQueryResult parseResponse() throws IOException {
+        return parser.parse(new ByteArrayInputStream(body));
+    }
+
+    @Benchmark
+    public List<Map<String, Object>> parseMetricsFromThanosResponse() {
+        return metricsService.parseMetricsFromThanosResponse(parsed);
+    }
+}
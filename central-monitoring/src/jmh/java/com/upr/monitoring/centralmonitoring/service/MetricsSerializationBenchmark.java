@@ -0,0 +1,78 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upr.monitoring.centralmonitoring.benchmark.ThanosFixtures;
+import com.upr.monitoring.centralmonitoring.client.ThanosResponseParser;
+import com.upr.monitoring.centralmonitoring.model.MetricsResponseDto;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Serializing the published metrics message with the ObjectMapper used by the JSON wire format.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class MetricsSerializationBenchmark {
+
+    @Param({"100", "10000", "1000000"})
+    int seriesCount;
+
+    private ObjectMapper objectMapper;
+
+    private MetricsResponseDto message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        // Same modules and defaults as the ObjectMapper Spring Boot injects
+        objectMapper = Jackson2ObjectMapperBuilder.json().build();
+        MetricsService metricsService = new MetricsService(null, null, null, null, null, null, null, null, null,
+                null, null, null, null, new SimpleMeterRegistry());
+        List<Map<String, Object>> entries = metricsService.parseMetricsFromThanosResponse(
+                new ThanosResponseParser().parse(new ByteArrayInputStream(ThanosFixtures.vectorResponse(seriesCount))));
+
+        // Shaped like the message MetricsService publishes
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("metrics", entries);
+        metrics.put("total_count", entries.size());
+        metrics.put("returned_count", entries.size());
+        message = MetricsResponseDto.builder()
+                .applicationId(ThanosFixtures.applicationIds(seriesCount).get(0))
+                .timestamp(LocalDateTime.of(2024, 10, 17, 10, 0))
+                .metrics(metrics)
+                .sequence(42L)
+                .keyframe(true)
+                .build();
+    }
+
+    @Benchmark
+    public byte[] writeValueAsBytes() throws JsonProcessingException {
+        return objectMapper.writeValueAsBytes(message);
+    }
+}
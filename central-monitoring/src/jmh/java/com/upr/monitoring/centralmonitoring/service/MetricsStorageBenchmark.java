@@ -0,0 +1,86 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.upr.monitoring.centralmonitoring.benchmark.ThanosFixtures;
+
+/**
+ * Stored metric subscriptions read by fetch threads while the API adds and removes metrics.
+ * <p>
+ * The store is filled with one application per thousand fixture series, each
+ * subscribed to the recorded metric names. Readers and writers run at the
+ * same time on the same store, so the scores include contention.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MetricsStorageBenchmark {
+
+    private static final int EXTRA_METRICS = 64;
+
+    @Param({"100", "10000", "1000000"})
+    int seriesCount;
+
+    private MetricsStorageService storage;
+
+    private String[] appIds;
+
+    private String[] extraMetrics;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        storage = new MetricsStorageService();
+        appIds = ThanosFixtures.applicationIds(seriesCount).toArray(String[]::new);
+        List<String> metricNames = ThanosFixtures.metricNames();
+        for (String appId : appIds) {
+            storage.storeMetrics(appId, metricNames);
+        }
+        extraMetrics = new String[EXTRA_METRICS];
+        for (int i = 0; i < EXTRA_METRICS; i++) {
+            extraMetrics[i] = "custom_metric_" + i;
+        }
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(4)
+    public List<String> get() {
+        return storage.getMetrics(appIds[ThreadLocalRandom.current().nextInt(appIds.length)]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public void store() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        storage.storeMetric(appIds[random.nextInt(appIds.length)], extraMetrics[random.nextInt(EXTRA_METRICS)]);
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public boolean remove() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return storage.removeMetric(appIds[random.nextInt(appIds.length)], extraMetrics[random.nextInt(EXTRA_METRICS)]);
+    }
+}
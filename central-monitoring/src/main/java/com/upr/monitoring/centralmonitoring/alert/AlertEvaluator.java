@@ -0,0 +1,324 @@
+package com.upr.monitoring.centralmonitoring.alert;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upr.monitoring.centralmonitoring.model.AlertEvent;
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+import com.upr.monitoring.centralmonitoring.service.CounterRateStage;
+import com.upr.monitoring.centralmonitoring.service.RabbitMetricsPublisher;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Evaluates the threshold alert rules of every application on its samples as they are fetched.
+ * <p>
+ * Rules are compiled by {@link ThresholdRule} when they are written; rules that
+ * are not thresholds are left to the Thanos ruler. Every new sample of a
+ * matching series moves the alert state of that series: a violating sample
+ * makes it pending, and it fires once the threshold has been violated for the
+ * rule's {@code for} duration, measured on sample timestamps. A sample within
+ * the threshold resolves it, as does a series that stops receiving samples for
+ * {@code stale-after}, which is checked periodically for all applications.
+ * Firing and resolved events are published as JSON to the routing key
+ * {@code <prefix><applicationId>}, so alerts fire within one fetch interval
+ * instead of after a rule file reload and a ruler evaluation. Rules on
+ * {@code rate()} need the rate series of {@link CounterRateStage} and are left
+ * to the Thanos ruler while {@code metrics.rate.mode} is off.
+ */
+@Service
+@Slf4j
+public class AlertEvaluator {
+
+    private static final String PENDING = "pending";
+
+    private static final String FIRING = "firing";
+
+    private static final String RESOLVED = "resolved";
+
+    private final Map<String, ApplicationRules> applications = new ConcurrentHashMap<>();
+
+    private final RabbitMetricsPublisher rabbitPublisher;
+
+    private final ObjectMapper objectMapper;
+
+    private final boolean enabled;
+
+    private final String routingKeyPrefix;
+
+    private final long staleAfterMillis;
+
+    private final boolean ratesAvailable;
+
+    private final Counter firedCounter;
+
+    private final Counter resolvedCounter;
+
+    private final AtomicInteger firing = new AtomicInteger();
+
+    /** Alert state of one series under one rule, guarded by the lock of its application */
+    private static final class SeriesState {
+        private long lastTimestamp = Long.MIN_VALUE;
+        private long activeSince = -1;
+        private long firedAt = -1;
+        private double value;
+    }
+
+    private record RuleState(ThresholdRule rule, String key, Map<Map<String, String>, SeriesState> series) {
+    }
+
+    private static final class ApplicationRules {
+        private List<RuleState> rules = List.of();
+    }
+
+    public AlertEvaluator(RabbitMetricsPublisher rabbitPublisher, ObjectMapper objectMapper, MeterRegistry meterRegistry,
+                          @Value("${alerts.evaluation.enabled:false}") boolean enabled,
+                          @Value("${alerts.evaluation.routing-key-prefix:alerts.}") String routingKeyPrefix,
+                          @Value("${alerts.evaluation.stale-after:5m}") Duration staleAfter,
+                          @Value("${metrics.rate.mode:off}") CounterRateStage.Mode rateMode) {
+        this.rabbitPublisher = rabbitPublisher;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.routingKeyPrefix = routingKeyPrefix;
+        this.staleAfterMillis = staleAfter.toMillis();
+        this.ratesAvailable = rateMode != CounterRateStage.Mode.OFF;
+        this.firedCounter = eventCounter(meterRegistry, FIRING);
+        this.resolvedCounter = eventCounter(meterRegistry, RESOLVED);
+        Gauge.builder("alerts.firing", firing, AtomicInteger::get)
+                .description("Alerts currently firing in the in-process evaluator")
+                .register(meterRegistry);
+    }
+
+    private static Counter eventCounter(MeterRegistry meterRegistry, String status) {
+        return Counter.builder("alerts.events")
+                .description("Alert state changes published by the in-process evaluator")
+                .tag("status", status)
+                .register(meterRegistry);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Replaces the rules evaluated for an application. Alerts of rules that are
+     * kept unchanged keep their state, alerts of removed rules are resolved.
+     * @param appId The application ID
+     * @param rules The rules of the application's group, as in the rule file
+     * @return The number of rules evaluated in-process, the others are left to the Thanos ruler
+     */
+    public int setRules(String appId, List<Map<String, Object>> rules) {
+        if (!enabled) {
+            return 0;
+        }
+        Map<String, ThresholdRule> compiled = new LinkedHashMap<>();
+        for (Map<String, Object> rule : rules) {
+            try {
+                ThresholdRule threshold = ThresholdRule.compile(rule);
+                if (threshold.rate() && !ratesAvailable) {
+                    log.warn("Rule {} of application {} is left to the Thanos ruler, its rate() needs "
+                            + "metrics.rate.mode alongside or replace", threshold.alert(), appId);
+                    continue;
+                }
+                compiled.putIfAbsent(key(threshold), threshold);
+            } catch (IllegalArgumentException e) {
+                log.debug("Rule of application {} is left to the Thanos ruler: {}", appId, e.getMessage());
+            }
+        }
+
+        List<AlertEvent> events = new ArrayList<>();
+        ApplicationRules application = applications.computeIfAbsent(appId, id -> new ApplicationRules());
+        synchronized (application) {
+            Map<String, RuleState> previous = new HashMap<>();
+            application.rules.forEach(state -> previous.put(state.key(), state));
+            List<RuleState> updated = new ArrayList<>(compiled.size());
+            compiled.forEach((key, rule) -> {
+                RuleState kept = previous.remove(key);
+                // Annotations may have changed, the alert state carries over
+                updated.add(new RuleState(rule, key, kept != null ? kept.series() : new HashMap<>()));
+            });
+            long now = System.currentTimeMillis();
+            for (RuleState removed : previous.values()) {
+                removed.series().forEach((labels, state) -> resolve(appId, removed.rule(), labels, state, now, events));
+            }
+            application.rules = List.copyOf(updated);
+        }
+        publish(appId, events);
+        return compiled.size();
+    }
+
+    /**
+     * Evaluates the rules of an application on newly fetched series
+     * @param appId The application ID
+     * @param series The fetched series; samples older than the last evaluated one of a series are skipped
+     */
+    public void evaluate(String appId, List<MetricSeries> series) {
+        if (!enabled || series.isEmpty()) {
+            return;
+        }
+        ApplicationRules application = applications.get(appId);
+        if (application == null) {
+            return;
+        }
+        List<AlertEvent> events = new ArrayList<>();
+        synchronized (application) {
+            for (RuleState ruleState : application.rules) {
+                ThresholdRule rule = ruleState.rule();
+                for (MetricSeries s : series) {
+                    if (rule.matches(s.getLabels())) {
+                        SeriesState state = ruleState.series().computeIfAbsent(s.getLabels(), labels -> new SeriesState());
+                        evaluate(appId, rule, s, state, events);
+                    }
+                }
+            }
+        }
+        publish(appId, events);
+    }
+
+    /**
+     * Resolves and forgets the alert state of series without samples for longer than
+     * {@code stale-after}, also for applications that are no longer fetched at all
+     */
+    @Scheduled(fixedDelayString = "${alerts.evaluation.stale-check-interval:1m}")
+    public void resolveStale() {
+        if (!enabled) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long staleBefore = now - staleAfterMillis;
+        applications.forEach((appId, application) -> {
+            List<AlertEvent> events = new ArrayList<>();
+            synchronized (application) {
+                for (RuleState ruleState : application.rules) {
+                    Iterator<Map.Entry<Map<String, String>, SeriesState>> states =
+                            ruleState.series().entrySet().iterator();
+                    while (states.hasNext()) {
+                        Map.Entry<Map<String, String>, SeriesState> entry = states.next();
+                        if (entry.getValue().lastTimestamp < staleBefore) {
+                            resolve(appId, ruleState.rule(), entry.getKey(), entry.getValue(), now, events);
+                            states.remove();
+                        }
+                    }
+                }
+            }
+            publish(appId, events);
+        });
+    }
+
+    /**
+     * @param appId The application ID, or null for all applications
+     * @return The pending and firing alerts
+     */
+    public List<AlertEvent> getActiveAlerts(String appId) {
+        List<AlertEvent> active = new ArrayList<>();
+        applications.forEach((id, application) -> {
+            if (appId != null && !appId.equals(id)) {
+                return;
+            }
+            synchronized (application) {
+                for (RuleState ruleState : application.rules) {
+                    ruleState.series().forEach((labels, state) -> {
+                        if (state.activeSince >= 0) {
+                            active.add(event(id, ruleState.rule(), labels, state,
+                                    state.firedAt >= 0 ? FIRING : PENDING, -1));
+                        }
+                    });
+                }
+            }
+        });
+        return active;
+    }
+
+    private void evaluate(String appId, ThresholdRule rule, MetricSeries series, SeriesState state,
+                          List<AlertEvent> events) {
+        for (int i = 0; i < series.size(); i++) {
+            long timestamp = series.getTimestamp(i);
+            if (timestamp <= state.lastTimestamp) {
+                continue;
+            }
+            state.lastTimestamp = timestamp;
+            double value = series.getValue(i);
+            if (!rule.test(value)) {
+                state.value = value;
+                resolve(appId, rule, series.getLabels(), state, timestamp, events);
+                continue;
+            }
+            state.value = value;
+            if (state.activeSince < 0) {
+                state.activeSince = timestamp;
+            }
+            if (state.firedAt < 0 && timestamp - state.activeSince >= rule.forMillis()) {
+                state.firedAt = timestamp;
+                firing.incrementAndGet();
+                firedCounter.increment();
+                events.add(event(appId, rule, series.getLabels(), state, FIRING, -1));
+            }
+        }
+    }
+
+    private void resolve(String appId, ThresholdRule rule, Map<String, String> labels, SeriesState state,
+                         long timestamp, List<AlertEvent> events) {
+        if (state.firedAt >= 0) {
+            firing.decrementAndGet();
+            resolvedCounter.increment();
+            events.add(event(appId, rule, labels, state, RESOLVED, timestamp));
+        }
+        state.activeSince = -1;
+        state.firedAt = -1;
+    }
+
+    private static AlertEvent event(String appId, ThresholdRule rule, Map<String, String> seriesLabels,
+                                    SeriesState state, String status, long endsAt) {
+        Map<String, String> labels = new LinkedHashMap<>(seriesLabels);
+        labels.remove("__name__");
+        labels.putAll(rule.labels());
+        labels.put("alertname", rule.alert());
+        return AlertEvent.builder()
+                .applicationId(appId)
+                .alertName(rule.alert())
+                .status(status)
+                .labels(labels)
+                .annotations(rule.expandAnnotations(labels, state.value))
+                .expr(rule.expr())
+                .value(state.value)
+                .activeAt(Instant.ofEpochMilli(state.activeSince))
+                .startsAt(state.firedAt >= 0 ? Instant.ofEpochMilli(state.firedAt) : null)
+                .endsAt(endsAt >= 0 ? Instant.ofEpochMilli(endsAt) : null)
+                .build();
+    }
+
+    private void publish(String appId, List<AlertEvent> events) {
+        for (AlertEvent event : events) {
+            try {
+                rabbitPublisher.publishJson(routingKeyPrefix + appId, objectMapper.writeValueAsBytes(event));
+            } catch (JsonProcessingException e) {
+                log.error("Failed to serialize alert {} of application {}: {}", event.getAlertName(), appId,
+                        e.getMessage());
+            } catch (RuntimeException e) {
+                log.warn("Failed to publish alert {} of application {}: {}", event.getAlertName(), appId,
+                        e.getMessage());
+            }
+        }
+    }
+
+    private static String key(ThresholdRule rule) {
+        return rule.alert() + '\0' + rule.expr() + '\0' + rule.forMillis() + '\0' + rule.labels();
+    }
+}
@@ -0,0 +1,76 @@
+package com.upr.monitoring.centralmonitoring.alert;
+
+/**
+ * The PromQL comparison operators a threshold rule can use.
+ * Like in PromQL, every comparison with NaN is false except {@code !=}.
+ */
+public enum Comparison {
+
+    GREATER(">") {
+        @Override
+        public boolean test(double value, double threshold) {
+            return value > threshold;
+        }
+    },
+    GREATER_OR_EQUAL(">=") {
+        @Override
+        public boolean test(double value, double threshold) {
+            return value >= threshold;
+        }
+    },
+    LESS("<") {
+        @Override
+        public boolean test(double value, double threshold) {
+            return value < threshold;
+        }
+    },
+    LESS_OR_EQUAL("<=") {
+        @Override
+        public boolean test(double value, double threshold) {
+            return value <= threshold;
+        }
+    },
+    EQUAL("==") {
+        @Override
+        public boolean test(double value, double threshold) {
+            return value == threshold;
+        }
+    },
+    NOT_EQUAL("!=") {
+        @Override
+        public boolean test(double value, double threshold) {
+            return value != threshold;
+        }
+    };
+
+    private final String operator;
+
+    Comparison(String operator) {
+        this.operator = operator;
+    }
+
+    public String getOperator() {
+        return operator;
+    }
+
+    /**
+     * @param value The sample value
+     * @param threshold The threshold of the rule
+     * @return Whether the sample satisfies the comparison
+     */
+    public abstract boolean test(double value, double threshold);
+
+    /**
+     * @param operator The operator as written in PromQL, e.g. {@code >=}
+     * @return The comparison
+     * @throws IllegalArgumentException If the operator is not a comparison
+     */
+    public static Comparison of(String operator) {
+        for (Comparison comparison : values()) {
+            if (comparison.operator.equals(operator)) {
+                return comparison;
+            }
+        }
+        throw new IllegalArgumentException("Unknown comparison operator: " + operator);
+    }
+}
@@ -0,0 +1,219 @@
+package com.upr.monitoring.centralmonitoring.alert;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+
+/**
+ * An alerting rule compiled into a predicate over single samples.
+ * <p>
+ * Only threshold rules are supported: a selector compared with a number, such
+ * as {@code container_memory_rss{container!=""} > 5e8}. A selector may be
+ * wrapped in {@code rate()} or {@code irate()} of a counter, which is then
+ * evaluated on the {@code :rate} series produced by
+ * {@link com.upr.monitoring.centralmonitoring.service.CounterRateStage}, i.e.
+ * on the rate between two fetches rather than over the given range. Any other
+ * expression is left to the Thanos ruler.
+ *
+ * @param alert The alert name
+ * @param expr The expression as written in the rule
+ * @param metricName The metric name of the series the rule applies to
+ * @param matchers The label matchers of the selector, besides the metric name
+ * @param comparison The comparison of the sample value with the threshold
+ * @param threshold The threshold
+ * @param forMillis How long the comparison must hold before the alert fires
+ * @param labels The labels the rule adds to its alerts
+ * @param annotations The annotation templates of the rule
+ * @param rate Whether the selector is wrapped in {@code rate()} or {@code irate()}
+ */
+public record ThresholdRule(String alert, String expr, String metricName, List<LabelMatcher> matchers,
+                            Comparison comparison, double threshold, long forMillis,
+                            Map<String, String> labels, Map<String, String> annotations, boolean rate) {
+
+    private static final Pattern EXPRESSION = Pattern.compile(
+            "\\s*(?:(rate|irate)\\s*\\(\\s*)?([a-zA-Z_:][a-zA-Z0-9_:]*)\\s*(?:\\{(.*)\\})?\\s*"
+                    + "(\\[\\s*[0-9a-z]+\\s*\\]\\s*\\))?\\s*(>=|<=|==|!=|>|<)\\s*"
+                    + "([-+]?(?:[0-9]*\\.?[0-9]+(?:[eE][-+]?[0-9]+)?|Inf|NaN))\\s*");
+
+    private static final Pattern MATCHER = Pattern.compile(
+            "\\G\\s*([a-zA-Z_][a-zA-Z0-9_]*)\\s*(=~|!~|!=|=)\\s*\"((?:[^\"\\\\]|\\\\.)*)\"\\s*(?:,|$)");
+
+    private static final Pattern DURATION_PART = Pattern.compile("\\G([0-9]+)(ms|y|w|d|h|m|s)");
+
+    private static final Pattern TEMPLATE = Pattern.compile(
+            "\\{\\{\\s*\\$(value|labels\\.([a-zA-Z_][a-zA-Z0-9_]*))\\s*}}");
+
+    /**
+     * A label matcher of a selector. Like in PromQL, a missing label matches the empty string.
+     * @param name The label name
+     * @param operator One of {@code =}, {@code !=}, {@code =~} and {@code !~}
+     * @param value The value or regex
+     * @param pattern The anchored regex for the regex operators, null otherwise
+     */
+    public record LabelMatcher(String name, String operator, String value, Pattern pattern) {
+
+        boolean matches(Map<String, String> labels) {
+            String actual = labels.getOrDefault(name, "");
+            return switch (operator) {
+                case "=" -> actual.equals(value);
+                case "!=" -> !actual.equals(value);
+                case "=~" -> pattern.matcher(actual).matches();
+                default -> !pattern.matcher(actual).matches();
+            };
+        }
+    }
+
+    /**
+     * Compiles one rule of a Prometheus rule group
+     * @param rule The rule with {@code alert}, {@code expr} and optionally {@code for}, {@code labels} and {@code annotations}
+     * @return The compiled rule
+     * @throws IllegalArgumentException If the rule is a recording rule or its expression is not a threshold
+     */
+    public static ThresholdRule compile(Map<String, Object> rule) {
+        Object alert = rule.get("alert");
+        Object expr = rule.get("expr");
+        if (alert == null || expr == null) {
+            throw new IllegalArgumentException("Not an alerting rule: " + rule);
+        }
+        Matcher matcher = EXPRESSION.matcher(expr.toString());
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a threshold expression: " + expr);
+        }
+        String function = matcher.group(1);
+        String metricName = matcher.group(2);
+        if ((function != null) != (matcher.group(4) != null)) {
+            throw new IllegalArgumentException("Not a threshold expression: " + expr);
+        }
+        if (function != null) {
+            // The name CounterRateStage gives the rate series of this counter
+            String base = metricName.endsWith("_total")
+                    ? metricName.substring(0, metricName.length() - "_total".length())
+                    : metricName;
+            metricName = base + ":rate";
+        }
+
+        return new ThresholdRule(alert.toString(), expr.toString(), metricName,
+                matchers(matcher.group(3)), Comparison.of(matcher.group(5)), parseThreshold(matcher.group(6)),
+                rule.get("for") == null ? 0 : parseDuration(rule.get("for").toString()),
+                stringMap(rule.get("labels")), stringMap(rule.get("annotations")), function != null);
+    }
+
+    /**
+     * @param seriesLabels The labels of a series, including {@code __name__}
+     * @return Whether the rule applies to the series
+     */
+    public boolean matches(Map<String, String> seriesLabels) {
+        if (!metricName.equals(seriesLabels.get("__name__"))) {
+            return false;
+        }
+        for (LabelMatcher matcher : matchers) {
+            if (!matcher.matches(seriesLabels)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param value A sample value
+     * @return Whether the sample violates the threshold
+     */
+    public boolean test(double value) {
+        return comparison.test(value, threshold);
+    }
+
+    /**
+     * Expands {@code {{ $value }}} and {@code {{ $labels.<name> }}} in the annotations;
+     * other template constructs are kept as they are
+     * @param alertLabels The labels of the alert
+     * @param value The sample value
+     * @return The expanded annotations
+     */
+    public Map<String, String> expandAnnotations(Map<String, String> alertLabels, double value) {
+        Map<String, String> expanded = new LinkedHashMap<>();
+        annotations.forEach((name, template) -> {
+            Matcher matcher = TEMPLATE.matcher(template);
+            StringBuilder result = new StringBuilder();
+            while (matcher.find()) {
+                String replacement = matcher.group(2) == null
+                        ? MetricSeries.formatValue(value)
+                        : alertLabels.getOrDefault(matcher.group(2), "");
+                matcher.appendReplacement(result, Matcher.quoteReplacement(replacement));
+            }
+            matcher.appendTail(result);
+            expanded.put(name, result.toString());
+        });
+        return expanded;
+    }
+
+    /**
+     * Parses a Prometheus duration such as {@code 5m} or {@code 1h30m}
+     * @param text The duration
+     * @return The duration in milliseconds
+     * @throws IllegalArgumentException If the text is not a Prometheus duration
+     */
+    static long parseDuration(String text) {
+        Matcher matcher = DURATION_PART.matcher(text.trim());
+        long millis = 0;
+        int end = 0;
+        while (matcher.find()) {
+            long amount = Long.parseLong(matcher.group(1));
+            millis += amount * switch (matcher.group(2)) {
+                case "ms" -> 1L;
+                case "s" -> 1_000L;
+                case "m" -> 60_000L;
+                case "h" -> 3_600_000L;
+                case "d" -> 86_400_000L;
+                case "w" -> 604_800_000L;
+                default -> 31_536_000_000L;
+            };
+            end = matcher.end();
+        }
+        if (end == 0 || end != text.trim().length()) {
+            throw new IllegalArgumentException("Invalid duration: " + text);
+        }
+        return millis;
+    }
+
+    private static List<LabelMatcher> matchers(String body) {
+        List<LabelMatcher> matchers = new ArrayList<>();
+        if (body == null || body.isBlank()) {
+            return matchers;
+        }
+        Matcher matcher = MATCHER.matcher(body);
+        int end = 0;
+        while (end < body.length() && matcher.find()) {
+            String value = matcher.group(3).replaceAll("\\\\(.)", "$1");
+            String operator = matcher.group(2);
+            Pattern pattern = operator.endsWith("~") ? Pattern.compile(value) : null;
+            matchers.add(new LabelMatcher(matcher.group(1), operator, value, pattern));
+            end = matcher.end();
+        }
+        if (end != body.length()) {
+            throw new IllegalArgumentException("Invalid label matchers: {" + body + "}");
+        }
+        return List.copyOf(matchers);
+    }
+
+    private static double parseThreshold(String text) {
+        return switch (text.replace("+", "")) {
+            case "Inf" -> Double.POSITIVE_INFINITY;
+            case "-Inf" -> Double.NEGATIVE_INFINITY;
+            case "NaN", "-NaN" -> Double.NaN;
+            default -> Double.parseDouble(text);
+        };
+    }
+
+    private static Map<String, String> stringMap(Object value) {
+        Map<String, String> result = new LinkedHashMap<>();
+        if (value instanceof Map<?, ?> map) {
+            map.forEach((k, v) -> result.put(String.valueOf(k), String.valueOf(v)));
+        }
+        return result;
+    }
+}
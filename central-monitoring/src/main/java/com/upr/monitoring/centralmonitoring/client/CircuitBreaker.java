@@ -0,0 +1,151 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+/**
+ * Count-based circuit breaker.
+ * <p>
+ * While closed, the outcomes of the latest calls are kept in a ring and the
+ * circuit opens once the failure rate over at least the minimum number of
+ * calls reaches the threshold. An open circuit rejects every call until the
+ * open duration has passed, then lets a limited number of probe calls through.
+ * The circuit closes when all probes succeed and opens again on the first
+ * failed probe. Every permit carries the generation it was issued in, so late
+ * results of calls started before a transition are ignored.
+ */
+class CircuitBreaker {
+
+    enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private final boolean[] outcomes;
+
+    private final int minCalls;
+
+    private final double failureRateThreshold;
+
+    private final long openNanos;
+
+    private final int halfOpenProbes;
+
+    private State state = State.CLOSED;
+
+    private long generation;
+
+    private int index;
+
+    private int recorded;
+
+    private int failures;
+
+    private long openedAt;
+
+    private int probesIssued;
+
+    private int probesSucceeded;
+
+    /**
+     * @param windowSize The number of latest calls the failure rate is computed over
+     * @param minCalls The number of calls needed before the circuit can open
+     * @param failureRateThreshold The failure rate, between 0 and 1, that opens the circuit
+     * @param openNanos How long the circuit stays open before probing
+     * @param halfOpenProbes The number of probe calls that must succeed to close the circuit
+     */
+    CircuitBreaker(int windowSize, int minCalls, double failureRateThreshold, long openNanos, int halfOpenProbes) {
+        this.outcomes = new boolean[windowSize];
+        this.minCalls = Math.min(minCalls, windowSize);
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openNanos;
+        this.halfOpenProbes = halfOpenProbes;
+    }
+
+    /**
+     * Asks for permission to make a call
+     * @return A permit to pass to {@link #onResult(long, boolean)}, or -1 if the call is rejected
+     */
+    synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return -1;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (probesIssued >= halfOpenProbes) {
+                return -1;
+            }
+            probesIssued++;
+        }
+        return generation;
+    }
+
+    /**
+     * Records the outcome of a permitted call
+     * @param permit The permit returned by {@link #tryAcquire()}
+     * @param success false if the call failed in a way that indicates Thanos is unhealthy
+     * @return The state the circuit moved to because of this result, or null if it did not change
+     */
+    synchronized State onResult(long permit, boolean success) {
+        if (permit != generation) {
+            return null;
+        }
+        if (state == State.HALF_OPEN) {
+            if (!success) {
+                return transition(State.OPEN);
+            } else if (++probesSucceeded >= halfOpenProbes) {
+                return transition(State.CLOSED);
+            }
+            return null;
+        }
+        if (state != State.CLOSED) {
+            return null;
+        }
+        if (recorded == outcomes.length) {
+            if (!outcomes[index]) {
+                failures--;
+            }
+        } else {
+            recorded++;
+        }
+        outcomes[index] = success;
+        if (!success) {
+            failures++;
+        }
+        index = (index + 1) % outcomes.length;
+        if (recorded >= minCalls && failures >= failureRateThreshold * recorded) {
+            return transition(State.OPEN);
+        }
+        return null;
+    }
+
+    synchronized State getState() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    /**
+     * @return The failure rate over the current window, between 0 and 1
+     */
+    synchronized double getFailureRate() {
+        return recorded == 0 ? 0 : (double) failures / recorded;
+    }
+
+    private State transition(State target) {
+        state = target;
+        generation++;
+        probesIssued = 0;
+        probesSucceeded = 0;
+        if (target == State.OPEN) {
+            openedAt = System.nanoTime();
+        }
+        if (target == State.CLOSED) {
+            index = 0;
+            recorded = 0;
+            failures = 0;
+        }
+        return target;
+    }
+}
@@ -0,0 +1,194 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Shared asynchronous HTTP transport for calls to Thanos components.
+ * Backed by a single JDK {@link HttpClient}, which keeps connections alive
+ * and pools them per host, negotiates HTTP/2 where the server supports it
+ * and runs response handling on virtual threads. Responses are requested
+ * gzip-compressed and decompressed transparently.
+ */
+@Component
+public class HttpTransport {
+
+    private static final int MAX_ERROR_BODY = 512;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final HttpClient httpClient;
+
+    private final Duration defaultTimeout;
+
+    public HttpTransport(@Value("${thanos.http.connect-timeout:5s}") Duration connectTimeout,
+                         @Value("${thanos.http.request-timeout:30s}") Duration defaultTimeout) {
+        this.defaultTimeout = defaultTimeout;
+        this.httpClient = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(connectTimeout)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(executor)
+                .build();
+    }
+
+    /**
+     * Reads a response body into a value.
+     * @param <T> The type of the value
+     */
+    @FunctionalInterface
+    public interface BodyReader<T> {
+        T read(InputStream body) throws IOException;
+    }
+
+    /**
+     * Sends a GET request and reads the body with the given reader on a virtual thread
+     * @param uri The request URI
+     * @param timeout The time allowed for the whole call, or null for the default
+     * @param reader Reads the (decompressed) response body
+     * @return A future completed with the value read, or exceptionally with
+     *         {@link HttpTransportException} for non-2xx responses; a timeout or
+     *         cancelling the future closes the response body and stops the reader
+     */
+    public <T> CompletableFuture<T> get(URI uri, Duration timeout, BodyReader<T> reader) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .GET()
+                .timeout(effective(timeout))
+                .header("Accept", "application/json")
+                .header("Accept-Encoding", "gzip")
+                .build();
+        return send(request, timeout, reader);
+    }
+
+    /**
+     * Sends an empty POST request
+     * @param uri The request URI
+     * @param timeout The time allowed for the whole call, or null for the default
+     * @return A future completed with the response body as text
+     */
+    public CompletableFuture<String> post(URI uri, Duration timeout) {
+        HttpRequest request = HttpRequest.newBuilder(uri)
+                .POST(HttpRequest.BodyPublishers.noBody())
+                .timeout(effective(timeout))
+                .header("Accept-Encoding", "gzip")
+                .build();
+        return send(request, timeout, body -> new String(body.readAllBytes(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Waits for a transport future and rethrows failures unwrapped
+     * @param future The future returned by this transport
+     * @return The value of the future
+     */
+    public static <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new HttpTransportException(-1, cause != null ? cause.getMessage() : e.getMessage(), cause);
+        }
+    }
+
+    private <T> CompletableFuture<T> send(HttpRequest request, Duration timeout, BodyReader<T> reader) {
+        Duration effectiveTimeout = effective(timeout);
+        // HttpRequest.timeout only covers the response headers, so the body read is aborted
+        // here when the returned future fails first: on timeout or when a caller cancels it
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicReference<Thread> readingThread = new AtomicReference<>();
+        AtomicReference<InputStream> openBody = new AtomicReference<>();
+        CompletableFuture<HttpResponse<InputStream>> exchange =
+                httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        exchange.thenApplyAsync(response -> {
+                    openBody.set(response.body());
+                    readingThread.set(Thread.currentThread());
+                    try (InputStream body = decode(response)) {
+                        if (result.isDone()) {
+                            return null;
+                        }
+                        if (response.statusCode() / 100 != 2) {
+                            byte[] head = body.readNBytes(MAX_ERROR_BODY);
+                            throw new HttpTransportException(response.statusCode(),
+                                    request.method() + " " + request.uri().getPath() + " returned "
+                                            + response.statusCode() + ": " + new String(head, StandardCharsets.UTF_8),
+                                    null);
+                        }
+                        return reader.read(body);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    } finally {
+                        readingThread.set(null);
+                    }
+                }, executor)
+                .whenComplete((value, error) -> {
+                    if (error == null) {
+                        result.complete(value);
+                    } else {
+                        result.completeExceptionally(error);
+                    }
+                });
+        result.orTimeout(effectiveTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                .whenComplete((value, error) -> {
+                    if (error != null) {
+                        abort(exchange, openBody.get(), readingThread.get());
+                    }
+                });
+        return result;
+    }
+
+    /**
+     * Stops an exchange whose caller has given up, so neither the connection nor the reading thread leaks
+     */
+    private static void abort(CompletableFuture<?> exchange, InputStream body, Thread reader) {
+        exchange.cancel(true);
+        if (body != null) {
+            try {
+                body.close();
+            } catch (IOException e) {
+                // Closing only releases the connection, nothing left to do
+            }
+        }
+        if (reader != null) {
+            // A read blocked on the next chunk of a stalled body does not notice the close
+            reader.interrupt();
+        }
+    }
+
+    private static InputStream decode(HttpResponse<InputStream> response) throws IOException {
+        boolean gzip = response.headers().firstValue("Content-Encoding")
+                .map(encoding -> encoding.equalsIgnoreCase("gzip"))
+                .orElse(false);
+        return gzip ? new GZIPInputStream(response.body(), 64 * 1024) : response.body();
+    }
+
+    private Duration effective(Duration timeout) {
+        return timeout != null ? timeout : defaultTimeout;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        httpClient.shutdownNow();
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,23 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+/**
+ * Thrown when an HTTP call made through {@link HttpTransport} fails or returns a non-2xx status.
+ */
+public class HttpTransportException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+
+    public HttpTransportException(int statusCode, String message, Throwable cause) {
+        super(message, cause);
+        this.statusCode = statusCode;
+    }
+
+    /**
+     * @return The HTTP status code, or -1 if no response was received
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+}
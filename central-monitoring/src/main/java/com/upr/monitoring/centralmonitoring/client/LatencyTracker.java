@@ -0,0 +1,75 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent call latencies of one Thanos endpoint and their percentiles.
+ * Percentiles are recomputed from a sorted copy of the window every few samples,
+ * so reading them is free and recording stays O(1) on average.
+ */
+class LatencyTracker {
+
+    private static final int RECOMPUTE_EVERY = 32;
+
+    private final long[] window;
+
+    private final int minSamples;
+
+    private int next;
+
+    private long recorded;
+
+    private volatile long[] percentiles;
+
+    /**
+     * @param windowSize The number of latest samples percentiles are computed over
+     * @param minSamples The number of samples needed before percentiles are available
+     */
+    LatencyTracker(int windowSize, int minSamples) {
+        this.window = new long[windowSize];
+        this.minSamples = Math.min(minSamples, windowSize);
+    }
+
+    /**
+     * @param nanos The latency of a call in nanoseconds
+     */
+    synchronized void record(long nanos) {
+        window[next] = nanos;
+        next = (next + 1) % window.length;
+        recorded++;
+        if (recorded >= minSamples && (percentiles == null || recorded % RECOMPUTE_EVERY == 0)) {
+            int size = (int) Math.min(recorded, window.length);
+            long[] sorted = Arrays.copyOf(window, size);
+            Arrays.sort(sorted);
+            percentiles = new long[] {at(sorted, 0.50), at(sorted, 0.95), at(sorted, 0.99)};
+        }
+    }
+
+    /**
+     * @return The median latency in nanoseconds, or -1 before enough samples were recorded
+     */
+    long p50() {
+        long[] current = percentiles;
+        return current == null ? -1 : current[0];
+    }
+
+    /**
+     * @return The 95th percentile latency in nanoseconds, or -1 before enough samples were recorded
+     */
+    long p95() {
+        long[] current = percentiles;
+        return current == null ? -1 : current[1];
+    }
+
+    /**
+     * @return The 99th percentile latency in nanoseconds, or -1 before enough samples were recorded
+     */
+    long p99() {
+        long[] current = percentiles;
+        return current == null ? -1 : current[2];
+    }
+
+    private static long at(long[] sorted, double quantile) {
+        return sorted[Math.min(sorted.length - 1, (int) Math.ceil(quantile * sorted.length) - 1)];
+    }
+}
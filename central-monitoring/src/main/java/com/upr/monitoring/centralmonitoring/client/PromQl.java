@@ -0,0 +1,89 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+/**
+ * Helpers for building PromQL selectors from untrusted label values.
+ */
+final class PromQl {
+
+    private static final String REGEX_METACHARACTERS = "\\.+*?()|[]{}^$";
+
+    /** Encoded length of the fixed parts of a batch selector. */
+    static final int BATCH_QUERY_OVERHEAD = URLEncoder.encode(
+            "{__name__=~\"\",application_id=~\"\"}", StandardCharsets.UTF_8).length();
+
+    private PromQl() {
+    }
+
+    /**
+     * Escapes RE2 metacharacters so the value matches literally inside a regex matcher
+     * @param value The literal value
+     * @return The escaped value
+     */
+    static String escapeRegex(String value) {
+        StringBuilder escaped = new StringBuilder(value.length() + 8);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+                escaped.append('\\');
+            }
+            escaped.append(c);
+        }
+        return escaped.toString();
+    }
+
+    /**
+     * Quotes a value as a PromQL double-quoted string literal
+     * @param value The raw value
+     * @return The quoted literal, including the surrounding quotes
+     */
+    static String quote(String value) {
+        return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    /**
+     * Estimates how many characters a value adds to an encoded regex alternation
+     * @param value The literal value
+     * @return The encoded length of the escaped value plus its separator
+     */
+    static int encodedTermLength(String value) {
+        String term = escapeRegex(value).replace("\\", "\\\\").replace("\"", "\\\"");
+        return URLEncoder.encode(term, StandardCharsets.UTF_8).length() + 3;
+    }
+
+    /**
+     * Builds a regex alternation that matches any of the given literal values
+     * @param values The literal values
+     * @return The quoted alternation, e.g. {@code "a|b|c"}
+     */
+    static String alternation(Collection<String> values) {
+        return quote(values.stream().map(PromQl::escapeRegex).collect(Collectors.joining("|")));
+    }
+
+    /**
+     * Builds a selector for the given metric names of one application
+     * @param appId The application ID to match
+     * @param metricNames The metric names to match, or an empty collection for all metrics
+     * @return The PromQL selector
+     */
+    static String applicationSelector(String appId, Collection<String> metricNames) {
+        if (metricNames.isEmpty()) {
+            return "{application_id=" + quote(appId) + "}";
+        }
+        return "{__name__=~" + alternation(metricNames) + ",application_id=" + quote(appId) + "}";
+    }
+
+    /**
+     * Builds a selector for the given metric names across several applications
+     * @param appIds The application IDs to match
+     * @param metricNames The metric names to match
+     * @return The PromQL selector
+     */
+    static String batchSelector(Collection<String> appIds, Collection<String> metricNames) {
+        return "{__name__=~" + alternation(metricNames) + ",application_id=~" + alternation(appIds) + "}";
+    }
+}
@@ -0,0 +1,110 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Groups applications into multi-application PromQL queries.
+ * A batch is closed when adding another application would exceed the length
+ * limit of the encoded query URL, the current application limit or the
+ * expected response size. The application limit and the expected series per application adapt
+ * to the outcome of previous batches.
+ */
+class QueryBatchPlanner {
+
+    private static final double SERIES_SMOOTHING = 0.2;
+
+    private final int maxApps;
+
+    private final int maxQueryLength;
+
+    private final int maxSeries;
+
+    private volatile int currentMaxApps;
+
+    private volatile double seriesPerApp = 1.0;
+
+    QueryBatchPlanner(int maxApps, int maxQueryLength, int maxSeries) {
+        this.maxApps = Math.max(1, maxApps);
+        this.maxQueryLength = maxQueryLength;
+        this.maxSeries = Math.max(1, maxSeries);
+        this.currentMaxApps = this.maxApps;
+    }
+
+    /**
+     * Splits the applications into batches that respect the current limits
+     * @param appMetrics The metric names to query, keyed by application ID
+     * @param uriPrefixLength The length of the query URL before the encoded selector
+     * @return The batches, each keyed by application ID in input order
+     */
+    List<Map<String, List<String>>> plan(Map<String, List<String>> appMetrics, int uriPrefixLength) {
+        int fixedLength = uriPrefixLength + PromQl.BATCH_QUERY_OVERHEAD;
+        List<Map<String, List<String>>> batches = new ArrayList<>();
+        Map<String, List<String>> batch = new LinkedHashMap<>();
+        Set<String> metricNames = new LinkedHashSet<>();
+        int appsLength = 0;
+        int metricsLength = 0;
+
+        for (Map.Entry<String, List<String>> entry : appMetrics.entrySet()) {
+            int appLength = PromQl.encodedTermLength(entry.getKey());
+            int newMetricsLength = metricsLength;
+            for (String metric : entry.getValue()) {
+                if (!metricNames.contains(metric)) {
+                    newMetricsLength += PromQl.encodedTermLength(metric);
+                }
+            }
+
+            boolean full = !batch.isEmpty() && (
+                    batch.size() >= currentMaxApps
+                    || (batch.size() + 1) * seriesPerApp > maxSeries
+                    || fixedLength + appsLength + appLength + newMetricsLength > maxQueryLength);
+            if (full) {
+                batches.add(batch);
+                batch = new LinkedHashMap<>();
+                metricNames = new LinkedHashSet<>();
+                appsLength = 0;
+                newMetricsLength = 0;
+                for (String metric : entry.getValue()) {
+                    if (metricNames.add(metric)) {
+                        newMetricsLength += PromQl.encodedTermLength(metric);
+                    }
+                }
+            } else {
+                metricNames.addAll(entry.getValue());
+            }
+
+            batch.put(entry.getKey(), entry.getValue());
+            appsLength += appLength;
+            metricsLength = newMetricsLength;
+        }
+
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Records a successful batch and grows the application limit additively
+     * @param apps The number of applications in the batch
+     * @param series The number of series returned for the batch
+     */
+    void onSuccess(int apps, int series) {
+        if (apps > 0) {
+            double observed = Math.max(1.0, (double) series / apps);
+            seriesPerApp = seriesPerApp + SERIES_SMOOTHING * (observed - seriesPerApp);
+        }
+        currentMaxApps = Math.min(maxApps, currentMaxApps + Math.max(1, maxApps / 10));
+    }
+
+    /**
+     * Records a failed batch and halves the application limit
+     */
+    void onFailure() {
+        currentMaxApps = Math.max(1, currentMaxApps / 2);
+    }
+}
@@ -2,95 +2,384 @@ package com.upr.monitoring.centralmonitoring.client;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 import org.springframework.web.util.UriComponentsBuilder;
 
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+import com.upr.monitoring.centralmonitoring.model.ThanosQueryResult;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
+import java.math.BigDecimal;
 import java.net.URI;
 import java.net.URLEncoder;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
 
 @Service
 @Slf4j
 public class ThanosClient {
 
+    private static final String QUERY_PATH = "/api/v1/query";
+
+    // Batch and discovery queries are far slower than single application queries on the same path,
+    // so they get their own latency history and adaptive timeout
+    private static final String BATCH_QUERY = "/api/v1/query:batch";
+
+    private static final String DISCOVERY_QUERY = "/api/v1/query:discovery";
+
     @Value("${thanos.base-url}")
     private String thanosBaseUrl;
 
-    private final RestTemplate restTemplate = new RestTemplate();
+    private final HttpTransport transport;
+
+    private final ThanosResponseParser responseParser = new ThanosResponseParser();
+
+    private final QueryBatchPlanner batchPlanner;
+
+    private final Duration rangeTimeout;
+
+    private final ThanosResilience resilience;
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<String, Timer> readTimers = new ConcurrentHashMap<>();
+
+    private final Map<String, DistributionSummary> seriesSummaries = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+
+    private final long logSampleRate;
+
+    /**
+     * Thrown from the parser callback to stop reading a streamed response early
+     */
+    private static final class StopStreaming extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        StopStreaming() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * What one attempt of a streamed query collected. Hedged attempts each build their own,
+     * and only the one of the winning attempt is used.
+     * @param response The response status, with an empty series list
+     * @param value What the attempt collected from the series
+     * @param received The number of series in the response
+     */
+    private record Parsed<T>(ThanosQueryResult response, T value, int received) {
+    }
+
+    public ThanosClient(HttpTransport transport, ThanosResilience resilience, MeterRegistry meterRegistry,
+                        @Value("${thanos.log-sample-rate:100}") long logSampleRate,
+                        @Value("${thanos.http.range-timeout:120s}") Duration rangeTimeout,
+                        @Value("${thanos.batch.max-apps:200}") int batchMaxApps,
+                        @Value("${thanos.batch.max-query-length:6000}") int batchMaxQueryLength,
+                        @Value("${thanos.batch.max-series:50000}") int batchMaxSeries) {
+        this.transport = transport;
+        this.resilience = resilience;
+        this.meterRegistry = meterRegistry;
+        this.logSampleRate = Math.max(1, logSampleRate);
+        this.rangeTimeout = rangeTimeout;
+        this.batchPlanner = new QueryBatchPlanner(batchMaxApps, batchMaxQueryLength, batchMaxSeries);
+    }
 
     // Maybe incremental approach: first fetch specific metrics, like CPU usage, memory usage, etc.
     // Then expand to more complex queries as needed.
-    public Map<String,Object> fetchMetrics(String appId) {
+    public ThanosQueryResult fetchMetrics(String appId) {
         // Prometheus/Thanos query API endpoint
-        log.info("Fetching metrics for appId: {}", appId);
+        if (sampleLog()) {
+            log.debug("Fetching metrics for appId: {}", appId);
+        }
 
         // Build the PromQL query
         String promql = "{application_id=\"" + appId + "\"}";
 
-        // Encode the query for URL safety
-        String encodedQuery = URLEncoder.encode(promql, StandardCharsets.UTF_8);
+        return query(queryUri(promql));
 
-        URI uri = UriComponentsBuilder.fromUriString(thanosBaseUrl + "/api/v1/query")
-                .queryParam("query", encodedQuery)
-                .build(true)   // 'true' prevents double-encoding
-                .toUri();
 
-        return restTemplate.getForObject(uri, Map.class);
+    }
 
+    /**
+     * Fetches every known value of the application_id label
+     * @return The application IDs known to Thanos, empty if the request failed
+     */
+    public List<String> fetchApplicationIdLabelValues() {
+        URI uri = UriComponentsBuilder
+                .fromUriString(thanosBaseUrl + "/api/v1/label/application_id/values")
+                .build(true)
+                .toUri();
 
+        return HttpTransport.await(get(uri, responseParser::parseStringList));
     }
 
-    public Map<String, Object> fetchApplicationIdLabelValues() {
-        String url = UriComponentsBuilder
-                .fromUriString(thanosBaseUrl + "/api/v1/label/application_id/values")
-                .toUriString();
+    public ThanosQueryResult fetchSpecificMetrics(String appId, List<String> metricNames) {
+        return HttpTransport.await(fetchSpecificMetricsAsync(appId, metricNames));
+    }
 
-        return restTemplate.getForObject(url, Map.class);
+    /**
+     * Non-blocking variant of {@link #fetchSpecificMetrics(String, List)}
+     * @param appId The application ID
+     * @param metricNames The metric names to fetch
+     * @return A future completed with the parsed result
+     */
+    public CompletableFuture<ThanosQueryResult> fetchSpecificMetricsAsync(String appId, List<String> metricNames) {
+        URI uri = specificMetricsUri(appId, metricNames);
+        if (sampleLog()) {
+            log.debug("Fetching specific metrics {} for appId {}: {}", metricNames, appId, uri);
+        }
+        return get(uri, responseParser::parse);
     }
 
-    public Map<String, Object> fetchSpecificMetrics(String appId, List<String> metricNames) {
-        // Prometheus/Thanos query API endpoint
-        log.info("Fetching specific metrics '{}' for appId: {}", metricNames, appId);
+    /**
+     * Groups applications into batches that fit in a single multi-application query.
+     * Batch sizes adapt to the URL length limit, to the number of series returned
+     * per application and to previous batch failures.
+     * @param appMetrics The metric names to query, keyed by application ID
+     * @return The batches to pass to {@link #fetchSpecificMetricsBatch(Map)}
+     */
+    public List<Map<String, List<String>>> planBatches(Map<String, List<String>> appMetrics) {
+        // The limit applies to the whole URL, as proxies and Thanos see it
+        return batchPlanner.plan(appMetrics, (thanosBaseUrl + QUERY_PATH + "?query=").length());
+    }
 
-        Map<String, Object> results = new HashMap<>();
+    /**
+     * Fetches the metrics of several applications with one query and splits the
+     * result back into one result per application while the response is parsed,
+     * using the application_id label. Each application only receives the metrics it asked for.
+     * @param appMetrics The metric names to query, keyed by application ID
+     * @return One result per application ID, as returned by {@link #fetchSpecificMetrics(String, List)}
+     */
+    public Map<String, ThanosQueryResult> fetchSpecificMetricsBatch(Map<String, List<String>> appMetrics) {
+        URI uri = batchUri(appMetrics);
+        if (sampleLog()) {
+            log.debug("Fetching batch of {} applications from Thanos: {}", appMetrics.size(), uri);
+        }
+
+        Map<String, Set<String>> wanted = new HashMap<>();
+        appMetrics.forEach((appId, metrics) -> wanted.put(appId, new HashSet<>(metrics)));
+
+        // A hedged call may parse two responses at once, so each attempt splits into its own map
+        Parsed<Map<String, List<MetricSeries>>> parsed;
+        try {
+            parsed = HttpTransport.await(get(BATCH_QUERY, uri, body -> {
+                Map<String, List<MetricSeries>> split = new HashMap<>();
+                appMetrics.keySet().forEach(appId -> split.put(appId, new ArrayList<>()));
+                int[] received = new int[1];
+                ThanosQueryResult response = responseParser.parse(body, series -> {
+                    received[0]++;
+                    String appId = series.getLabels().get("application_id");
+                    Set<String> metrics = appId != null ? wanted.get(appId) : null;
+                    if (metrics != null && metrics.contains(series.getName())) {
+                        split.get(appId).add(series);
+                    }
+                });
+                return new Parsed<>(response, split, received[0]);
+            }));
+        } catch (RuntimeException e) {
+            batchPlanner.onFailure();
+            throw e;
+        }
+        ThanosQueryResult response = parsed.response();
+        if (response == null || !response.isSuccess()) {
+            batchPlanner.onFailure();
+            throw new RuntimeException("Batch query failed for applications " + appMetrics.keySet());
+        }
+        batchPlanner.onSuccess(appMetrics.size(), parsed.received());
+
+        Map<String, ThanosQueryResult> responses = new HashMap<>();
+        parsed.value().forEach((appId, appSeries) -> responses.put(appId, response.withSeries(appSeries)));
+        return responses;
+    }
+
+    /**
+     * Builds the instant query URI for some metrics of one application
+     * @param appId The application ID
+     * @param metricNames The metric names to fetch
+     * @return The query URI
+     */
+    URI specificMetricsUri(String appId, List<String> metricNames) {
         String metrics = String.join("|", metricNames);
         // Build the PromQL query
         String promql = "{__name__=~\"" + metrics + "\"," + "application_id=\"" + appId + "\"}";
+        return queryUri(promql);
+    }
 
+    /**
+     * Builds the instant query URI for a batch of applications
+     * @param appMetrics The metric names to query, keyed by application ID
+     * @return The query URI
+     */
+    URI batchUri(Map<String, List<String>> appMetrics) {
+        Set<String> metricNames = new LinkedHashSet<>();
+        appMetrics.values().forEach(metricNames::addAll);
+        return queryUri(PromQl.batchSelector(appMetrics.keySet(), metricNames));
+    }
+
+    private URI queryUri(String promql) {
         // Encode the query for URL safety
         String encodedQuery = URLEncoder.encode(promql, StandardCharsets.UTF_8);
-
-        URI uri = UriComponentsBuilder.fromUriString(thanosBaseUrl + "/api/v1/query")
+        return UriComponentsBuilder.fromUriString(thanosBaseUrl + QUERY_PATH)
                 .queryParam("query", encodedQuery)
                 .build(true)   // 'true' prevents double-encoding
                 .toUri();
-        log.info("Thanos query URI: {}", uri.toString());
-        Map<String, Object> response = restTemplate.getForObject(uri, Map.class);
-        return response;
-        // Parse the response to extract metric values
-        // Map<String, String> extractedValues = extractMetricValues(response);
-        // return extractedValues;
-    }
-
-    private Map<String, String> extractMetricValues(Map<String, Object> response) {
-        Map<String, String> metricValues = new HashMap<>();
-        // Extract the "data" field from the response
-        Map<String, Object> data = (Map<String, Object>) response.get("data");
-        if (data != null) {
-            // Extract the "result" field from the data
-            List<Map<String, Object>> results = (List<Map<String, Object>>) data.get("result");
-            for (Map<String, Object> result : results) {
-                String metricName = (String) result.get("metric");
-                String metricValue = (String) result.get("value");
-                metricValues.put(metricName, metricValue);
-            }
+    }
+
+    /**
+     * Discovers which metric names exist for each application with a single
+     * {@code count by (application_id, __name__)} query
+     * @param appIds The application IDs to discover
+     * @return The metric names present in Thanos, keyed by application ID;
+     *         applications without any series map to an empty set
+     */
+    public Map<String, Set<String>> fetchMetricNamesByApplication(Collection<String> appIds) {
+        String promql = "count by (application_id, __name__) ({application_id=~"
+                + PromQl.alternation(appIds) + "})";
+        URI uri = queryUri(promql);
+
+        Parsed<Map<String, Set<String>>> parsed = HttpTransport.await(get(DISCOVERY_QUERY, uri, body -> {
+            Map<String, Set<String>> names = new HashMap<>();
+            appIds.forEach(appId -> names.put(appId, new HashSet<>()));
+            int[] received = new int[1];
+            ThanosQueryResult response = responseParser.parse(body, series -> {
+                received[0]++;
+                Set<String> appNames = names.get(series.getLabels().get("application_id"));
+                if (appNames != null && series.getName() != null) {
+                    appNames.add(series.getName());
+                }
+            });
+            return new Parsed<>(response, names, received[0]);
+        }));
+        ThanosQueryResult response = parsed.response();
+        if (response == null || !response.isSuccess()) {
+            throw new RuntimeException("Metric discovery failed for applications " + appIds
+                    + (response != null ? ": " + response.getError() : ""));
         }
-        return metricValues;
+        return parsed.value();
+    }
+
+    /**
+     * Fetches the type of every metric from the metadata API
+     * @return The type, such as {@code counter} or {@code gauge}, keyed by metric name
+     */
+    public Map<String, String> fetchMetricTypes() {
+        URI uri = UriComponentsBuilder.fromUriString(thanosBaseUrl + "/api/v1/metadata")
+                .build(true)
+                .toUri();
+        return HttpTransport.await(get(uri, responseParser::parseMetadataTypes));
+    }
+
+    /**
+     * Runs a range query for an application and hands every series to the sink
+     * while the response is still being parsed, so only one series is held in
+     * memory at a time. Thanos returns range results sorted by labels.
+     * @param appId The application ID
+     * @param metricNames The metric names to fetch, or an empty list for all metrics of the application
+     * @param start Start of the range, inclusive
+     * @param end End of the range, inclusive
+     * @param step Resolution of the returned samples
+     * @param sink Receives each series and returns false to stop reading the response
+     * @return The response status and result type, with an empty series list
+     */
+    public ThanosQueryResult streamRange(String appId, List<String> metricNames, Instant start, Instant end,
+                                         Duration step, Predicate<MetricSeries> sink) {
+        String promql = PromQl.applicationSelector(appId, metricNames);
+        URI uri = UriComponentsBuilder.fromUriString(thanosBaseUrl + "/api/v1/query_range")
+                .queryParam("query", URLEncoder.encode(promql, StandardCharsets.UTF_8))
+                .queryParam("start", seconds(start.toEpochMilli()))
+                .queryParam("end", seconds(end.toEpochMilli()))
+                .queryParam("step", seconds(step.toMillis()))
+                .build(true)
+                .toUri();
+
+        // The sink has side effects, so the call is never hedged
+        return HttpTransport.await(resilience.callOnce(uri.getPath(), rangeTimeout,
+                timeout -> transport.get(uri, timeout, body -> {
+                    try {
+                        return responseParser.parse(body, series -> {
+                            if (!sink.test(series)) {
+                                throw new StopStreaming();
+                            }
+                        });
+                    } catch (StopStreaming e) {
+                        // Closing the body cancels the rest of the response
+                        return new ThanosQueryResult("success", "matrix", List.of(), null);
+                    }
+                })));
+    }
+
+    private static String seconds(long millis) {
+        return BigDecimal.valueOf(millis, 3).stripTrailingZeros().toPlainString();
+    }
+
+    private <T> CompletableFuture<T> get(URI uri, HttpTransport.BodyReader<T> reader) {
+        return get(uri.getPath(), uri, reader);
+    }
+
+    /**
+     * @param endpoint The name latencies, timeouts and meters are tracked under
+     */
+    private <T> CompletableFuture<T> get(String endpoint, URI uri, HttpTransport.BodyReader<T> reader) {
+        HttpTransport.BodyReader<T> measured = measured(endpoint, reader);
+        return resilience.call(endpoint, null, timeout -> transport.get(uri, timeout, measured));
+    }
+
+    /**
+     * Wraps a body reader to record how long reading and parsing took and how many series came back
+     */
+    private <T> HttpTransport.BodyReader<T> measured(String endpoint, HttpTransport.BodyReader<T> reader) {
+        Timer timer = readTimers.computeIfAbsent(endpoint, e -> Timer.builder("thanos.response.read")
+                .description("Time spent reading and parsing Thanos responses")
+                .tag("endpoint", e)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+        return body -> {
+            long start = System.nanoTime();
+            T value = reader.read(body);
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            int series = value instanceof ThanosQueryResult result && result.getSeries() != null
+                    ? result.getSeries().size()
+                    : value instanceof Parsed<?> parsed ? parsed.received() : -1;
+            if (series >= 0) {
+                seriesSummaries.computeIfAbsent(endpoint, e -> DistributionSummary.builder("thanos.response.series")
+                                .description("Series per Thanos query response")
+                                .tag("endpoint", e)
+                                .publishPercentileHistogram()
+                                .register(meterRegistry))
+                        .record(series);
+            }
+            return value;
+        };
+    }
+
+    /**
+     * @return true for one in every log-sample-rate calls while debug logging is enabled
+     */
+    private boolean sampleLog() {
+        return log.isDebugEnabled() && calls.getAndIncrement() % logSampleRate == 0;
+    }
+
+    private ThanosQueryResult query(URI uri) {
+        return HttpTransport.await(get(uri, responseParser::parse));
     }
 
 
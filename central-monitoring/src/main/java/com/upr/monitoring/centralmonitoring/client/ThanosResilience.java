@@ -0,0 +1,569 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.upr.monitoring.centralmonitoring.model.ResilienceStats;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Guards the calls {@link ThanosClient} makes to Thanos.
+ * <ul>
+ * <li>Bulkheads: scheduled fetches, interactive requests and streamed calls
+ * get separate concurrency limits, so a fetch cycle cannot take every
+ * connection away from API callers and the other way round, and long range
+ * streams cannot starve short queries. A caller waits a bounded time for a
+ * slot and is rejected after it.</li>
+ * <li>Circuit breaker: when too many recent calls failed, calls are rejected
+ * immediately until a few probe calls succeed again. Client errors (4xx) do
+ * not count as failures.</li>
+ * <li>Adaptive timeouts: every endpoint keeps a window of recent latencies and
+ * its timeout follows the 99th percentile times a multiplier, between a
+ * minimum and the timeout the caller asked for. Timed out calls are recorded
+ * at their full duration, so the timeout grows when Thanos slows down as a whole.</li>
+ * <li>Hedging: an idempotent query that has not answered after the 95th
+ * percentile latency is sent a second time and the first answer wins; the
+ * other attempt is cancelled, and the call keeps its bulkhead slot until it
+ * has stopped. Cancelling the call cancels both attempts. Hedges are limited
+ * to a fraction of the calls and are not sent while the circuit is probing.</li>
+ * </ul>
+ * The traffic class is taken from the calling thread, see {@link #runAs(Traffic, Runnable)};
+ * calls default to interactive.
+ */
+@Component
+@Slf4j
+public class ThanosResilience {
+
+    /**
+     * Class of traffic a call belongs to, each with its own bulkhead
+     */
+    public enum Traffic {
+        SCHEDULED,
+        INTERACTIVE,
+        /**
+         * Calls made with {@link #callOnce}, whatever the calling thread; they may run for the whole range timeout
+         */
+        STREAMING
+    }
+
+    private static final ThreadLocal<Traffic> CURRENT_TRAFFIC = new ThreadLocal<>();
+
+    private static final int LATENCY_WINDOW = 1024;
+
+    private static final double MAX_HEDGE_TOKENS = 10;
+
+    private static final class Bulkhead {
+        final int maxConcurrent;
+        final Semaphore permits;
+        final long maxWaitNanos;
+        final LongAdder rejected = new LongAdder();
+
+        Bulkhead(int maxConcurrent, Duration maxWait) {
+            this.maxConcurrent = maxConcurrent;
+            this.permits = new Semaphore(maxConcurrent);
+            this.maxWaitNanos = maxWait.toNanos();
+        }
+
+        boolean tryAcquire() {
+            try {
+                if (permits.tryAcquire() || permits.tryAcquire(maxWaitNanos, TimeUnit.NANOSECONDS)) {
+                    return true;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            rejected.increment();
+            return false;
+        }
+    }
+
+    private final class Endpoint {
+        final LatencyTracker latency = new LatencyTracker(LATENCY_WINDOW, minSamples);
+        final LongAdder calls = new LongAdder();
+        final LongAdder timeouts = new LongAdder();
+        final LongAdder hedges = new LongAdder();
+        final LongAdder hedgeWins = new LongAdder();
+        final Timer succeeded;
+        final Timer failed;
+        final Timer timedOut;
+
+        Endpoint(String name) {
+            succeeded = requestTimer(name, "success");
+            failed = requestTimer(name, "error");
+            timedOut = requestTimer(name, "timeout");
+            FunctionCounter.builder("thanos.hedges", hedges, LongAdder::sum)
+                    .description("Duplicate requests sent for slow Thanos calls")
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+            FunctionCounter.builder("thanos.hedge.wins", hedgeWins, LongAdder::sum)
+                    .description("Thanos calls answered by the duplicate request")
+                    .tag("endpoint", name)
+                    .register(meterRegistry);
+        }
+
+        void record(long nanos, Throwable error) {
+            Timer timer = error == null ? succeeded : isTimeout(error) ? timedOut : failed;
+            timer.record(nanos, TimeUnit.NANOSECONDS);
+        }
+
+        long timeoutNanos(long maxNanos) {
+            long p99 = latency.p99();
+            if (p99 < 0) {
+                return maxNanos;
+            }
+            return Math.min(maxNanos, Math.max(minTimeoutNanos, (long) (p99 * timeoutMultiplier)));
+        }
+
+        long hedgeDelayNanos() {
+            long p95 = latency.p95();
+            return p95 < 0 ? -1 : Math.max(minHedgeDelayNanos, p95);
+        }
+    }
+
+    private final MeterRegistry meterRegistry;
+
+    private final Map<Traffic, Bulkhead> bulkheads = new EnumMap<>(Traffic.class);
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+    private final CircuitBreaker circuitBreaker;
+
+    private final LongAdder circuitRejected = new LongAdder();
+
+    private final ScheduledExecutorService hedgeTimer = Executors.newSingleThreadScheduledExecutor(
+            Thread.ofPlatform().name("thanos-hedge-timer").daemon().factory());
+
+    private final boolean enabled;
+
+    private final long defaultTimeoutNanos;
+
+    private final long minTimeoutNanos;
+
+    private final double timeoutMultiplier;
+
+    private final int minSamples;
+
+    private final boolean hedgingEnabled;
+
+    private final long minHedgeDelayNanos;
+
+    private final double hedgeRatio;
+
+    private double hedgeTokens = MAX_HEDGE_TOKENS;
+
+    public ThanosResilience(MeterRegistry meterRegistry,
+                            @Value("${thanos.resilience.enabled:true}") boolean enabled,
+                            @Value("${thanos.http.request-timeout:30s}") Duration defaultTimeout,
+                            @Value("${thanos.resilience.timeout.min:1s}") Duration minTimeout,
+                            @Value("${thanos.resilience.timeout.multiplier:3}") double timeoutMultiplier,
+                            @Value("${thanos.resilience.timeout.min-samples:50}") int minSamples,
+                            @Value("${thanos.resilience.hedge.enabled:true}") boolean hedgingEnabled,
+                            @Value("${thanos.resilience.hedge.min-delay:50ms}") Duration minHedgeDelay,
+                            @Value("${thanos.resilience.hedge.max-ratio:0.1}") double hedgeRatio,
+                            @Value("${thanos.resilience.circuit.window:50}") int circuitWindow,
+                            @Value("${thanos.resilience.circuit.min-calls:20}") int circuitMinCalls,
+                            @Value("${thanos.resilience.circuit.failure-rate:0.5}") double circuitFailureRate,
+                            @Value("${thanos.resilience.circuit.open-duration:30s}") Duration circuitOpenDuration,
+                            @Value("${thanos.resilience.circuit.half-open-probes:3}") int halfOpenProbes,
+                            @Value("${thanos.resilience.bulkhead.scheduled.max-concurrent:64}") int scheduledMaxConcurrent,
+                            @Value("${thanos.resilience.bulkhead.scheduled.max-wait:10s}") Duration scheduledMaxWait,
+                            @Value("${thanos.resilience.bulkhead.interactive.max-concurrent:16}") int interactiveMaxConcurrent,
+                            @Value("${thanos.resilience.bulkhead.interactive.max-wait:1s}") Duration interactiveMaxWait,
+                            @Value("${thanos.resilience.bulkhead.streaming.max-concurrent:4}") int streamingMaxConcurrent,
+                            @Value("${thanos.resilience.bulkhead.streaming.max-wait:1s}") Duration streamingMaxWait) {
+        this.meterRegistry = meterRegistry;
+        this.enabled = enabled;
+        this.defaultTimeoutNanos = defaultTimeout.toNanos();
+        this.minTimeoutNanos = minTimeout.toNanos();
+        this.timeoutMultiplier = timeoutMultiplier;
+        this.minSamples = minSamples;
+        this.hedgingEnabled = hedgingEnabled;
+        this.minHedgeDelayNanos = minHedgeDelay.toNanos();
+        this.hedgeRatio = hedgeRatio;
+        this.circuitBreaker = new CircuitBreaker(circuitWindow, circuitMinCalls, circuitFailureRate,
+                circuitOpenDuration.toNanos(), halfOpenProbes);
+        bulkheads.put(Traffic.SCHEDULED, new Bulkhead(scheduledMaxConcurrent, scheduledMaxWait));
+        bulkheads.put(Traffic.INTERACTIVE, new Bulkhead(interactiveMaxConcurrent, interactiveMaxWait));
+        bulkheads.put(Traffic.STREAMING, new Bulkhead(streamingMaxConcurrent, streamingMaxWait));
+
+        bulkheads.forEach((traffic, bulkhead) -> {
+            String name = traffic.name().toLowerCase();
+            Gauge.builder("thanos.bulkhead.in.use", bulkhead, b -> b.maxConcurrent - b.permits.availablePermits())
+                    .description("Thanos calls in flight per traffic class")
+                    .tag("traffic", name)
+                    .register(meterRegistry);
+            FunctionCounter.builder("thanos.rejected", bulkhead.rejected, LongAdder::sum)
+                    .description("Thanos calls rejected without being sent")
+                    .tags("reason", "bulkhead", "traffic", name)
+                    .register(meterRegistry);
+        });
+        FunctionCounter.builder("thanos.rejected", circuitRejected, LongAdder::sum)
+                .description("Thanos calls rejected without being sent")
+                .tags("reason", "circuit", "traffic", "any")
+                .register(meterRegistry);
+        Gauge.builder("thanos.circuit.state", circuitBreaker, breaker -> breaker.getState().ordinal())
+                .description("State of the Thanos circuit: 0 closed, 1 open, 2 half-open")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Runs a task with its Thanos calls counted as the given traffic class
+     * @param traffic The traffic class
+     * @param task The task to run on the current thread
+     */
+    public static void runAs(Traffic traffic, Runnable task) {
+        callAs(traffic, () -> {
+            task.run();
+            return null;
+        });
+    }
+
+    /**
+     * Runs a task with its Thanos calls counted as the given traffic class
+     * @param traffic The traffic class
+     * @param task The task to run on the current thread
+     * @return The result of the task
+     */
+    public static <T> T callAs(Traffic traffic, Supplier<T> task) {
+        Traffic previous = CURRENT_TRAFFIC.get();
+        CURRENT_TRAFFIC.set(traffic);
+        try {
+            return task.get();
+        } finally {
+            if (previous == null) {
+                CURRENT_TRAFFIC.remove();
+            } else {
+                CURRENT_TRAFFIC.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Makes an idempotent call with an adaptive timeout, hedging it when it is slow
+     * @param endpoint The endpoint the latencies are tracked for
+     * @param maxTimeout The longest timeout allowed, or null for the default request timeout
+     * @param attempt Starts one attempt with the given timeout; may be invoked twice
+     * @return A future completed with the first successful attempt, or exceptionally with
+     *         {@link ThanosUnavailableException} when the call was not permitted;
+     *         cancelling it cancels the running attempts
+     */
+    public <T> CompletableFuture<T> call(String endpoint, Duration maxTimeout,
+                                         Function<Duration, CompletableFuture<T>> attempt) {
+        Traffic traffic = CURRENT_TRAFFIC.get() != null ? CURRENT_TRAFFIC.get() : Traffic.INTERACTIVE;
+        return execute(endpoint, maxTimeout, traffic, true, attempt);
+    }
+
+    /**
+     * Makes a call with a fixed timeout that is neither hedged nor used to adapt timeouts,
+     * for calls with side effects such as streaming the response to a client.
+     * The call takes a slot of the streaming bulkhead.
+     * @param endpoint The endpoint the call is counted for
+     * @param timeout The timeout, or null for the default request timeout
+     * @param attempt Starts the call with the given timeout; invoked once
+     * @return The future of the call, or a future failed with {@link ThanosUnavailableException}
+     */
+    public <T> CompletableFuture<T> callOnce(String endpoint, Duration timeout,
+                                             Function<Duration, CompletableFuture<T>> attempt) {
+        return execute(endpoint, timeout, Traffic.STREAMING, false, attempt);
+    }
+
+    /**
+     * @return A snapshot of the circuit, bulkhead and endpoint counters
+     */
+    public ResilienceStats getStats() {
+        Map<String, ResilienceStats.Bulkhead> bulkheadStats = new TreeMap<>();
+        bulkheads.forEach((traffic, bulkhead) -> bulkheadStats.put(traffic.name().toLowerCase(),
+                ResilienceStats.Bulkhead.builder()
+                        .maxConcurrent(bulkhead.maxConcurrent)
+                        .inUse(bulkhead.maxConcurrent - bulkhead.permits.availablePermits())
+                        .rejected(bulkhead.rejected.sum())
+                        .build()));
+        Map<String, ResilienceStats.Endpoint> endpointStats = new TreeMap<>();
+        endpoints.forEach((name, endpoint) -> endpointStats.put(name, ResilienceStats.Endpoint.builder()
+                .calls(endpoint.calls.sum())
+                .timeouts(endpoint.timeouts.sum())
+                .hedges(endpoint.hedges.sum())
+                .hedgeWins(endpoint.hedgeWins.sum())
+                .p50Ms(millis(endpoint.latency.p50()))
+                .p99Ms(millis(endpoint.latency.p99()))
+                .timeoutMs(millis(endpoint.timeoutNanos(defaultTimeoutNanos)))
+                .build()));
+        return ResilienceStats.builder()
+                .enabled(enabled)
+                .circuitState(circuitBreaker.getState().name())
+                .failureRate(circuitBreaker.getFailureRate())
+                .circuitRejected(circuitRejected.sum())
+                .bulkheads(bulkheadStats)
+                .endpoints(endpointStats)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        hedgeTimer.shutdownNow();
+    }
+
+    private <T> CompletableFuture<T> execute(String endpointName, Duration maxTimeout, Traffic traffic,
+                                             boolean adaptive, Function<Duration, CompletableFuture<T>> attempt) {
+        long maxTimeoutNanos = maxTimeout != null ? maxTimeout.toNanos() : defaultTimeoutNanos;
+        if (!enabled) {
+            Endpoint endpoint = endpoint(endpointName);
+            long start = System.nanoTime();
+            return attempt.apply(Duration.ofNanos(maxTimeoutNanos))
+                    .whenComplete((value, error) -> endpoint.record(System.nanoTime() - start, error));
+        }
+        Bulkhead bulkhead = bulkheads.get(traffic);
+        if (!bulkhead.tryAcquire()) {
+            return CompletableFuture.failedFuture(new ThanosUnavailableException(
+                    "Too many concurrent " + traffic.name().toLowerCase() + " Thanos calls"));
+        }
+        long permit = circuitBreaker.tryAcquire();
+        if (permit < 0) {
+            bulkhead.permits.release();
+            circuitRejected.increment();
+            return CompletableFuture.failedFuture(new ThanosUnavailableException(
+                    "Thanos circuit is open after repeated failures"));
+        }
+
+        Endpoint endpoint = endpoint(endpointName);
+        endpoint.calls.increment();
+        long timeoutNanos = adaptive ? endpoint.timeoutNanos(maxTimeoutNanos) : maxTimeoutNanos;
+        long start = System.nanoTime();
+        CompletableFuture<T> result;
+        // Completes once no attempt is running any more, which is after the result when a loser is still cancelling
+        CompletableFuture<?> settled;
+        try {
+            if (adaptive && hedgingEnabled && permitHedgeBudget()) {
+                HedgedCall<T> call = hedged(endpoint, timeoutNanos, attempt);
+                result = call.result;
+                settled = call.settled;
+            } else {
+                result = attempt.apply(Duration.ofNanos(timeoutNanos));
+                settled = result;
+            }
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+            settled = result;
+        }
+        // The slot is held while a losing attempt still occupies a connection
+        settled.whenComplete((value, error) -> bulkhead.permits.release());
+        CompletableFuture<T> decided = result;
+        CompletableFuture<T> observed = result.whenComplete((value, error) -> {
+            endpoint.record(System.nanoTime() - start, error);
+            boolean timedOut = error != null && isTimeout(error);
+            if (timedOut) {
+                endpoint.timeouts.increment();
+            }
+            if (adaptive && (error == null || timedOut)) {
+                endpoint.latency.record(System.nanoTime() - start);
+            }
+            CircuitBreaker.State changed = circuitBreaker.onResult(permit, error == null || !isUnhealthy(error));
+            if (changed == CircuitBreaker.State.OPEN) {
+                log.warn("Thanos circuit opened, rejecting calls for a while: {}", unwrap(error).getMessage());
+            } else if (changed == CircuitBreaker.State.CLOSED) {
+                log.info("Thanos circuit closed, calls are permitted again");
+            }
+        });
+        // A dependent future does not pass cancellation on by itself
+        observed.whenComplete((value, error) -> {
+            if (observed.isCancelled()) {
+                decided.cancel(true);
+            }
+        });
+        return observed;
+    }
+
+    private <T> HedgedCall<T> hedged(Endpoint endpoint, long timeoutNanos,
+                                     Function<Duration, CompletableFuture<T>> attempt) {
+        HedgedCall<T> call = new HedgedCall<>();
+        CompletableFuture<T> primary = attempt.apply(Duration.ofNanos(timeoutNanos));
+        call.register(primary);
+        primary.whenComplete((value, error) -> call.onAttempt(value, error, false, endpoint));
+        call.result.whenComplete((value, error) -> {
+            if (call.result.isCancelled()) {
+                call.cancelAttempts();
+            }
+        });
+        long delay = endpoint.hedgeDelayNanos();
+        if (delay < 0 || delay >= timeoutNanos || primary.isDone()
+                || circuitBreaker.getState() != CircuitBreaker.State.CLOSED) {
+            return call;
+        }
+
+        ScheduledFuture<?> hedge = hedgeTimer.schedule(() -> {
+            if (!call.startHedge(this)) {
+                return;
+            }
+            endpoint.hedges.increment();
+            CompletableFuture<T> second;
+            try {
+                second = attempt.apply(Duration.ofNanos(timeoutNanos - delay));
+            } catch (RuntimeException e) {
+                second = CompletableFuture.failedFuture(e);
+            }
+            if (!call.register(second)) {
+                // The primary won while the hedge was being sent
+                second.cancel(true);
+            }
+            second.whenComplete((value, error) -> call.onAttempt(value, error, true, endpoint));
+        }, delay, TimeUnit.NANOSECONDS);
+        call.result.whenComplete((value, error) -> hedge.cancel(false));
+        return call;
+    }
+
+    /**
+     * A call completed by whichever of its attempts succeeds first, or failed when all attempts failed.
+     * The attempts still running when the result is decided or cancelled are cancelled.
+     */
+    private static final class HedgedCall<T> {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        final CompletableFuture<Void> settled = new CompletableFuture<>();
+        final List<CompletableFuture<T>> attempts = new ArrayList<>(2);
+        int pending = 1;
+        boolean decided;
+        Throwable firstError;
+
+        synchronized boolean startHedge(ThanosResilience resilience) {
+            if (decided || pending == 0 || !resilience.takeHedgeToken()) {
+                return false;
+            }
+            pending++;
+            return true;
+        }
+
+        /**
+         * @return false if the call was decided already, the attempt is then to be cancelled by the caller
+         */
+        synchronized boolean register(CompletableFuture<T> attempt) {
+            attempts.add(attempt);
+            return !decided;
+        }
+
+        /**
+         * Cancels the running attempts after the result was cancelled; no hedge is started afterwards
+         */
+        void cancelAttempts() {
+            List<CompletableFuture<T>> running;
+            synchronized (this) {
+                decided = true;
+                running = attempts.stream().filter(a -> !a.isDone()).toList();
+            }
+            running.forEach(attempt -> attempt.cancel(true));
+        }
+
+        void onAttempt(T value, Throwable error, boolean hedge, Endpoint endpoint) {
+            List<CompletableFuture<T>> losers = List.of();
+            boolean won = false;
+            boolean failed = false;
+            boolean done;
+            synchronized (this) {
+                if (error == null && !decided) {
+                    decided = true;
+                    won = true;
+                    losers = attempts.stream().filter(a -> !a.isDone()).toList();
+                    // Counted before completing, callers may read the counters as soon as the result is there
+                    if (hedge) {
+                        endpoint.hedgeWins.increment();
+                    }
+                } else if (error != null && firstError == null) {
+                    firstError = error;
+                }
+                done = --pending == 0;
+                if (done && !decided) {
+                    decided = true;
+                    failed = true;
+                }
+            }
+            if (won) {
+                result.complete(value);
+                losers.forEach(loser -> loser.cancel(true));
+            } else if (failed) {
+                result.completeExceptionally(firstError);
+            }
+            if (done) {
+                settled.complete(null);
+            }
+        }
+    }
+
+    private Endpoint endpoint(String name) {
+        return endpoints.computeIfAbsent(name, Endpoint::new);
+    }
+
+    private Timer requestTimer(String endpoint, String outcome) {
+        return Timer.builder("thanos.request")
+                .description("Latency of Thanos calls, including reading the response")
+                .tags("endpoint", endpoint, "outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private synchronized boolean permitHedgeBudget() {
+        // Every call earns a fraction of a hedge, so hedges stay a bounded share of the load
+        hedgeTokens = Math.min(MAX_HEDGE_TOKENS, hedgeTokens + hedgeRatio);
+        return hedgeTokens >= 1;
+    }
+
+    private synchronized boolean takeHedgeToken() {
+        if (hedgeTokens < 1) {
+            return false;
+        }
+        hedgeTokens--;
+        return true;
+    }
+
+    private static boolean isTimeout(Throwable error) {
+        Throwable cause = unwrap(error);
+        return cause instanceof TimeoutException || cause instanceof HttpTimeoutException;
+    }
+
+    private static boolean isUnhealthy(Throwable error) {
+        // A rejected or cancelled query says nothing about the health of Thanos
+        Throwable cause = unwrap(error);
+        if (cause instanceof CancellationException) {
+            return false;
+        }
+        return !(cause instanceof HttpTransportException transportError)
+                || transportError.getStatusCode() < 400 || transportError.getStatusCode() >= 500;
+    }
+
+    private static Throwable unwrap(Throwable error) {
+        Throwable cause = error;
+        while (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        return cause;
+    }
+
+    private static double millis(long nanos) {
+        return nanos < 0 ? -1 : nanos / 1_000_000.0;
+    }
+}
@@ -0,0 +1,278 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+import com.upr.monitoring.centralmonitoring.model.ThanosQueryResult;
+
+/**
+ * Streaming parser for the Prometheus HTTP API response format.
+ * Reads vector, matrix and scalar results token by token straight into
+ * {@link MetricSeries} records without building a generic JSON tree.
+ * Label names are canonicalized by Jackson, label values are interned here.
+ */
+public class ThanosResponseParser {
+
+    private static final int MAX_INTERNED_VALUES = 200_000;
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final Map<String, String> internedValues = new ConcurrentHashMap<>();
+
+    /**
+     * Parses a query response and collects all series
+     * @param in The response body
+     * @return The parsed result
+     * @throws IOException If the body cannot be read or is not valid JSON
+     */
+    public ThanosQueryResult parse(InputStream in) throws IOException {
+        List<MetricSeries> series = new ArrayList<>();
+        ThanosQueryResult header = parse(in, series::add);
+        return header.withSeries(series);
+    }
+
+    /**
+     * Parses a query response and hands every series to the sink as soon as it is read
+     * @param in The response body
+     * @param sink Receives each parsed series
+     * @return The response status and result type, with an empty series list
+     * @throws IOException If the body cannot be read or is not valid JSON
+     */
+    public ThanosQueryResult parse(InputStream in, Consumer<MetricSeries> sink) throws IOException {
+        String status = null;
+        String resultType = null;
+        String error = null;
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            SampleBuffer buffer = new SampleBuffer();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                switch (field) {
+                    case "status" -> status = parser.getText();
+                    case "error" -> error = parser.getText();
+                    case "data" -> {
+                        if (token != JsonToken.START_OBJECT) {
+                            parser.skipChildren();
+                            break;
+                        }
+                        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                            String dataField = parser.currentName();
+                            JsonToken dataToken = parser.nextToken();
+                            if ("resultType".equals(dataField)) {
+                                resultType = parser.getText();
+                            } else if ("result".equals(dataField) && dataToken == JsonToken.START_ARRAY) {
+                                parseResult(parser, buffer, sink);
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    }
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return new ThanosQueryResult(status, resultType, List.of(), error);
+    }
+
+    /**
+     * Parses a response whose data is a list of strings, such as label values
+     * @param in The response body
+     * @return The strings in the data array, or an empty list if the request failed
+     * @throws IOException If the body cannot be read or is not valid JSON
+     */
+    public List<String> parseStringList(InputStream in) throws IOException {
+        List<String> values = new ArrayList<>();
+        String status = null;
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("status".equals(field)) {
+                    status = parser.getText();
+                } else if ("data".equals(field) && token == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.VALUE_STRING) {
+                        values.add(parser.getText());
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return "success".equals(status) ? values : List.of();
+    }
+
+    /**
+     * Parses a metadata response into the type of each metric
+     * @param in The response body of {@code /api/v1/metadata}
+     * @return The type, such as {@code counter} or {@code gauge}, keyed by metric name;
+     *         empty if the request failed
+     * @throws IOException If the body cannot be read or is not valid JSON
+     */
+    public Map<String, String> parseMetadataTypes(InputStream in) throws IOException {
+        Map<String, String> types = new HashMap<>();
+        String status = null;
+        try (JsonParser parser = jsonFactory.createParser(in)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken token = parser.nextToken();
+                if ("status".equals(field)) {
+                    status = parser.getText();
+                } else if ("data".equals(field) && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String metric = parser.currentName();
+                        if (parser.nextToken() != JsonToken.START_ARRAY) {
+                            parser.skipChildren();
+                            continue;
+                        }
+                        // One entry per distinct metadata, the first type wins
+                        while (parser.nextToken() == JsonToken.START_OBJECT) {
+                            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                                String entryField = parser.currentName();
+                                parser.nextToken();
+                                if ("type".equals(entryField)) {
+                                    types.putIfAbsent(metric, parser.getText());
+                                } else {
+                                    parser.skipChildren();
+                                }
+                            }
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return "success".equals(status) ? types : Map.of();
+    }
+
+    private void parseResult(JsonParser parser, SampleBuffer buffer, Consumer<MetricSeries> sink) throws IOException {
+        JsonToken token = parser.nextToken();
+        if (token != JsonToken.START_OBJECT && token != JsonToken.END_ARRAY) {
+            // Scalar or string result: a single [timestamp, "value"] pair without labels
+            buffer.clear();
+            readSampleBody(parser, buffer);
+            sink.accept(new MetricSeries(Map.of(), buffer.timestamps(), buffer.values()));
+            return;
+        }
+        while (token == JsonToken.START_OBJECT) {
+            Map<String, String> labels = Map.of();
+            buffer.clear();
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.currentName();
+                JsonToken valueToken = parser.nextToken();
+                if ("metric".equals(field) && valueToken == JsonToken.START_OBJECT) {
+                    labels = readLabels(parser);
+                } else if ("value".equals(field) && valueToken == JsonToken.START_ARRAY) {
+                    parser.nextToken();
+                    readSampleBody(parser, buffer);
+                } else if ("values".equals(field) && valueToken == JsonToken.START_ARRAY) {
+                    while (parser.nextToken() == JsonToken.START_ARRAY) {
+                        parser.nextToken();
+                        readSampleBody(parser, buffer);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            if (buffer.size() > 0) {
+                sink.accept(new MetricSeries(labels, buffer.timestamps(), buffer.values()));
+            }
+            token = parser.nextToken();
+        }
+    }
+
+    // Map.ofEntries takes a generic varargs array, which can only be created raw
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Map<String, String> readLabels(JsonParser parser) throws IOException {
+        List<Map.Entry<String, String>> entries = new ArrayList<>(12);
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.currentName();
+            parser.nextToken();
+            entries.add(Map.entry(name, intern(parser.getText())));
+        }
+        return Map.ofEntries(entries.toArray(new Map.Entry[0]));
+    }
+
+    /**
+     * Reads the remainder of a {@code [timestamp, "value"]} pair whose first
+     * element is the current token, consuming the closing bracket.
+     */
+    private void readSampleBody(JsonParser parser, SampleBuffer buffer) throws IOException {
+        long timestamp = Math.round(parser.getDoubleValue() * 1000.0);
+        parser.nextToken();
+        double value = MetricSeries.parseValue(parser.getText());
+        buffer.add(timestamp, value);
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            parser.skipChildren();
+        }
+    }
+
+    private String intern(String value) {
+        String existing = internedValues.get(value);
+        if (existing != null) {
+            return existing;
+        }
+        if (internedValues.size() >= MAX_INTERNED_VALUES) {
+            return value;
+        }
+        existing = internedValues.putIfAbsent(value, value);
+        return existing != null ? existing : value;
+    }
+
+    private static void expect(JsonParser parser, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(parser, "Expected " + expected + " but found " + actual);
+        }
+    }
+
+    /** Growable sample arrays reused across the series of one response. */
+    private static final class SampleBuffer {
+
+        private long[] timestamps = new long[16];
+
+        private double[] values = new double[16];
+
+        private int size;
+
+        void add(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long[] timestamps() {
+            return Arrays.copyOf(timestamps, size);
+        }
+
+        double[] values() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+}
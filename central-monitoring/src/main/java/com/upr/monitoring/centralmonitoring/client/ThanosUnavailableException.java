@@ -0,0 +1,13 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+/**
+ * Thrown without calling Thanos when its circuit is open or the bulkhead of the caller is full.
+ */
+public class ThanosUnavailableException extends HttpTransportException {
+
+    private static final long serialVersionUID = 1L;
+
+    public ThanosUnavailableException(String message) {
+        super(-1, message, null);
+    }
+}
@@ -0,0 +1,264 @@
+package com.upr.monitoring.centralmonitoring.codec;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+
+/**
+ * Encoder and decoder of the binary metrics wire format.
+ * <p>
+ * Layout of version 2, integers are unsigned LEB128 varints unless noted:
+ * <pre>
+ * magic      2 bytes "UM"
+ * version    1 byte
+ * appId      string
+ * collectedAt varint, epoch milliseconds
+ * sequence   varint
+ * keyframe   1 byte, 1 if the message holds all series, 0 if only the changed ones
+ * totalCount varint
+ * dictionary varint count, then count strings
+ * series     varint count, then per series:
+ *   labels   varint count, then count pairs of (name index, value index) into the dictionary
+ *   samples  varint count, then count timestamps as zigzag deltas (the first relative
+ *            to collectedAt), then count values as raw big-endian IEEE 754 doubles
+ * </pre>
+ * Strings are a varint byte length followed by UTF-8 bytes. Label names and
+ * values are written once per message no matter how many series share them.
+ * Version 1 messages, which lack the sequence and keyframe fields, are still
+ * decoded as keyframes with sequence 0.
+ * <p>
+ * The class has no dependencies besides {@link MetricSeries}, so consumers can
+ * use it to decode messages whose content type is {@link WireFormat#BINARY}.
+ */
+public final class BinaryMetricsCodec {
+
+    public static final int VERSION = 2;
+
+    private static final byte MAGIC_0 = 'U';
+
+    private static final byte MAGIC_1 = 'M';
+
+    private BinaryMetricsCodec() {
+    }
+
+    /**
+     * Encodes a snapshot
+     * @param snapshot The snapshot to encode
+     * @return The encoded message
+     */
+    public static byte[] encode(MetricsSnapshot snapshot) {
+        List<MetricSeries> series = snapshot.series();
+        Map<String, Integer> dictionary = new LinkedHashMap<>();
+        int samples = 0;
+        for (MetricSeries s : series) {
+            for (Map.Entry<String, String> label : s.getLabels().entrySet()) {
+                dictionary.putIfAbsent(label.getKey(), dictionary.size());
+                dictionary.putIfAbsent(label.getValue(), dictionary.size());
+            }
+            samples += s.size();
+        }
+
+        Writer out = new Writer(64 + dictionary.size() * 24 + series.size() * 16 + samples * 11);
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        out.writeByte(VERSION);
+        out.writeString(snapshot.applicationId());
+        out.writeVarLong(snapshot.collectedAt());
+        out.writeVarLong(snapshot.sequence());
+        out.writeByte(snapshot.keyframe() ? 1 : 0);
+        out.writeVarLong(snapshot.totalCount());
+        out.writeVarLong(dictionary.size());
+        for (String entry : dictionary.keySet()) {
+            out.writeString(entry);
+        }
+        out.writeVarLong(series.size());
+        for (MetricSeries s : series) {
+            out.writeVarLong(s.getLabels().size());
+            for (Map.Entry<String, String> label : s.getLabels().entrySet()) {
+                out.writeVarLong(dictionary.get(label.getKey()));
+                out.writeVarLong(dictionary.get(label.getValue()));
+            }
+            int count = s.size();
+            out.writeVarLong(count);
+            long previous = snapshot.collectedAt();
+            for (int i = 0; i < count; i++) {
+                long timestamp = s.getTimestamp(i);
+                out.writeZigZag(timestamp - previous);
+                previous = timestamp;
+            }
+            for (int i = 0; i < count; i++) {
+                out.writeDouble(s.getValue(i));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Decodes a message produced by {@link #encode(MetricsSnapshot)}
+     * @param message The encoded message
+     * @return The decoded snapshot
+     * @throws IllegalArgumentException If the message is not a supported binary metrics message
+     */
+    public static MetricsSnapshot decode(byte[] message) {
+        return decode(ByteBuffer.wrap(message));
+    }
+
+    /**
+     * Decodes a message from the current position of a buffer
+     * @param buffer The buffer holding the encoded message
+     * @return The decoded snapshot
+     * @throws IllegalArgumentException If the message is not a supported binary metrics message
+     */
+    public static MetricsSnapshot decode(ByteBuffer buffer) {
+        try {
+            if (buffer.get() != MAGIC_0 || buffer.get() != MAGIC_1) {
+                throw new IllegalArgumentException("Not a binary metrics message");
+            }
+            int version = buffer.get();
+            if (version != 1 && version != VERSION) {
+                throw new IllegalArgumentException("Unsupported binary metrics version: " + version);
+            }
+            String applicationId = readString(buffer);
+            long collectedAt = readVarLong(buffer);
+            long sequence = version == 1 ? 0 : readVarLong(buffer);
+            boolean keyframe = version == 1 || buffer.get() != 0;
+            long totalCount = readVarLong(buffer);
+            if (totalCount > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Invalid series count in binary metrics message: " + totalCount);
+            }
+            String[] dictionary = new String[readCount(buffer)];
+            for (int i = 0; i < dictionary.length; i++) {
+                dictionary[i] = readString(buffer);
+            }
+            int seriesCount = readCount(buffer);
+            List<MetricSeries> series = new ArrayList<>(seriesCount);
+            for (int s = 0; s < seriesCount; s++) {
+                int labelCount = readCount(buffer);
+                Map<String, String> labels = new HashMap<>(labelCount * 2);
+                for (int l = 0; l < labelCount; l++) {
+                    labels.put(dictionary[readIndex(buffer)], dictionary[readIndex(buffer)]);
+                }
+                int count = readCount(buffer);
+                long[] timestamps = new long[count];
+                long previous = collectedAt;
+                for (int i = 0; i < count; i++) {
+                    previous += readZigZag(buffer);
+                    timestamps[i] = previous;
+                }
+                double[] values = new double[count];
+                for (int i = 0; i < count; i++) {
+                    values[i] = buffer.getDouble();
+                }
+                series.add(new MetricSeries(Map.copyOf(labels), timestamps, values));
+            }
+            return new MetricsSnapshot(applicationId, collectedAt, sequence, keyframe, (int) totalCount,
+                    List.copyOf(series));
+        } catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Truncated or corrupt binary metrics message", e);
+        }
+    }
+
+    private static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = buffer.get();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed varint in binary metrics message");
+    }
+
+    private static long readZigZag(ByteBuffer buffer) {
+        long value = readVarLong(buffer);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static int readCount(ByteBuffer buffer) {
+        long value = readVarLong(buffer);
+        // Every counted element takes at least one byte, larger counts can only come from a corrupt message
+        if (value < 0 || value > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid length in binary metrics message: " + value);
+        }
+        return (int) value;
+    }
+
+    private static int readIndex(ByteBuffer buffer) {
+        long value = readVarLong(buffer);
+        return value > Integer.MAX_VALUE ? -1 : (int) value;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = readCount(buffer);
+        String value = StandardCharsets.UTF_8.decode(buffer.slice(buffer.position(), length)).toString();
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * Growable byte array, cheaper than a stream for the many single byte writes of varints
+     */
+    private static final class Writer {
+
+        private byte[] bytes;
+
+        private int position;
+
+        Writer(int initialCapacity) {
+            bytes = new byte[initialCapacity];
+        }
+
+        void writeByte(int value) {
+            ensureCapacity(1);
+            bytes[position++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7fL) != 0) {
+                bytes[position++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[position++] = (byte) value;
+        }
+
+        void writeZigZag(long value) {
+            writeVarLong((value << 1) ^ (value >> 63));
+        }
+
+        void writeDouble(double value) {
+            ensureCapacity(8);
+            long bits = Double.doubleToRawLongBits(value);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                bytes[position++] = (byte) (bits >>> shift);
+            }
+        }
+
+        void writeString(String value) {
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(utf8.length);
+            ensureCapacity(utf8.length);
+            System.arraycopy(utf8, 0, bytes, position, utf8.length);
+            position += utf8.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, position);
+        }
+
+        private void ensureCapacity(int additional) {
+            if (position + additional > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, position + additional));
+            }
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.upr.monitoring.centralmonitoring.codec;
+
+import java.util.List;
+
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+
+/**
+ * The content of one published metrics message in its binary form
+ * @param applicationId The application the metrics belong to
+ * @param collectedAt When the metrics were collected, in epoch milliseconds
+ * @param sequence Per application sequence number of the message
+ * @param keyframe Whether {@code series} holds all published series or only the changed ones
+ * @param totalCount Number of series Thanos returned, of which {@code series} may be a subset
+ * @param series The published series
+ */
+public record MetricsSnapshot(String applicationId, long collectedAt, long sequence, boolean keyframe,
+                              int totalCount, List<MetricSeries> series) {
+}
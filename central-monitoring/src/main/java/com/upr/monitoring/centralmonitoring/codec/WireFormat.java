@@ -0,0 +1,38 @@
+package com.upr.monitoring.centralmonitoring.codec;
+
+/**
+ * Encodings a metrics snapshot can be published in. The content type is sent
+ * with every message so consumers can pick the matching decoder.
+ */
+public enum WireFormat {
+
+    JSON("application/json"),
+
+    BINARY("application/vnd.upr.metrics+binary;version=" + BinaryMetricsCodec.VERSION);
+
+    /**
+     * Name of the Kafka record header carrying the content type
+     */
+    public static final String CONTENT_TYPE_HEADER = "content-type";
+
+    private final String contentType;
+
+    WireFormat(String contentType) {
+        this.contentType = contentType;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * @param contentType The content type of a received message
+     * @return The matching format, JSON when the content type is missing or unknown
+     */
+    public static WireFormat fromContentType(String contentType) {
+        if (contentType != null && contentType.startsWith("application/vnd.upr.metrics+binary")) {
+            return BINARY;
+        }
+        return JSON;
+    }
+}
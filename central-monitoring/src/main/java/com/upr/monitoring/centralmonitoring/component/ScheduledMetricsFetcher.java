@@ -1,31 +1,408 @@
 package com.upr.monitoring.centralmonitoring.component;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
-import com.upr.monitoring.centralmonitoring.service.MetricsService;
 
-@Component
-public class ScheduledMetricsFetcher {
+import com.upr.monitoring.centralmonitoring.model.SchedulerStats;
+import com.upr.monitoring.centralmonitoring.service.ApplicationRegistry;
+import com.upr.monitoring.centralmonitoring.service.MetricsFetchEngine;
+import com.upr.monitoring.centralmonitoring.service.MetricsFetchEngine.Outcome;
+import com.upr.monitoring.centralmonitoring.service.RegistryChangeListener;
+import com.upr.monitoring.centralmonitoring.service.ShardCoordinator;
 
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Fetches the metrics of every registered application on its own interval.
+ * <p>
+ * Every application has a timeout in a {@link TimingWheel} driven by a single
+ * thread. Applications start at a random offset within their interval, and
+ * every following run is shifted by a small random jitter, so Thanos sees an
+ * even load instead of one burst per minute. The next run of an application
+ * is scheduled when its fetch has finished, anchored to its previous due time,
+ * so a slow application never delays the others and never runs twice at once.
+ * Applications that keep failing or returning no series are backed off
+ * exponentially up to a maximum delay and return to their interval after the
+ * first successful fetch. Applications due in the same tick are handed to the
+ * fetch engine together, so they can still share batched Thanos queries.
+ * When several replicas run, applications owned by another replica keep their
+ * timeout but are skipped, see {@link ShardCoordinator}.
+ */
+@Component
+public class ScheduledMetricsFetcher implements RegistryChangeListener {
 
     private static final Logger log = LoggerFactory.getLogger(ScheduledMetricsFetcher.class);
 
-    private MetricsService  metricsService;
+    private static final int WHEEL_SIZE = 64;
+
+    private static final int WHEEL_LEVELS = 4;
+
+    private static final int MAX_BACKOFF_EXPONENT = 20;
+
+    private static final class AppSchedule {
+        final String appId;
+        long intervalMillis;
+        long deadline;
+        TimingWheel.Timeout<AppSchedule> timeout;
+        boolean running;
+        long startedNanos;
+        int unsuccessfulStreak;
+
+        AppSchedule(String appId, long intervalMillis) {
+            this.appId = appId;
+            this.intervalMillis = intervalMillis;
+        }
+    }
+
+    private final ApplicationRegistry applicationRegistry;
+
+    private final MetricsFetchEngine fetchEngine;
+
+    private final ShardCoordinator shardCoordinator;
+
+    private final Map<String, AppSchedule> schedules = new ConcurrentHashMap<>();
+
+    private final TimingWheel<AppSchedule> wheel;
+
+    private final boolean enabled;
+
+    private final long defaultIntervalMillis;
+
+    private final long minIntervalMillis;
+
+    private final long initialDelayMillis;
+
+    private final double jitter;
 
-    public ScheduledMetricsFetcher(MetricsService metricsService) {
-        this.metricsService = metricsService;
+    private final long maxBackoffMillis;
+
+    private final LongAdder runs = new LongAdder();
+
+    private final LongAdder succeeded = new LongAdder();
+
+    private final LongAdder empty = new LongAdder();
+
+    private final LongAdder failed = new LongAdder();
+
+    private final LongAdder overruns = new LongAdder();
+
+    private final LongAdder lagTotalMillis = new LongAdder();
+
+    private final AtomicLong maxLagMillis = new AtomicLong();
+
+    private final Timer lagTimer;
+
+    private final Map<Outcome, Timer> fetchTimers = new EnumMap<>(Outcome.class);
+
+    private volatile boolean running;
+
+    private Thread driver;
+
+    public ScheduledMetricsFetcher(ApplicationRegistry applicationRegistry, MetricsFetchEngine fetchEngine,
+                                   ShardCoordinator shardCoordinator, MeterRegistry meterRegistry,
+                                   @Value("${metrics.scheduler.enabled:true}") boolean enabled,
+                                   @Value("${metrics.scheduler.default-interval:60s}") Duration defaultInterval,
+                                   @Value("${metrics.scheduler.min-interval:5s}") Duration minInterval,
+                                   @Value("${metrics.scheduler.initial-delay:10s}") Duration initialDelay,
+                                   @Value("${metrics.scheduler.jitter:0.1}") double jitter,
+                                   @Value("${metrics.scheduler.max-backoff:10m}") Duration maxBackoff,
+                                   @Value("${metrics.scheduler.tick:100ms}") Duration tick) {
+        if (jitter < 0 || jitter >= 1) {
+            throw new IllegalArgumentException("metrics.scheduler.jitter must be in [0, 1)");
+        }
+        this.applicationRegistry = applicationRegistry;
+        this.fetchEngine = fetchEngine;
+        this.shardCoordinator = shardCoordinator;
+        this.enabled = enabled;
+        this.defaultIntervalMillis = defaultInterval.toMillis();
+        this.minIntervalMillis = minInterval.toMillis();
+        this.initialDelayMillis = initialDelay.toMillis();
+        this.jitter = jitter;
+        this.maxBackoffMillis = maxBackoff.toMillis();
+        this.wheel = new TimingWheel<>(tick.toMillis(), WHEEL_SIZE, WHEEL_LEVELS, System.currentTimeMillis());
+        this.lagTimer = Timer.builder("metrics.scheduler.lag")
+                .description("Delay between the due time of a fetch and its dispatch")
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+        for (Outcome outcome : Outcome.values()) {
+            fetchTimers.put(outcome, Timer.builder("metrics.fetch")
+                    .description("Time from dispatching the fetch of an application until it was published")
+                    .tag("outcome", outcome.name().toLowerCase(Locale.ROOT))
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
+        FunctionCounter.builder("metrics.scheduler.overruns", overruns, LongAdder::sum)
+                .description("Fetches that took longer than the interval of their application")
+                .register(meterRegistry);
+        Gauge.builder("metrics.scheduler.applications", schedules, Map::size)
+                .description("Applications with a fetch schedule")
+                .register(meterRegistry);
+        Gauge.builder("metrics.scheduler.pending", wheel, TimingWheel::size)
+                .description("Timeouts waiting in the timing wheel")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        applicationRegistry.addChangeListener(this);
+        applicationRegistry.getRegisteredApplicationIds().forEach(this::ensureScheduled);
+        driver = Thread.ofPlatform().name("metrics-scheduler").daemon().start(this::driveLoop);
+    }
+
+    @Override
+    public void onApplicationChanged(String applicationId) {
+        if (applicationRegistry.isRegistered(applicationId)) {
+            ensureScheduled(applicationId);
+            applyInterval(applicationId);
+        }
     }
 
-    // every 60 seconds
-    @Scheduled(fixedRate = 60000, initialDelay = 10000)
-    public void fetchAndLogMetrics() {
+    @Override
+    public void onBulkChange() {
+        applicationRegistry.getRegisteredApplicationIds().forEach(this::ensureScheduled);
+    }
+
+    /**
+     * Changes how often the metrics of an application are fetched.
+     * The application is rescheduled at a random offset within the new interval.
+     * @param appId The application ID
+     * @param interval The fetch interval, at least the configured minimum
+     * @throws IllegalArgumentException If the interval is below the minimum or the application is not registered
+     */
+    public void setInterval(String appId, Duration interval) {
+        checkInterval(interval);
+        if (!applicationRegistry.isRegistered(appId)) {
+            throw new IllegalArgumentException("Application " + appId + " is not registered");
+        }
+        // Kept by the registry, so the interval is journaled and survives a restart
+        applicationRegistry.setFetchInterval(appId, interval);
+        applyInterval(appId);
+    }
+
+    /**
+     * Checks that an interval can be used with {@link #setInterval(String, Duration)}
+     * @param interval The fetch interval
+     * @throws IllegalArgumentException If the interval is below the configured minimum
+     */
+    public void checkInterval(Duration interval) {
+        if (interval.toMillis() < minIntervalMillis) {
+            throw new IllegalArgumentException("Interval must be at least " + Duration.ofMillis(minIntervalMillis));
+        }
+    }
+
+    /**
+     * @param appId The application ID
+     * @return The fetch interval of the application
+     */
+    public Duration getInterval(String appId) {
+        AppSchedule schedule = schedules.get(appId);
+        if (schedule == null) {
+            return Duration.ofMillis(defaultIntervalMillis);
+        }
+        synchronized (schedule) {
+            return Duration.ofMillis(schedule.intervalMillis);
+        }
+    }
+
+    /**
+     * @return A snapshot of the scheduler counters
+     */
+    public SchedulerStats getStats() {
+        int backedOff = 0;
+        for (AppSchedule schedule : schedules.values()) {
+            synchronized (schedule) {
+                if (schedule.unsuccessfulStreak > 0) {
+                    backedOff++;
+                }
+            }
+        }
+        long runCount = runs.sum();
+        return SchedulerStats.builder()
+                .applications(schedules.size())
+                .pendingTimeouts(wheel.size())
+                .runs(runCount)
+                .succeeded(succeeded.sum())
+                .empty(empty.sum())
+                .failed(failed.sum())
+                .overruns(overruns.sum())
+                .backedOffApplications(backedOff)
+                .averageLagMs(runCount == 0 ? 0 : (double) lagTotalMillis.sum() / runCount)
+                .maxLagMs(maxLagMillis.get())
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        if (driver != null) {
+            driver.interrupt();
+        }
+    }
+
+    private void ensureScheduled(String appId) {
+        schedules.computeIfAbsent(appId, id -> {
+            AppSchedule schedule = new AppSchedule(id, intervalOf(id));
+            // Spread first runs over a whole interval so a restart does not query all applications at once
+            long first = System.currentTimeMillis() + initialDelayMillis
+                    + ThreadLocalRandom.current().nextLong(schedule.intervalMillis);
+            synchronized (schedule) {
+                schedule(schedule, first);
+            }
+            return schedule;
+        });
+    }
+
+    /**
+     * Moves an application to the interval stored in the registry.
+     * The application is rescheduled at a random offset within the new interval.
+     */
+    private void applyInterval(String appId) {
+        long intervalMillis = intervalOf(appId);
+        AppSchedule schedule = schedules.computeIfAbsent(appId, id -> new AppSchedule(id, defaultIntervalMillis));
+        synchronized (schedule) {
+            if (schedule.intervalMillis == intervalMillis) {
+                return;
+            }
+            schedule.intervalMillis = intervalMillis;
+            if (schedule.running || !enabled) {
+                // Picked up when the current fetch finishes
+                return;
+            }
+            if (schedule.timeout != null) {
+                schedule.timeout.cancel();
+            }
+            long first = System.currentTimeMillis() + ThreadLocalRandom.current().nextLong(schedule.intervalMillis);
+            schedule(schedule, first);
+        }
+    }
+
+    private long intervalOf(String appId) {
+        Duration interval = applicationRegistry.getFetchInterval(appId);
+        // A stored interval may predate a higher minimum
+        return interval == null ? defaultIntervalMillis : Math.max(interval.toMillis(), minIntervalMillis);
+    }
+
+    private void schedule(AppSchedule schedule, long deadline) {
+        schedule.deadline = deadline;
+        schedule.timeout = wheel.schedule(schedule, deadline);
+    }
+
+    private void driveLoop() {
+        while (running) {
+            try {
+                long now = System.currentTimeMillis();
+                List<TimingWheel.Timeout<AppSchedule>> due = wheel.advance(now);
+                if (!due.isEmpty()) {
+                    dispatch(due, now);
+                }
+                long sleep = wheel.nextTickMillis() - System.currentTimeMillis();
+                if (sleep > 0) {
+                    Thread.sleep(sleep);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Error in metrics scheduler", e);
+            }
+        }
+    }
+
+    private void dispatch(List<TimingWheel.Timeout<AppSchedule>> due, long now) {
+        List<String> appIds = new ArrayList<>(due.size());
+        for (TimingWheel.Timeout<AppSchedule> timeout : due) {
+            AppSchedule schedule = timeout.getPayload();
+            synchronized (schedule) {
+                if (schedule.timeout != timeout) {
+                    // Replaced by a new interval after it expired
+                    continue;
+                }
+                schedule.timeout = null;
+                if (!shardCoordinator.owns(schedule.appId)) {
+                    // Fetched by another replica, ownership is checked again after an interval
+                    schedule(schedule, Math.max(now, schedule.deadline + schedule.intervalMillis));
+                    continue;
+                }
+                schedule.running = true;
+                schedule.startedNanos = System.nanoTime();
+                long lag = Math.max(0, now - schedule.deadline);
+                lagTimer.record(lag, TimeUnit.MILLISECONDS);
+                lagTotalMillis.add(lag);
+                maxLagMillis.accumulateAndGet(lag, Math::max);
+            }
+            runs.increment();
+            appIds.add(schedule.appId);
+        }
         try {
+            fetchEngine.submit(appIds, this::onOutcome);
+        } catch (RuntimeException e) {
+            log.error("Error submitting metrics fetch for {} applications", appIds.size(), e);
+            appIds.forEach(appId -> onOutcome(appId, Outcome.FAILED));
+        }
+    }
 
-            metricsService.getMetricsForAllRegisteredApps();
-        } catch (Exception e) {
-            log.error("Error fetching metrics from Thanos", e);
+    private void onOutcome(String appId, Outcome outcome) {
+        switch (outcome) {
+            case SUCCEEDED -> succeeded.increment();
+            case EMPTY -> empty.increment();
+            case FAILED -> failed.increment();
+        }
+        AppSchedule schedule = schedules.get(appId);
+        if (schedule == null) {
+            return;
+        }
+        synchronized (schedule) {
+            if (schedule.running) {
+                fetchTimers.get(outcome).record(System.nanoTime() - schedule.startedNanos, TimeUnit.NANOSECONDS);
+            }
+            schedule.running = false;
+            schedule.unsuccessfulStreak = outcome == Outcome.SUCCEEDED ? 0 : schedule.unsuccessfulStreak + 1;
+            long now = System.currentTimeMillis();
+            long next = schedule.deadline + nextDelay(schedule);
+            if (next <= now) {
+                // The fetch took longer than the interval, run again right away instead of catching up
+                overruns.increment();
+                next = now;
+            }
+            if (schedule.unsuccessfulStreak == 1) {
+                log.debug("Backing off application {} after {} fetch", appId, outcome);
+            }
+            schedule(schedule, next);
+        }
+    }
+
+    private long nextDelay(AppSchedule schedule) {
+        long delay = schedule.intervalMillis;
+        if (schedule.unsuccessfulStreak > 0) {
+            int exponent = Math.min(schedule.unsuccessfulStreak, MAX_BACKOFF_EXPONENT);
+            delay = Math.max(delay, Math.min(delay << exponent, maxBackoffMillis));
+        }
+        if (jitter > 0) {
+            delay += (long) (delay * jitter * (2 * ThreadLocalRandom.current().nextDouble() - 1));
         }
+        return delay;
     }
-}
\ No newline at end of file
+}
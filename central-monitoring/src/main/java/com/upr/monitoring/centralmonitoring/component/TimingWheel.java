@@ -0,0 +1,174 @@
+package com.upr.monitoring.centralmonitoring.component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel holding one-shot timeouts.
+ * <p>
+ * Level 0 has one slot per tick; every level above it covers a whole rotation
+ * of the level below in each slot. A timeout is placed on the lowest level
+ * whose span covers its delay, and when a higher level slot comes due its
+ * timeouts are moved down, so scheduling and expiring cost O(1) regardless
+ * of how many timeouts are pending or how far ahead they are. Deadlines are
+ * rounded up to whole ticks and delays beyond the span of the top level are
+ * capped to it.
+ * <p>
+ * The wheel keeps no clock of its own: the owner calls {@link #advance(long)}
+ * with the current time. All methods are thread-safe.
+ * @param <T> The type of the payload carried by a timeout
+ */
+public class TimingWheel<T> {
+
+    /**
+     * A scheduled payload, which can be cancelled until it expires
+     * @param <T> The type of the payload
+     */
+    public static final class Timeout<T> {
+
+        private final T payload;
+
+        private final long deadlineTick;
+
+        private volatile boolean cancelled;
+
+        private Timeout(T payload, long deadlineTick) {
+            this.payload = payload;
+            this.deadlineTick = deadlineTick;
+        }
+
+        public T getPayload() {
+            return payload;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+    }
+
+    private final long tickMillis;
+
+    private final int wheelSize;
+
+    private final int levels;
+
+    private final ArrayDeque<Timeout<T>>[][] slots;
+
+    private final long maxDelayTicks;
+
+    private final long startMillis;
+
+    private long currentTick;
+
+    private int pending;
+
+    /**
+     * @param tickMillis The resolution of the wheel in milliseconds
+     * @param wheelSize The number of slots per level, a power of two
+     * @param levels The number of levels
+     * @param startMillis The time of tick 0
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public TimingWheel(long tickMillis, int wheelSize, int levels, long startMillis) {
+        if (tickMillis < 1 || wheelSize < 2 || Integer.bitCount(wheelSize) != 1 || levels < 1) {
+            throw new IllegalArgumentException("Invalid timing wheel: tick " + tickMillis + " ms, "
+                    + wheelSize + " slots, " + levels + " levels");
+        }
+        this.tickMillis = tickMillis;
+        this.wheelSize = wheelSize;
+        this.levels = levels;
+        this.slots = new ArrayDeque[levels][wheelSize];
+        for (ArrayDeque<Timeout<T>>[] level : slots) {
+            for (int i = 0; i < wheelSize; i++) {
+                level[i] = new ArrayDeque<>();
+            }
+        }
+        this.maxDelayTicks = Math.min(Long.MAX_VALUE / 2, (long) Math.pow(wheelSize, levels)) - 1;
+        this.startMillis = startMillis;
+    }
+
+    /**
+     * Schedules a payload
+     * @param payload The payload carried by the timeout
+     * @param deadlineMillis The epoch millisecond time the payload is due at
+     * @return The timeout, which can be used to cancel it
+     */
+    public synchronized Timeout<T> schedule(T payload, long deadlineMillis) {
+        long ticks = Math.ceilDiv(deadlineMillis - startMillis, tickMillis);
+        long deadlineTick = Math.min(Math.max(ticks, currentTick + 1), currentTick + maxDelayTicks);
+        Timeout<T> timeout = new Timeout<>(payload, deadlineTick);
+        place(timeout);
+        pending++;
+        return timeout;
+    }
+
+    /**
+     * Moves the wheel forward to the given time
+     * @param nowMillis The current epoch millisecond time
+     * @return The timeouts that expired and were not cancelled, in deadline order
+     */
+    public synchronized List<Timeout<T>> advance(long nowMillis) {
+        long targetTick = Math.floorDiv(nowMillis - startMillis, tickMillis);
+        List<Timeout<T>> expired = new ArrayList<>();
+        while (currentTick < targetTick) {
+            currentTick++;
+            cascade();
+            ArrayDeque<Timeout<T>> slot = slots[0][(int) (currentTick & (wheelSize - 1))];
+            for (Timeout<T> timeout; (timeout = slot.poll()) != null; ) {
+                pending--;
+                if (!timeout.cancelled) {
+                    expired.add(timeout);
+                }
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * @return The time of the next tick in epoch milliseconds
+     */
+    public synchronized long nextTickMillis() {
+        return startMillis + (currentTick + 1) * tickMillis;
+    }
+
+    /**
+     * @return The number of timeouts that have not expired yet, including cancelled ones
+     */
+    public synchronized int size() {
+        return pending;
+    }
+
+    private void cascade() {
+        // Higher levels first, so timeouts moved down several levels land in the slot due now
+        for (int level = levels - 1; level > 0; level--) {
+            long span = 1L << (Integer.numberOfTrailingZeros(wheelSize) * level);
+            if (currentTick % span != 0) {
+                continue;
+            }
+            ArrayDeque<Timeout<T>> slot = slots[level][(int) ((currentTick / span) & (wheelSize - 1))];
+            for (Timeout<T> timeout; (timeout = slot.poll()) != null; ) {
+                if (!timeout.cancelled) {
+                    place(timeout);
+                } else {
+                    pending--;
+                }
+            }
+        }
+    }
+
+    private void place(Timeout<T> timeout) {
+        long delay = timeout.deadlineTick - currentTick;
+        int shift = Integer.numberOfTrailingZeros(wheelSize);
+        int level = 0;
+        while (level < levels - 1 && delay >= 1L << (shift * (level + 1))) {
+            level++;
+        }
+        int index = (int) ((timeout.deadlineTick >>> (shift * level)) & (wheelSize - 1));
+        slots[level][index].add(timeout);
+    }
+}
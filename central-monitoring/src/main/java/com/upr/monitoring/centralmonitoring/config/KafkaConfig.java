@@ -0,0 +1,34 @@
+package com.upr.monitoring.centralmonitoring.config;
+
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.kafka.common.config.TopicConfig;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.kafka.config.TopicBuilder;
+
+
+@Configuration
+public class KafkaConfig {
+
+    @Value("${metrics.sharding.topic:metrics-control}")
+    private String controlTopicName;
+
+    @Value("${metrics.sharding.partitions:64}")
+    private int controlTopicPartitions;
+
+    /**
+     * The partitions are the shards replicas are assigned, so the count bounds the number
+     * of useful replicas and must not change while replicas run. Compaction keeps the
+     * latest state of every application.
+     */
+    @Bean
+    @ConditionalOnProperty(name = "metrics.sharding.enabled", havingValue = "true")
+    public NewTopic controlTopic() {
+        return TopicBuilder.name(controlTopicName)
+                .partitions(controlTopicPartitions)
+                .config(TopicConfig.CLEANUP_POLICY_CONFIG, TopicConfig.CLEANUP_POLICY_COMPACT)
+                .build();
+    }
+}
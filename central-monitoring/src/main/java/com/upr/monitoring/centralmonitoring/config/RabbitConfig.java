@@ -4,6 +4,7 @@ import org.springframework.amqp.core.Binding;
 import org.springframework.amqp.core.BindingBuilder;
 import org.springframework.amqp.core.Queue;
 import org.springframework.amqp.core.TopicExchange;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -11,9 +12,12 @@ import org.springframework.context.annotation.Configuration;
 @Configuration
 public class RabbitConfig {
 
+    @Value("${metrics.publish.rabbit.exchange:metrics.exchange}")
+    private String metricsExchangeName;
+
     @Bean
     public TopicExchange metricsExchange() {
-        return new TopicExchange("metrics.exchange");
+        return new TopicExchange(metricsExchangeName);
     }
 
     @Bean
@@ -27,4 +31,28 @@ public class RabbitConfig {
                              .to(metricsExchange)
                              .with("metrics.#");
     }
+
+    @Bean
+    public Queue rollupsQueue() {
+        return new Queue("rollups.queue", true);
+    }
+
+    @Bean
+    public Binding rollupsBinding(Queue rollupsQueue, TopicExchange metricsExchange) {
+        return BindingBuilder.bind(rollupsQueue)
+                             .to(metricsExchange)
+                             .with("rollup.#");
+    }
+
+    @Bean
+    public Queue alertsQueue() {
+        return new Queue("alerts.queue", true);
+    }
+
+    @Bean
+    public Binding alertsBinding(Queue alertsQueue, TopicExchange metricsExchange) {
+        return BindingBuilder.bind(alertsQueue)
+                             .to(metricsExchange)
+                             .with("alerts.#");
+    }
 }
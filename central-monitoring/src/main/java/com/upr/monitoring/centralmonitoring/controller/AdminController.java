@@ -0,0 +1,138 @@
+package com.upr.monitoring.centralmonitoring.controller;
+
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.upr.monitoring.centralmonitoring.client.ThanosResilience;
+import com.upr.monitoring.centralmonitoring.component.ScheduledMetricsFetcher;
+import com.upr.monitoring.centralmonitoring.model.KafkaPublishStats;
+import com.upr.monitoring.centralmonitoring.model.RabbitPublishStats;
+import com.upr.monitoring.centralmonitoring.model.ResilienceStats;
+import com.upr.monitoring.centralmonitoring.model.SampleStoreStats;
+import com.upr.monitoring.centralmonitoring.model.SchedulerStats;
+import com.upr.monitoring.centralmonitoring.model.ShardingStatus;
+import com.upr.monitoring.centralmonitoring.service.KafkaMetricsPublisher;
+import com.upr.monitoring.centralmonitoring.service.RabbitMetricsPublisher;
+import com.upr.monitoring.centralmonitoring.service.ShardCoordinator;
+import com.upr.monitoring.centralmonitoring.store.RecentSamplesStore;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+
+@RestController
+@RequestMapping("/admin")
+@Tag(name = "Admin", description = "Operational statistics of the fetch, publish and storage pipeline")
+public class AdminController {
+
+    private final ThanosResilience resilience;
+
+    private final ShardCoordinator shardCoordinator;
+
+    private final ScheduledMetricsFetcher metricsFetcher;
+
+    private final KafkaMetricsPublisher kafkaPublisher;
+
+    private final RabbitMetricsPublisher rabbitPublisher;
+
+    private final RecentSamplesStore sampleStore;
+
+    public AdminController(ThanosResilience resilience, ShardCoordinator shardCoordinator,
+                           ScheduledMetricsFetcher metricsFetcher, KafkaMetricsPublisher kafkaPublisher,
+                           RabbitMetricsPublisher rabbitPublisher, RecentSamplesStore sampleStore) {
+        this.resilience = resilience;
+        this.shardCoordinator = shardCoordinator;
+        this.metricsFetcher = metricsFetcher;
+        this.kafkaPublisher = kafkaPublisher;
+        this.rabbitPublisher = rabbitPublisher;
+        this.sampleStore = sampleStore;
+    }
+
+    @Operation(
+        summary = "Get Thanos call resilience statistics",
+        description = "Returns the circuit breaker state, bulkhead usage and the adaptive timeouts and hedging counters per Thanos endpoint"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics successfully retrieved",
+                    content = @Content(mediaType = "application/json",
+                                     schema = @Schema(implementation = ResilienceStats.class)))
+    })
+    @GetMapping("thanos/resilience")
+    public ResilienceStats getResilienceStats() {
+        return resilience.getStats();
+    }
+
+    @Operation(
+        summary = "Get sharding status",
+        description = "Returns the control topic partitions and the share of the registered applications this replica fetches"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Status successfully retrieved",
+                    content = @Content(mediaType = "application/json",
+                                     schema = @Schema(implementation = ShardingStatus.class)))
+    })
+    @GetMapping("sharding")
+    public ShardingStatus getShardingStatus() {
+        return shardCoordinator.getStatus();
+    }
+
+    @Operation(
+        summary = "Get fetch scheduler statistics",
+        description = "Returns run, failure and overrun counters and the schedule lag of the metrics fetch scheduler"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics successfully retrieved",
+                    content = @Content(mediaType = "application/json",
+                                     schema = @Schema(implementation = SchedulerStats.class)))
+    })
+    @GetMapping("scheduler/stats")
+    public SchedulerStats getSchedulerStats() {
+        return metricsFetcher.getStats();
+    }
+
+    @Operation(
+        summary = "Get Kafka publisher statistics",
+        description = "Returns per-partition throughput, error and latency counters of the Kafka metrics publisher"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics successfully retrieved",
+                    content = @Content(mediaType = "application/json",
+                                     schema = @Schema(implementation = KafkaPublishStats.class)))
+    })
+    @GetMapping("publisher/kafka")
+    public KafkaPublishStats getKafkaPublisherStats() {
+        return kafkaPublisher.getStats();
+    }
+
+    @Operation(
+        summary = "Get RabbitMQ publisher statistics",
+        description = "Returns publish, confirm, nack and retry counters and the confirm latency of the RabbitMQ metrics publisher"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics successfully retrieved",
+                    content = @Content(mediaType = "application/json",
+                                     schema = @Schema(implementation = RabbitPublishStats.class)))
+    })
+    @GetMapping("publisher/rabbit")
+    public RabbitPublishStats getRabbitPublisherStats() {
+        return rabbitPublisher.getStats();
+    }
+
+    @Operation(
+        summary = "Get in-memory sample store statistics",
+        description = "Returns the number of stored series and samples and the memory they use"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Statistics successfully retrieved",
+                    content = @Content(mediaType = "application/json",
+                                     schema = @Schema(implementation = SampleStoreStats.class)))
+    })
+    @GetMapping("store/stats")
+    public SampleStoreStats getSampleStoreStats() {
+        return sampleStore.getStats();
+    }
+}
@@ -1,103 +1,90 @@
 package com.upr.monitoring.centralmonitoring.controller;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Map;
 
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PatchMapping;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
-import org.springframework.web.client.RestTemplate;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.upr.monitoring.centralmonitoring.alert.AlertEvaluator;
+import com.upr.monitoring.centralmonitoring.model.AlertEvent;
 import com.upr.monitoring.centralmonitoring.model.AlertRequest;
+import com.upr.monitoring.centralmonitoring.model.RuleReloadStatus;
+import com.upr.monitoring.centralmonitoring.service.AlertRuleWriter;
+import com.upr.monitoring.centralmonitoring.service.RuleReloadScheduler;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.ArraySchema;
 import io.swagger.v3.oas.annotations.media.Content;
 import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.extern.slf4j.Slf4j;
 
 @RestController
 @RequestMapping("/api/alerts")
 @Tag(name = "Alerts", description = "Operations for managing alert rules and notifications")
+@Slf4j
 public class AlertController {
 
-    private static final String RULES_FOLDER = "./resources/";
+    private final AlertRuleWriter ruleWriter;
 
-    private final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
+    private final RuleReloadScheduler reloadScheduler;
+
+    private final AlertEvaluator alertEvaluator;
+
+    public AlertController(AlertRuleWriter ruleWriter, RuleReloadScheduler reloadScheduler,
+                           AlertEvaluator alertEvaluator) {
+        this.ruleWriter = ruleWriter;
+        this.reloadScheduler = reloadScheduler;
+        this.alertEvaluator = alertEvaluator;
+    }
 
     @Operation(
         summary = "Create new alert rule",
         description = "Creates a new alert rule file for the specified application. " +
-                     "The rule will be saved as a YAML file and Thanos will be reloaded to apply the new rules."
+                     "The rule will be saved as a YAML file and Thanos will be reloaded to apply the new rules " +
+                     "at the end of the current reload window."
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Alert rule successfully created",
                     content = @Content(mediaType = "text/plain", schema = @Schema(type = "string"))),
         @ApiResponse(responseCode = "400", description = "Invalid alert request data",
                     content = @Content(mediaType = "text/plain", schema = @Schema(type = "string"))),
-        @ApiResponse(responseCode = "500", description = "Failed to create alert rule file or reload Thanos",
+        @ApiResponse(responseCode = "500", description = "Failed to create alert rule file",
                     content = @Content(mediaType = "text/plain", schema = @Schema(type = "string")))
     })
     @PostMapping("/create")
-    public String createAlertRule(
+    public ResponseEntity<String> createAlertRule(
             @Parameter(description = "Alert rule configuration including application ID and rules", required = true)
             @RequestBody AlertRequest request) throws IOException {
-        // Build rule structure
-        Map<String, Object> ruleFile = new HashMap<>();
-        Map<String, Object> group = new HashMap<>();
-        group.put("name", request.getApplicationId());
-
-        // Convert alerts to rule list
-        group.put("rules", request.getRules());
-        ruleFile.put("groups", List.of(group));
-
-        // Ensure the rules folder exists
-        File folder = new File(RULES_FOLDER);
-        if (!folder.exists()) {
-            boolean created = folder.mkdirs();
-            if (!created) {
-                throw new IOException("Failed to create rules folder: " + RULES_FOLDER);
-            }
+        if (request.getRules() == null) {
+            return ResponseEntity.badRequest().body("rules is required.");
         }
-
-        // File path for this application
-        File outputFile = new File(folder, request.getApplicationId() + ".yaml");
-
-        // If the file does not exist, create it
-        if (!outputFile.exists()) {
-            boolean created = outputFile.createNewFile();
-            if (!created) {
-                throw new IOException("Failed to create rule file: " + outputFile.getAbsolutePath());
-            }
+        Path outputFile;
+        try {
+            outputFile = ruleWriter.create(request.getApplicationId(), request.getRules());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
         }
-
-        // Write YAML content to the file
-        yamlMapper.writeValue(outputFile, ruleFile);
-
-        
-
-        // Optionally trigger Thanos reload (if reachable from the app)
-        new RestTemplate().postForObject("http://82.223.13.241:10911/-/reload", null, String.class);
-
-        return "Rule file created: " + outputFile.getAbsolutePath();
+        return ResponseEntity.ok("Rule file created: " + outputFile.toAbsolutePath());
     }
 
-
-
     @Operation(
         summary = "Modify existing alert rule",
         description = "Appends new rules to an existing alert rule file for the specified application. " +
-                     "If the application group doesn't exist, it will be created."
+                     "If the application group doesn't exist, it will be created. Thanos is reloaded at the end of the current reload window."
     )
     @ApiResponses(value = {
         @ApiResponse(responseCode = "200", description = "Alert rules successfully appended",
@@ -110,45 +97,68 @@ public class AlertController {
                     content = @Content(mediaType = "text/plain", schema = @Schema(type = "string")))
     })
     @PatchMapping("/modify")
-    public String modifyAlertRule(
+    public ResponseEntity<String> modifyAlertRule(
             @Parameter(description = "Alert rule configuration with additional rules to append", required = true)
             @RequestBody AlertRequest request) throws IOException {
-        File outputFile = new File(RULES_FOLDER, request.getApplicationId() + ".yaml");
-        if (!outputFile.exists()) {
-            throw new IOException("Rule file does not exist for applicationId: " + request.getApplicationId());
+        if (request.getRules() == null) {
+            return ResponseEntity.badRequest().body("rules is required.");
         }
-
-        // Read the existing file
-        Map<?, ?> existingYaml = yamlMapper.readValue(outputFile, Map.class);
-        List<Map<String, Object>> groups = (List<Map<String, Object>>) existingYaml.get("groups");
-
-        // Find the group with matching applicationId
-        Map<String, Object> targetGroup = null;
-        for (Map<String, Object> g : groups) {
-            if (request.getApplicationId().equals(g.get("name"))) {
-                targetGroup = g;
-                break;
-            }
-        }
-
-        if (targetGroup == null) {
-            // No group exists for this applicationId, create one
-            targetGroup = new HashMap<>();
-            targetGroup.put("name", request.getApplicationId());
-            targetGroup.put("rules", new ArrayList<>());
-            groups.add(targetGroup);
+        Path outputFile;
+        try {
+            outputFile = ruleWriter.append(request.getApplicationId(), request.getRules());
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        } catch (NoSuchFileException e) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(e.getReason());
         }
-
-        // Append new rules
-        List<Map<String, Object>> existingRules = (List<Map<String, Object>>) targetGroup.get("rules");
-        existingRules.addAll(request.getRules());
-
-        // Save back to file
-        yamlMapper.writeValue(outputFile, existingYaml);
-
-        return "Rules appended to file: " + outputFile.getAbsolutePath();
+        return ResponseEntity.ok("Rules appended to file: " + outputFile.toAbsolutePath());
     }
 
+    @Operation(
+        summary = "Request a Thanos rule reload",
+        description = "Schedules a reload of the rule files at the end of the current debounce window. " +
+                     "Requests within one window are folded into a single reload."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "202", description = "Reload scheduled",
+                    content = @Content(mediaType = "application/json",
+                                     schema = @Schema(implementation = RuleReloadStatus.class)))
+    })
+    @PostMapping("/reload")
+    public ResponseEntity<RuleReloadStatus> requestReload() {
+        reloadScheduler.requestReload();
+        return ResponseEntity.accepted().body(reloadScheduler.getStatus());
+    }
 
+    @Operation(
+        summary = "Get Thanos rule reload status",
+        description = "Returns the configured reload endpoint, whether a reload is pending or running, " +
+                     "and counters of requested, performed, failed and coalesced reloads"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Status successfully retrieved",
+                    content = @Content(mediaType = "application/json",
+                                     schema = @Schema(implementation = RuleReloadStatus.class)))
+    })
+    @GetMapping("/reload/status")
+    public RuleReloadStatus getReloadStatus() {
+        return reloadScheduler.getStatus();
+    }
 
-}
\ No newline at end of file
+    @Operation(
+        summary = "Get alerts of the in-process evaluator",
+        description = "Returns the pending and firing alerts of the threshold rules evaluated on fetched samples. " +
+                     "Empty unless alerts.evaluation.enabled is set."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Alerts successfully retrieved",
+                    content = @Content(mediaType = "application/json",
+                                     array = @ArraySchema(schema = @Schema(implementation = AlertEvent.class))))
+    })
+    @GetMapping("/active")
+    public List<AlertEvent> getActiveAlerts(
+            @Parameter(description = "Only alerts of this application", example = "user-service")
+            @RequestParam(required = false) String applicationId) {
+        return alertEvaluator.getActiveAlerts(applicationId);
+    }
+}
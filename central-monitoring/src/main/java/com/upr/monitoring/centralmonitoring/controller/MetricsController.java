@@ -1,9 +1,21 @@
 package com.upr.monitoring.centralmonitoring.controller;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
 import org.springframework.web.bind.annotation.RestController;
 
 import com.upr.monitoring.centralmonitoring.model.MetricsResponseDto;
+import com.upr.monitoring.centralmonitoring.model.RecentMetricsResponse;
+import com.upr.monitoring.centralmonitoring.model.RollupResponse;
+import com.upr.monitoring.centralmonitoring.component.ScheduledMetricsFetcher;
+import com.upr.monitoring.centralmonitoring.service.ApplicationRegistry;
+import com.upr.monitoring.centralmonitoring.service.MetricsRangeService;
 import com.upr.monitoring.centralmonitoring.service.MetricsService;
+import com.upr.monitoring.centralmonitoring.rollup.RollupEngine;
+import com.upr.monitoring.centralmonitoring.rollup.RollupResolution;
+import com.upr.monitoring.centralmonitoring.store.RecentSamplesStore;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -12,12 +24,17 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.boot.convert.DurationStyle;
 import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.GetMapping;
 import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 
 @RestController
@@ -26,8 +43,25 @@ public class MetricsController {
 
     private MetricsService metricsService;
 
-    public MetricsController(MetricsService metricsService) {
+    private MetricsRangeService rangeService;
+
+    private RecentSamplesStore sampleStore;
+
+    private RollupEngine rollupEngine;
+
+    private ScheduledMetricsFetcher metricsFetcher;
+
+    private ApplicationRegistry applicationRegistry;
+
+    public MetricsController(MetricsService metricsService, MetricsRangeService rangeService,
+                             RecentSamplesStore sampleStore, RollupEngine rollupEngine,
+                             ScheduledMetricsFetcher metricsFetcher, ApplicationRegistry applicationRegistry) {
         this.metricsService = metricsService;
+        this.rangeService = rangeService;
+        this.sampleStore = sampleStore;
+        this.rollupEngine = rollupEngine;
+        this.metricsFetcher = metricsFetcher;
+        this.applicationRegistry = applicationRegistry;
     }
     
 
@@ -46,11 +80,53 @@ public class MetricsController {
     @PostMapping("metrics/add-application")
     public ResponseEntity<String> postMethodName(
             @Parameter(description = "Application ID to be registered for monitoring", required = true)
-            @RequestBody String appId) {
+            @RequestBody String appId,
+            @Parameter(description = "How often the metrics of the application are fetched, such as 30s; "
+                    + "the configured default when omitted")
+            @RequestParam(required = false) String interval) {
+        Duration fetchInterval = null;
+        if (interval != null) {
+            try {
+                fetchInterval = DurationStyle.detectAndParse(interval);
+                metricsFetcher.checkInterval(fetchInterval);
+            } catch (IllegalArgumentException e) {
+                return ResponseEntity.badRequest().body("Invalid interval: " + e.getMessage());
+            }
+        }
 
-        return metricsService.validateApplicationId(appId);
+        ResponseEntity<String> response = metricsService.validateApplicationId(appId);
+        if (fetchInterval != null && response.getStatusCode().is2xxSuccessful()) {
+            metricsFetcher.setInterval(appId, fetchInterval);
+        }
+        return response;
     }
-    
+
+    @Operation(
+        summary = "Set the fetch interval of an application",
+        description = "Changes how often the metrics of a registered application are fetched from Thanos"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Interval updated",
+                    content = @Content(mediaType = "text/plain", schema = @Schema(type = "string"))),
+        @ApiResponse(responseCode = "400", description = "Invalid interval or unregistered application",
+                    content = @Content(mediaType = "text/plain", schema = @Schema(type = "string")))
+    })
+    @PutMapping("metrics/{applicationId}/interval")
+    public ResponseEntity<String> setInterval(
+            @Parameter(description = "ID of the application", required = true)
+            @PathVariable String applicationId,
+            @Parameter(description = "Fetch interval such as 30s", required = true)
+            @RequestParam String interval) {
+        Duration duration;
+        try {
+            duration = DurationStyle.detectAndParse(interval);
+            metricsFetcher.setInterval(applicationId, duration);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid interval: " + e.getMessage());
+        }
+        return ResponseEntity.ok("Interval set to " + duration + ".");
+    }
+
     @Operation(
         summary = "Get metrics for specific application",
         description = "Retrieves the latest metrics data for a specific application by its ID"
@@ -76,6 +152,146 @@ public class MetricsController {
 
     //TODO:  We want an API that will monitor specific application metrics
 
+    @Operation(
+        summary = "Stream metrics of an application over a time range",
+        description = "Runs a range query and streams every series as one line of newline-delimited JSON "
+                + "while Thanos is still responding. The last line holds the status and, when more series "
+                + "are available, a cursor for the next page."
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Series are being streamed",
+                    content = @Content(mediaType = "application/x-ndjson")),
+        @ApiResponse(responseCode = "400", description = "Invalid range, step, cursor or limit",
+                    content = @Content(mediaType = "text/plain", schema = @Schema(type = "string")))
+    })
+    @GetMapping("metrics/{applicationId}/range")
+    public ResponseEntity<StreamingResponseBody> streamMetricsRange(
+            @Parameter(description = "ID of the application to query", required = true)
+            @PathVariable String applicationId,
+            @Parameter(description = "Start of the range, RFC 3339 or epoch seconds; defaults to one hour before end")
+            @RequestParam(required = false) String start,
+            @Parameter(description = "End of the range, RFC 3339 or epoch seconds; defaults to now")
+            @RequestParam(required = false) String end,
+            @Parameter(description = "Resolution step such as 30s, or in seconds; defaults to 60s")
+            @RequestParam(required = false) String step,
+            @Parameter(description = "Cursor returned in the status line of the previous page")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Maximum number of series in this page")
+            @RequestParam(defaultValue = "1000") int limit) {
+        MetricsRangeService.RangeRequest request;
+        try {
+            request = rangeService.parseRequest(applicationId, start, end, step, cursor, limit);
+        } catch (IllegalArgumentException e) {
+            byte[] message = e.getMessage().getBytes(StandardCharsets.UTF_8);
+            return ResponseEntity.badRequest()
+                    .contentType(MediaType.TEXT_PLAIN)
+                    .body(out -> out.write(message));
+        }
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_NDJSON)
+                .body(out -> rangeService.stream(request, out));
+    }
+
+    @Operation(
+        summary = "Get recent metrics of an application from memory",
+        description = "Returns the samples fetched by the scheduler within a recent window without querying Thanos"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Recent samples successfully retrieved",
+                    content = @Content(mediaType = "application/json",
+                                     schema = @Schema(implementation = RecentMetricsResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid window",
+                    content = @Content(mediaType = "application/json"))
+    })
+    @GetMapping("metrics/{applicationId}/recent")
+    public ResponseEntity<RecentMetricsResponse> getRecentMetrics(
+            @Parameter(description = "ID of the application", required = true)
+            @PathVariable String applicationId,
+            @Parameter(description = "How far back to read, such as 5m")
+            @RequestParam(defaultValue = "5m") String window,
+            @Parameter(description = "Metric names to return; all stored metrics when omitted")
+            @RequestParam(required = false) List<String> metric) {
+        Duration duration;
+        try {
+            duration = DurationStyle.detectAndParse(window);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        return ResponseEntity.ok(metricsService.getRecentMetrics(applicationId, duration,
+                metric != null ? metric : List.of()));
+    }
+
+    @Operation(
+        summary = "Get rollups of an application",
+        description = "Returns min, max, avg and count per 1m, 5m or 1h bucket of every series of an application"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Rollups successfully retrieved",
+                    content = @Content(mediaType = "application/json",
+                                     schema = @Schema(implementation = RollupResponse.class))),
+        @ApiResponse(responseCode = "400", description = "Invalid resolution or window",
+                    content = @Content(mediaType = "application/json"))
+    })
+    @GetMapping("metrics/{applicationId}/rollups")
+    public ResponseEntity<RollupResponse> getRollups(
+            @Parameter(description = "ID of the application", required = true)
+            @PathVariable String applicationId,
+            @Parameter(description = "Bucket size: 1m, 5m or 1h")
+            @RequestParam(defaultValue = "5m") String resolution,
+            @Parameter(description = "How far back to read, such as 24h")
+            @RequestParam(defaultValue = "6h") String window,
+            @Parameter(description = "Metric names to return; all metrics when omitted")
+            @RequestParam(required = false) List<String> metric) {
+        RollupResolution rollupResolution;
+        Duration duration;
+        try {
+            rollupResolution = RollupResolution.fromLabel(resolution);
+            duration = DurationStyle.detectAndParse(window);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        }
+        long to = System.currentTimeMillis();
+        return ResponseEntity.ok(rollupEngine.query(applicationId, rollupResolution, to - duration.toMillis(), to,
+                metric != null ? metric : List.of()));
+    }
+
+    @Operation(
+        summary = "Set the in-memory retention of an application",
+        description = "Sets how long recent samples of an application, or of one of its metrics, are kept in memory"
+    )
+    @ApiResponses(value = {
+        @ApiResponse(responseCode = "200", description = "Retention updated",
+                    content = @Content(mediaType = "text/plain", schema = @Schema(type = "string"))),
+        @ApiResponse(responseCode = "400", description = "Invalid retention",
+                    content = @Content(mediaType = "text/plain", schema = @Schema(type = "string"))),
+        @ApiResponse(responseCode = "404", description = "Application not registered",
+                    content = @Content(mediaType = "text/plain", schema = @Schema(type = "string")))
+    })
+    @PutMapping("metrics/{applicationId}/retention")
+    public ResponseEntity<String> setRetention(
+            @Parameter(description = "ID of the application", required = true)
+            @PathVariable String applicationId,
+            @Parameter(description = "Retention window such as 6h", required = true)
+            @RequestParam String retention,
+            @Parameter(description = "Metric the retention applies to; the whole application when omitted")
+            @RequestParam(required = false) String metric) {
+        // Overrides are never removed, so they are only kept for applications that are fetched
+        if (!applicationRegistry.isRegistered(applicationId)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body("Application " + applicationId + " is not registered.");
+        }
+        Duration duration;
+        try {
+            duration = DurationStyle.detectAndParse(retention);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body("Invalid retention: " + retention);
+        }
+        if (duration.isNegative() || duration.isZero()) {
+            return ResponseEntity.badRequest().body("Retention must be positive.");
+        }
+        sampleStore.setRetention(applicationId, metric, duration);
+        return ResponseEntity.ok("Retention set to " + duration + ".");
+    }
+
     @Operation(
         summary = "Fetch specific metrics for application",
         description = "Retrieves specific metrics data for a given application by its ID"
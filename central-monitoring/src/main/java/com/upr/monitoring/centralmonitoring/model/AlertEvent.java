@@ -0,0 +1,46 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import java.time.Instant;
+import java.util.Map;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Schema(description = "State change or current state of an alert evaluated in-process on fetched samples")
+public class AlertEvent {
+
+    @Schema(description = "Application the alert rule belongs to", example = "user-service")
+    private String applicationId;
+
+    @Schema(description = "Name of the alert rule", example = "HighMemoryUsage")
+    private String alertName;
+
+    @Schema(description = "pending, firing or resolved", example = "firing")
+    private String status;
+
+    @Schema(description = "Series labels merged with the rule labels, including alertname")
+    private Map<String, String> labels;
+
+    @Schema(description = "Rule annotations with $value and $labels expanded")
+    private Map<String, String> annotations;
+
+    @Schema(description = "Expression of the rule", example = "container_memory_rss > 5e8")
+    private String expr;
+
+    @Schema(description = "Value of the sample that caused the state change", example = "612345678")
+    private double value;
+
+    @Schema(description = "Time of the first sample violating the threshold")
+    private Instant activeAt;
+
+    @Schema(description = "Time of the sample that made the alert fire, null while pending")
+    private Instant startsAt;
+
+    @Schema(description = "Time of the sample that resolved the alert, null unless resolved")
+    private Instant endsAt;
+}
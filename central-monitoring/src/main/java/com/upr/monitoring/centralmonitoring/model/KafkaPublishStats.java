@@ -0,0 +1,50 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import java.util.Map;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Schema(description = "Throughput and error counters of the Kafka metrics publisher")
+public class KafkaPublishStats {
+
+    @Schema(description = "Topic the metric snapshots are published to", example = "metrics-topic")
+    private String topic;
+
+    @Schema(description = "Records sent but not yet acknowledged by the broker", example = "12")
+    private int inFlight;
+
+    @Schema(description = "Number of sends that had to wait for an in-flight slot", example = "0")
+    private long backpressureWaits;
+
+    @Schema(description = "Records that failed before a partition was assigned", example = "0")
+    private long unassignedErrors;
+
+    @Schema(description = "Counters per partition of every topic written to, keyed by topic-partition",
+            example = "{\"metrics-topic-0\": {\"sent\": 1520, \"errors\": 0, \"bytes\": 3480123, \"averageLatencyMs\": 4.2}}")
+    private Map<String, Partition> partitions;
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @Schema(description = "Counters of a single partition")
+    public static class Partition {
+
+        @Schema(description = "Records acknowledged by the broker", example = "1520")
+        private long sent;
+
+        @Schema(description = "Records that failed", example = "0")
+        private long errors;
+
+        @Schema(description = "Payload bytes acknowledged by the broker", example = "3480123")
+        private long bytes;
+
+        @Schema(description = "Average time from send to acknowledgement in milliseconds", example = "4.2")
+        private double averageLatencyMs;
+    }
+}
@@ -0,0 +1,103 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * A single time series as returned by Thanos, stored compactly.
+ * Labels are interned and immutable, samples are kept in parallel primitive
+ * arrays: one sample for instant vectors, several for range matrices.
+ */
+public final class MetricSeries {
+
+    private final Map<String, String> labels;
+
+    private final long[] timestamps;
+
+    private final double[] values;
+
+    /**
+     * @param labels The interned series labels, including {@code __name__}
+     * @param timestamps The sample timestamps in epoch milliseconds, ascending
+     * @param values The sample values, parallel to {@code timestamps}
+     */
+    public MetricSeries(Map<String, String> labels, long[] timestamps, double[] values) {
+        if (timestamps.length != values.length) {
+            throw new IllegalArgumentException("Timestamps and values must have the same length");
+        }
+        this.labels = labels;
+        this.timestamps = timestamps;
+        this.values = values;
+    }
+
+    public Map<String, String> getLabels() {
+        return labels;
+    }
+
+    public String getName() {
+        return labels.get("__name__");
+    }
+
+    public int size() {
+        return timestamps.length;
+    }
+
+    public long getTimestamp(int index) {
+        return timestamps[index];
+    }
+
+    public double getValue(int index) {
+        return values[index];
+    }
+
+    /**
+     * @return The timestamp of the most recent sample in epoch milliseconds
+     */
+    public long getLastTimestamp() {
+        return timestamps[timestamps.length - 1];
+    }
+
+    /**
+     * @return The value of the most recent sample
+     */
+    public double getLastValue() {
+        return values[values.length - 1];
+    }
+
+    /**
+     * Formats a sample value the way the Prometheus HTTP API does
+     * @param value The sample value
+     * @return The value as a plain decimal string, or NaN/+Inf/-Inf
+     */
+    public static String formatValue(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return Long.toString((long) value);
+        }
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * Parses a sample value as written by the Prometheus HTTP API
+     * @param text The value string
+     * @return The parsed value
+     */
+    public static double parseValue(String text) {
+        switch (text) {
+            case "NaN":
+                return Double.NaN;
+            case "+Inf":
+            case "Inf":
+                return Double.POSITIVE_INFINITY;
+            case "-Inf":
+                return Double.NEGATIVE_INFINITY;
+            default:
+                return Double.parseDouble(text);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package com.upr.monitoring.centralmonitoring.model;
 import java.time.LocalDateTime;
 import java.util.Map;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.Builder;
 
@@ -24,10 +26,27 @@ public class MetricsResponseDto {
             example = "{\"cpu_usage\": 75.5, \"memory_usage\": 60.2, \"request_count\": 1250}")
     private Map<String, Object> metrics;
 
+    @Schema(description = "Per application sequence number of the published message, used to detect gaps",
+            example = "42")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Long sequence;
+
+    @Schema(description = "Whether the published message holds all series or only those changed since the previous message",
+            example = "true")
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Boolean keyframe;
+
     public MetricsResponseDto(String applicationId, LocalDateTime timestamp, Map<String, Object> metrics) {
+        this(applicationId, timestamp, metrics, null, null);
+    }
+
+    public MetricsResponseDto(String applicationId, LocalDateTime timestamp, Map<String, Object> metrics,
+                              Long sequence, Boolean keyframe) {
         this.applicationId = applicationId;
         this.metrics = metrics;
         this.timestamp = timestamp;
+        this.sequence = sequence;
+        this.keyframe = keyframe;
     }
 
     public String getApplicationId() {
@@ -42,5 +61,13 @@ public class MetricsResponseDto {
         return timestamp;
     }
 
+    public Long getSequence() {
+        return sequence;
+    }
+
+    public Boolean getKeyframe() {
+        return keyframe;
+    }
+
 
 }
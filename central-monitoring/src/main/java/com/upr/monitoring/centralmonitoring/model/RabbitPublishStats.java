@@ -0,0 +1,46 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Schema(description = "Throughput and confirm counters of the RabbitMQ metrics publisher")
+public class RabbitPublishStats {
+
+    @Schema(description = "Exchange the metrics are published to", example = "metrics.exchange")
+    private String exchange;
+
+    @Schema(description = "Messages waiting to be published, including scheduled retries", example = "0")
+    private int queued;
+
+    @Schema(description = "Messages published but not yet confirmed by the broker", example = "25")
+    private int outstanding;
+
+    @Schema(description = "Publish attempts, retries included", example = "15200")
+    private long published;
+
+    @Schema(description = "Messages confirmed by the broker", example = "15180")
+    private long acked;
+
+    @Schema(description = "Publish attempts negatively acknowledged or failed before reaching the broker", example = "3")
+    private long nacked;
+
+    @Schema(description = "Publish attempts that were retries of a nacked message", example = "3")
+    private long retried;
+
+    @Schema(description = "Messages dropped after exhausting their retries or because the queue was full", example = "0")
+    private long dropped;
+
+    @Schema(description = "Number of pipelined batches sent over a single channel", example = "820")
+    private long batches;
+
+    @Schema(description = "Average time from publish to broker confirm in milliseconds", example = "2.7")
+    private double averageConfirmLatencyMs;
+
+    @Schema(description = "Longest time from publish to broker confirm in milliseconds", example = "41.0")
+    private double maxConfirmLatencyMs;
+}
@@ -0,0 +1,43 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Schema(description = "Recent samples of an application served from the in-memory store")
+public class RecentMetricsResponse {
+
+    @Schema(description = "Unique identifier of the application", example = "user-service")
+    private String applicationId;
+
+    @Schema(description = "Start of the window", example = "2024-11-12T09:55:00Z")
+    private Instant from;
+
+    @Schema(description = "End of the window", example = "2024-11-12T10:00:00Z")
+    private Instant to;
+
+    @Schema(description = "Stored series with samples in the window")
+    private List<Series> series;
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @Schema(description = "Samples of a single series")
+    public static class Series {
+
+        @Schema(description = "Series labels", example = "{\"__name__\": \"container_memory_rss\", \"application_id\": \"user-service\"}")
+        private Map<String, String> metric;
+
+        @Schema(description = "Samples as [epoch seconds, value] pairs, the value as a string like Thanos",
+                example = "[[1731405300.000, \"1048576\"]]")
+        private List<List<Object>> values;
+    }
+}
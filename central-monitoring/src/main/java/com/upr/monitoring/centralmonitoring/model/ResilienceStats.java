@@ -0,0 +1,77 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import java.util.Map;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Schema(description = "State of the circuit breaker, bulkheads and adaptive timeouts guarding Thanos calls")
+public class ResilienceStats {
+
+    @Schema(description = "Whether calls are guarded at all", example = "true")
+    private boolean enabled;
+
+    @Schema(description = "Circuit state: CLOSED, OPEN or HALF_OPEN", example = "CLOSED")
+    private String circuitState;
+
+    @Schema(description = "Share of failed calls in the current circuit window", example = "0.04")
+    private double failureRate;
+
+    @Schema(description = "Calls rejected because the circuit was open", example = "0")
+    private long circuitRejected;
+
+    @Schema(description = "Bulkheads keyed by traffic class: scheduled, interactive or streaming")
+    private Map<String, Bulkhead> bulkheads;
+
+    @Schema(description = "Latency and hedging counters keyed by Thanos endpoint path")
+    private Map<String, Endpoint> endpoints;
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @Schema(description = "Concurrency limit of one traffic class")
+    public static class Bulkhead {
+
+        @Schema(description = "Maximum concurrent calls", example = "64")
+        private int maxConcurrent;
+
+        @Schema(description = "Calls currently in flight", example = "12")
+        private int inUse;
+
+        @Schema(description = "Calls rejected after waiting for a free slot", example = "0")
+        private long rejected;
+    }
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @Schema(description = "Counters of one Thanos endpoint")
+    public static class Endpoint {
+
+        @Schema(description = "Permitted calls", example = "15210")
+        private long calls;
+
+        @Schema(description = "Calls that timed out", example = "3")
+        private long timeouts;
+
+        @Schema(description = "Duplicate requests sent for slow calls", example = "140")
+        private long hedges;
+
+        @Schema(description = "Calls answered by the duplicate request", example = "95")
+        private long hedgeWins;
+
+        @Schema(description = "Median latency in milliseconds, -1 until enough calls were made", example = "42.0")
+        private double p50Ms;
+
+        @Schema(description = "99th percentile latency in milliseconds, -1 until enough calls were made", example = "310.5")
+        private double p99Ms;
+
+        @Schema(description = "Timeout currently applied to calls with the default timeout in milliseconds", example = "1000.0")
+        private double timeoutMs;
+    }
+}
@@ -0,0 +1,60 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import java.util.List;
+import java.util.Map;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Schema(description = "Rollups of the series of an application at one resolution")
+public class RollupResponse {
+
+    @Schema(description = "Unique identifier of the application", example = "user-service")
+    private String applicationId;
+
+    @Schema(description = "Bucket size", example = "5m", allowableValues = {"1m", "5m", "1h"})
+    private String resolution;
+
+    @Schema(description = "Series with at least one bucket")
+    private List<Series> series;
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @Schema(description = "Rollup buckets of a single series")
+    public static class Series {
+
+        @Schema(description = "Series labels", example = "{\"__name__\": \"container_memory_rss\", \"application_id\": \"user-service\"}")
+        private Map<String, String> metric;
+
+        @Schema(description = "Buckets in ascending time order")
+        private List<Point> points;
+    }
+
+    @Data
+    @Builder
+    @AllArgsConstructor
+    @Schema(description = "Aggregates of the samples within one bucket")
+    public static class Point {
+
+        @Schema(description = "Bucket start in epoch seconds", example = "1731405300")
+        private long start;
+
+        @Schema(description = "Smallest sample value", example = "1048576")
+        private double min;
+
+        @Schema(description = "Largest sample value", example = "2097152")
+        private double max;
+
+        @Schema(description = "Mean of the sample values", example = "1572864")
+        private double avg;
+
+        @Schema(description = "Number of samples", example = "5")
+        private long count;
+    }
+}
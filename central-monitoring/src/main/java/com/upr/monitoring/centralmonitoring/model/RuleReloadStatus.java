@@ -0,0 +1,60 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import java.time.Instant;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Schema(description = "State of the debounced Thanos rule reloads")
+public class RuleReloadStatus {
+
+    @Schema(description = "Whether rule changes trigger a reload at all", example = "true")
+    private boolean enabled;
+
+    @Schema(description = "Reload endpoint of the Thanos ruler", example = "http://thanos-rule:10902/-/reload")
+    private String reloadUrl;
+
+    @Schema(description = "Window in which rule changes are collected into one reload in milliseconds", example = "5000")
+    private long debounceMs;
+
+    @Schema(description = "Whether a reload is scheduled but not yet started", example = "false")
+    private boolean pending;
+
+    @Schema(description = "Whether a reload call is running", example = "false")
+    private boolean inFlight;
+
+    @Schema(description = "When the scheduled reload starts, null if none is scheduled")
+    private Instant nextReloadAt;
+
+    @Schema(description = "Reloads requested by rule changes or through the API", example = "200")
+    private long requests;
+
+    @Schema(description = "Reload calls made, including retries", example = "3")
+    private long reloads;
+
+    @Schema(description = "Reload calls that failed", example = "0")
+    private long failures;
+
+    @Schema(description = "Requests folded into an already scheduled reload", example = "197")
+    private long coalesced;
+
+    @Schema(description = "When a reload was last requested")
+    private Instant lastRequestedAt;
+
+    @Schema(description = "When the last reload call started")
+    private Instant lastReloadAt;
+
+    @Schema(description = "When the last successful reload finished")
+    private Instant lastSuccessAt;
+
+    @Schema(description = "Duration of the last reload call in milliseconds", example = "35")
+    private long lastDurationMs;
+
+    @Schema(description = "Error of the last reload call, null if it succeeded")
+    private String lastError;
+}
@@ -0,0 +1,34 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Schema(description = "Size of the in-memory store of recent samples")
+public class SampleStoreStats {
+
+    @Schema(description = "Applications with stored samples", example = "120")
+    private int applications;
+
+    @Schema(description = "Stored series", example = "4800")
+    private long series;
+
+    @Schema(description = "Stored samples", example = "288000")
+    private long samples;
+
+    @Schema(description = "Approximate memory used in bytes", example = "3145728")
+    private long bytes;
+
+    @Schema(description = "Memory budget in bytes", example = "67108864")
+    private long maxBytes;
+
+    @Schema(description = "Average memory used per sample in bytes, including per series overhead", example = "10.9")
+    private double bytesPerSample;
+
+    @Schema(description = "Chunks evicted to stay within the memory budget", example = "0")
+    private long evictedChunks;
+}
@@ -0,0 +1,43 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Schema(description = "Counters of the per-application metrics fetch scheduler")
+public class SchedulerStats {
+
+    @Schema(description = "Applications being scheduled", example = "250")
+    private int applications;
+
+    @Schema(description = "Timeouts waiting in the timing wheel", example = "248")
+    private int pendingTimeouts;
+
+    @Schema(description = "Fetches started", example = "15000")
+    private long runs;
+
+    @Schema(description = "Fetches that published series", example = "14890")
+    private long succeeded;
+
+    @Schema(description = "Fetches for which Thanos returned no series", example = "70")
+    private long empty;
+
+    @Schema(description = "Fetches that failed", example = "40")
+    private long failed;
+
+    @Schema(description = "Fetches that took longer than the interval of their application", example = "3")
+    private long overruns;
+
+    @Schema(description = "Applications currently backed off after failed or empty fetches", example = "2")
+    private int backedOffApplications;
+
+    @Schema(description = "Average delay between the due time of a fetch and its start in milliseconds", example = "48.5")
+    private double averageLagMs;
+
+    @Schema(description = "Largest delay between the due time of a fetch and its start in milliseconds", example = "180")
+    private long maxLagMs;
+}
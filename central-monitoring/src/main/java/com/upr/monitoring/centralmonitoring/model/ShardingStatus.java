@@ -0,0 +1,37 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import java.util.List;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+@AllArgsConstructor
+@Schema(description = "Share of the registered applications this replica is responsible for")
+public class ShardingStatus {
+
+    @Schema(description = "Whether applications are split between replicas; otherwise this replica owns all of them",
+            example = "true")
+    private boolean enabled;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Schema(description = "Control topic whose partitions are the shards", example = "metrics-control")
+    private String topic;
+
+    @Schema(description = "Number of partitions of the control topic", example = "64")
+    private int totalPartitions;
+
+    @Schema(description = "Partitions assigned to this replica", example = "[0, 3, 7]")
+    private List<Integer> ownedPartitions;
+
+    @Schema(description = "Registered applications known to this replica", example = "120")
+    private int knownApplications;
+
+    @Schema(description = "Known applications fetched by this replica", example = "40")
+    private int ownedApplications;
+}
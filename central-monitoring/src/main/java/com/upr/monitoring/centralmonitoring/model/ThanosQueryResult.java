@@ -0,0 +1,53 @@
+package com.upr.monitoring.centralmonitoring.model;
+
+import java.util.List;
+
+/**
+ * Status and series of a parsed Thanos query response.
+ */
+public final class ThanosQueryResult {
+
+    private final String status;
+
+    private final String resultType;
+
+    private final List<MetricSeries> series;
+
+    private final String error;
+
+    public ThanosQueryResult(String status, String resultType, List<MetricSeries> series, String error) {
+        this.status = status;
+        this.resultType = resultType;
+        this.series = series;
+        this.error = error;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public boolean isSuccess() {
+        return "success".equals(status);
+    }
+
+    public String getResultType() {
+        return resultType;
+    }
+
+    public List<MetricSeries> getSeries() {
+        return series;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    /**
+     * Creates a result with the same status and type but a different set of series
+     * @param series The series of the new result
+     * @return The new result
+     */
+    public ThanosQueryResult withSeries(List<MetricSeries> series) {
+        return new ThanosQueryResult(status, resultType, series, error);
+    }
+}
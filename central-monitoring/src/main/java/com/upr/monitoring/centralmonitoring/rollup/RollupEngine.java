@@ -0,0 +1,203 @@
+package com.upr.monitoring.centralmonitoring.rollup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+import com.upr.monitoring.centralmonitoring.model.RollupResponse;
+import com.upr.monitoring.centralmonitoring.service.KafkaMetricsPublisher;
+import com.upr.monitoring.centralmonitoring.service.RabbitMetricsPublisher;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Maintains 1m, 5m and 1h min/max/avg/count rollups of every fetched series.
+ * <p>
+ * Each sample updates one bucket per resolution in constant time, history is
+ * never rescanned. Completed buckets are published periodically, one message
+ * per application and resolution, to the topic {@code <prefix><resolution>}
+ * and the routing key {@code rollup.<resolution>.<applicationId>}.
+ * The retained buckets can be queried over REST.
+ * <p>
+ * A week of buckets costs about 20 KB per series, so rollups are off by
+ * default and the number of series rolled up is capped by {@code max-series};
+ * series beyond the cap are skipped until idle series are forgotten.
+ */
+@Service
+@Slf4j
+public class RollupEngine {
+
+    private final Map<String, Map<Map<String, String>, SeriesRollups>> applications = new ConcurrentHashMap<>();
+
+    private final KafkaMetricsPublisher kafkaPublisher;
+
+    private final RabbitMetricsPublisher rabbitPublisher;
+
+    private final ObjectMapper objectMapper;
+
+    private final boolean enabled;
+
+    private final int[] capacities = new int[RollupResolution.values().length];
+
+    private final long graceMillis;
+
+    private final String kafkaTopicPrefix;
+
+    private final int maxSeries;
+
+    private final AtomicInteger seriesCount = new AtomicInteger();
+
+    private final AtomicLong skippedSeries = new AtomicLong();
+
+    private long skippedReported;
+
+    public RollupEngine(KafkaMetricsPublisher kafkaPublisher, RabbitMetricsPublisher rabbitPublisher,
+                        ObjectMapper objectMapper,
+                        @Value("${metrics.rollup.enabled:false}") boolean enabled,
+                        @Value("${metrics.rollup.history-1m:120}") int history1m,
+                        @Value("${metrics.rollup.history-5m:288}") int history5m,
+                        @Value("${metrics.rollup.history-1h:168}") int history1h,
+                        @Value("${metrics.rollup.grace:2m}") Duration grace,
+                        @Value("${metrics.rollup.kafka-topic-prefix:metrics-rollup-}") String kafkaTopicPrefix,
+                        @Value("${metrics.rollup.max-series:20000}") int maxSeries) {
+        this.kafkaPublisher = kafkaPublisher;
+        this.rabbitPublisher = rabbitPublisher;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.capacities[RollupResolution.ONE_MINUTE.ordinal()] = history1m;
+        this.capacities[RollupResolution.FIVE_MINUTES.ordinal()] = history5m;
+        this.capacities[RollupResolution.ONE_HOUR.ordinal()] = history1h;
+        this.graceMillis = grace.toMillis();
+        this.kafkaTopicPrefix = kafkaTopicPrefix;
+        this.maxSeries = maxSeries;
+    }
+
+    /**
+     * Adds the new samples of an application's series to their rollups
+     * @param appId The application ID
+     * @param series The fetched series
+     */
+    public void record(String appId, List<MetricSeries> series) {
+        if (!enabled || series.isEmpty()) {
+            return;
+        }
+        Map<Map<String, String>, SeriesRollups> rollups =
+                applications.computeIfAbsent(appId, id -> new ConcurrentHashMap<>());
+        for (MetricSeries s : series) {
+            if (s.size() == 0) {
+                continue;
+            }
+            // Added under the map's lock, so publishCompleted never forgets a series while it receives samples
+            rollups.compute(s.getLabels(), (labels, rollup) -> {
+                if (rollup == null) {
+                    if (seriesCount.incrementAndGet() > maxSeries) {
+                        seriesCount.decrementAndGet();
+                        skippedSeries.incrementAndGet();
+                        return null;
+                    }
+                    rollup = new SeriesRollups(labels, capacities);
+                }
+                rollup.add(s);
+                return rollup;
+            });
+        }
+    }
+
+    /**
+     * Reads the rollups of an application
+     * @param appId The application ID
+     * @param resolution The bucket size
+     * @param from Earliest bucket start in epoch milliseconds, inclusive
+     * @param to Latest bucket start in epoch milliseconds, inclusive
+     * @param metricNames The metric names to return, or an empty collection for all
+     * @return The buckets of every series with at least one bucket in the window
+     */
+    public RollupResponse query(String appId, RollupResolution resolution, long from, long to,
+                                Collection<String> metricNames) {
+        List<RollupResponse.Series> series = new ArrayList<>();
+        Map<Map<String, String>, SeriesRollups> rollups = applications.getOrDefault(appId, Map.of());
+        for (SeriesRollups s : rollups.values()) {
+            if (!metricNames.isEmpty() && !metricNames.contains(s.labels().get("__name__"))) {
+                continue;
+            }
+            List<RollupResponse.Point> points = new ArrayList<>();
+            s.forEach(resolution, from, to, (start, min, max, sum, count) -> points.add(point(start, min, max, sum, count)));
+            if (!points.isEmpty()) {
+                series.add(new RollupResponse.Series(s.labels(), points));
+            }
+        }
+        return new RollupResponse(appId, resolution.getLabel(), series);
+    }
+
+    /**
+     * Publishes the buckets completed since the previous run and forgets series
+     * that have not received samples for longer than the hourly history
+     */
+    @Scheduled(fixedDelayString = "${metrics.rollup.flush-interval:30s}")
+    public void publishCompleted() {
+        long now = System.currentTimeMillis();
+        long idleCutoff = now - capacities[RollupResolution.ONE_HOUR.ordinal()] * RollupResolution.ONE_HOUR.getStepMillis();
+        long skipped = skippedSeries.get();
+        if (skipped > skippedReported) {
+            log.warn("{} new series were not rolled up, metrics.rollup.max-series={} is reached",
+                    skipped - skippedReported, maxSeries);
+            skippedReported = skipped;
+        }
+        applications.forEach((appId, rollups) -> {
+            for (Map<String, String> labels : rollups.keySet()) {
+                rollups.computeIfPresent(labels, (l, s) -> {
+                    long last = s.lastTimestamp();
+                    if (last == Long.MIN_VALUE || last >= idleCutoff) {
+                        return s;
+                    }
+                    seriesCount.decrementAndGet();
+                    return null;
+                });
+            }
+            for (RollupResolution resolution : RollupResolution.values()) {
+                List<RollupResponse.Series> completed = new ArrayList<>();
+                for (SeriesRollups s : rollups.values()) {
+                    List<RollupResponse.Point> points = new ArrayList<>();
+                    s.drainCompleted(resolution, now, graceMillis,
+                            (start, min, max, sum, count) -> points.add(point(start, min, max, sum, count)));
+                    if (!points.isEmpty()) {
+                        completed.add(new RollupResponse.Series(s.labels(), points));
+                    }
+                }
+                if (!completed.isEmpty()) {
+                    publish(new RollupResponse(appId, resolution.getLabel(), completed));
+                }
+            }
+        });
+    }
+
+    private void publish(RollupResponse rollup) {
+        try {
+            byte[] payload = objectMapper.writeValueAsBytes(rollup);
+            kafkaPublisher.publishJson(kafkaTopicPrefix + rollup.getResolution(), rollup.getApplicationId(), payload);
+            rabbitPublisher.publishJson("rollup." + rollup.getResolution() + "." + rollup.getApplicationId(), payload);
+        } catch (JsonProcessingException e) {
+            log.error("Failed to serialize {} rollup of application {}: {}", rollup.getResolution(),
+                    rollup.getApplicationId(), e.getMessage());
+        } catch (RuntimeException e) {
+            log.warn("Failed to publish {} rollup of application {}: {}", rollup.getResolution(),
+                    rollup.getApplicationId(), e.getMessage());
+        }
+    }
+
+    private static RollupResponse.Point point(long start, double min, double max, double sum, long count) {
+        return new RollupResponse.Point(start / 1000, min, max, sum / count, count);
+    }
+}
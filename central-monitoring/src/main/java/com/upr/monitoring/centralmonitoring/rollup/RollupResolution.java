@@ -0,0 +1,44 @@
+package com.upr.monitoring.centralmonitoring.rollup;
+
+/**
+ * Bucket sizes samples are rolled up into
+ */
+public enum RollupResolution {
+
+    ONE_MINUTE("1m", 60_000),
+
+    FIVE_MINUTES("5m", 300_000),
+
+    ONE_HOUR("1h", 3_600_000);
+
+    private final String label;
+
+    private final long stepMillis;
+
+    RollupResolution(String label, long stepMillis) {
+        this.label = label;
+        this.stepMillis = stepMillis;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public long getStepMillis() {
+        return stepMillis;
+    }
+
+    /**
+     * @param label The label, such as {@code 5m}
+     * @return The matching resolution
+     * @throws IllegalArgumentException If no resolution has the label
+     */
+    public static RollupResolution fromLabel(String label) {
+        for (RollupResolution resolution : values()) {
+            if (resolution.label.equals(label)) {
+                return resolution;
+            }
+        }
+        throw new IllegalArgumentException("Unknown rollup resolution: " + label);
+    }
+}
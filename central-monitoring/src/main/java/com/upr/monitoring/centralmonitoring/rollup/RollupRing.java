@@ -0,0 +1,99 @@
+package com.upr.monitoring.centralmonitoring.rollup;
+
+import java.util.Arrays;
+
+/**
+ * Fixed number of consecutive rollup buckets of one resolution, stored in
+ * parallel primitive arrays indexed by bucket number modulo the capacity.
+ * Adding a sample updates one bucket in constant time; a slot still holding
+ * an older bucket is reset when a newer bucket claims it.
+ * Not thread-safe, callers synchronize on the owning series.
+ */
+final class RollupRing {
+
+    /**
+     * Receives the aggregates of a bucket
+     */
+    @FunctionalInterface
+    interface BucketConsumer {
+        void accept(long start, double min, double max, double sum, long count);
+    }
+
+    private final long step;
+
+    private final long[] starts;
+
+    private final double[] min;
+
+    private final double[] max;
+
+    private final double[] sum;
+
+    private final long[] count;
+
+    RollupRing(long step, int capacity) {
+        this.step = step;
+        this.starts = new long[capacity];
+        this.min = new double[capacity];
+        this.max = new double[capacity];
+        this.sum = new double[capacity];
+        this.count = new long[capacity];
+        Arrays.fill(starts, Long.MIN_VALUE);
+    }
+
+    long step() {
+        return step;
+    }
+
+    /**
+     * @param timestamp A timestamp in epoch milliseconds
+     * @return The start of the bucket containing the timestamp
+     */
+    long bucketStart(long timestamp) {
+        return Math.floorDiv(timestamp, step) * step;
+    }
+
+    void add(long timestamp, double value) {
+        long start = bucketStart(timestamp);
+        int slot = slot(start);
+        if (starts[slot] != start) {
+            if (starts[slot] > start) {
+                // Older than the buckets kept
+                return;
+            }
+            starts[slot] = start;
+            min[slot] = value;
+            max[slot] = value;
+            sum[slot] = value;
+            count[slot] = 1;
+            return;
+        }
+        min[slot] = Math.min(min[slot], value);
+        max[slot] = Math.max(max[slot], value);
+        sum[slot] += value;
+        count[slot]++;
+    }
+
+    /**
+     * Visits the buckets starting within a time window in ascending order
+     * @param from Earliest bucket start in epoch milliseconds, inclusive
+     * @param to Latest bucket start in epoch milliseconds, inclusive
+     * @param consumer Receives each bucket that holds samples
+     */
+    void forEach(long from, long to, BucketConsumer consumer) {
+        long first = Math.max(bucketStart(from), bucketStart(to) - (starts.length - 1) * step);
+        if (from > first) {
+            first += step;
+        }
+        for (long start = first; start <= to; start += step) {
+            int slot = slot(start);
+            if (starts[slot] == start) {
+                consumer.accept(start, min[slot], max[slot], sum[slot], count[slot]);
+            }
+        }
+    }
+
+    private int slot(long start) {
+        return (int) Math.floorMod(Math.floorDiv(start, step), (long) starts.length);
+    }
+}
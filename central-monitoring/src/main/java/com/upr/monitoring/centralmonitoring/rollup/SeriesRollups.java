@@ -0,0 +1,94 @@
+package com.upr.monitoring.centralmonitoring.rollup;
+
+import java.util.Map;
+
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+
+/**
+ * Rollup buckets of one series at every resolution
+ */
+final class SeriesRollups {
+
+    private final Map<String, String> labels;
+
+    private final RollupRing[] rings;
+
+    private final long[] published;
+
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    SeriesRollups(Map<String, String> labels, int[] capacities) {
+        this.labels = labels;
+        RollupResolution[] resolutions = RollupResolution.values();
+        this.rings = new RollupRing[resolutions.length];
+        this.published = new long[resolutions.length];
+        for (RollupResolution resolution : resolutions) {
+            rings[resolution.ordinal()] = new RollupRing(resolution.getStepMillis(), capacities[resolution.ordinal()]);
+            published[resolution.ordinal()] = -1;
+        }
+    }
+
+    Map<String, String> labels() {
+        return labels;
+    }
+
+    synchronized long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * Adds the samples of a series that are newer than the last one added
+     * @param series The series to take the samples from
+     */
+    synchronized void add(MetricSeries series) {
+        for (int i = 0; i < series.size(); i++) {
+            long timestamp = series.getTimestamp(i);
+            if (timestamp <= lastTimestamp) {
+                continue;
+            }
+            lastTimestamp = timestamp;
+            double value = series.getValue(i);
+            if (Double.isNaN(value)) {
+                continue;
+            }
+            for (RollupRing ring : rings) {
+                ring.add(timestamp, value);
+            }
+        }
+    }
+
+    /**
+     * Visits the buckets of a resolution in a time window
+     * @param resolution The resolution
+     * @param from Earliest bucket start in epoch milliseconds, inclusive
+     * @param to Latest bucket start in epoch milliseconds, inclusive
+     * @param consumer Receives each bucket that holds samples
+     */
+    synchronized void forEach(RollupResolution resolution, long from, long to, RollupRing.BucketConsumer consumer) {
+        rings[resolution.ordinal()].forEach(from, to, consumer);
+    }
+
+    /**
+     * Visits the buckets that completed since the previous call and marks them as published.
+     * A bucket is complete once a later sample arrived or the grace period after its end has passed.
+     * @param resolution The resolution
+     * @param now The current time in epoch milliseconds
+     * @param grace How long to wait for late samples after a bucket ended
+     * @param consumer Receives each completed bucket that holds samples
+     */
+    synchronized void drainCompleted(RollupResolution resolution, long now, long grace,
+                                     RollupRing.BucketConsumer consumer) {
+        RollupRing ring = rings[resolution.ordinal()];
+        if (lastTimestamp == Long.MIN_VALUE) {
+            return;
+        }
+        long limit = Math.max(ring.bucketStart(lastTimestamp), ring.bucketStart(now - grace));
+        long last = published[resolution.ordinal()];
+        long from = last < 0 ? 0 : last + ring.step();
+        if (from >= limit) {
+            return;
+        }
+        ring.forEach(from, limit - 1, consumer);
+        published[resolution.ordinal()] = limit - ring.step();
+    }
+}
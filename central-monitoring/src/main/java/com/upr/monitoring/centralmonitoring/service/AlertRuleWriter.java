@@ -0,0 +1,251 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.regex.Pattern;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.upr.monitoring.centralmonitoring.alert.AlertEvaluator;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Writes the Thanos rule file of each application.
+ * <p>
+ * Changes to the file of one application are serialized by a lock striped on
+ * the application ID, so concurrent appends never lose each other's rules,
+ * while different applications are written in parallel. A file is replaced by
+ * writing a temporary file next to it and renaming it over the old one, so the
+ * ruler never reads a half-written file. Every change requests a reload from
+ * {@link RuleReloadScheduler}, which folds bursts into one reload, and hands
+ * the new rules of the application to the in-process {@link AlertEvaluator}.
+ */
+@Slf4j
+@Service
+public class AlertRuleWriter {
+
+    // Application IDs become file names, so nothing that could leave the rules directory
+    private static final Pattern VALID_APPLICATION_ID = Pattern.compile("[A-Za-z0-9][A-Za-z0-9._-]{0,252}");
+
+    private static final String RULE_FILE_SUFFIX = ".yaml";
+
+    private static final Set<PosixFilePermission> DEFAULT_PERMISSIONS = PosixFilePermissions.fromString("rw-r--r--");
+
+    private final ObjectMapper yamlMapper = new ObjectMapper(new YAMLFactory());
+
+    private final RuleReloadScheduler reloadScheduler;
+
+    private final AlertEvaluator alertEvaluator;
+
+    private final Path directory;
+
+    private final ReentrantLock[] locks;
+
+    public AlertRuleWriter(RuleReloadScheduler reloadScheduler, AlertEvaluator alertEvaluator,
+                           @Value("${alerts.rules.directory:./resources/}") String directory,
+                           @Value("${alerts.rules.lock-stripes:64}") int lockStripes) {
+        if (lockStripes <= 0) {
+            throw new IllegalArgumentException("alerts.rules.lock-stripes must be positive");
+        }
+        this.reloadScheduler = reloadScheduler;
+        this.alertEvaluator = alertEvaluator;
+        this.directory = Path.of(directory);
+        this.locks = new ReentrantLock[lockStripes];
+        for (int i = 0; i < lockStripes; i++) {
+            locks[i] = new ReentrantLock();
+        }
+    }
+
+    /**
+     * Replaces the rule file of an application with a single group holding the given rules
+     * @param applicationId The application ID, also the group name
+     * @param rules The rules of the group
+     * @return The path of the rule file
+     */
+    public Path create(String applicationId, List<Map<String, Object>> rules) throws IOException {
+        Path file = ruleFile(applicationId);
+        Map<String, Object> group = new LinkedHashMap<>();
+        group.put("name", applicationId);
+        group.put("rules", rules);
+        Map<String, Object> ruleFile = new LinkedHashMap<>();
+        ruleFile.put("groups", List.of(group));
+
+        ReentrantLock lock = lockFor(applicationId);
+        lock.lock();
+        try {
+            write(file, ruleFile);
+            alertEvaluator.setRules(applicationId, rules);
+        } finally {
+            lock.unlock();
+        }
+        reloadScheduler.requestReload();
+        return file;
+    }
+
+    /**
+     * Appends rules to the group of an application, creating the group if the file has none
+     * @param applicationId The application ID, also the group name
+     * @param rules The rules to append
+     * @return The path of the rule file
+     * @throws NoSuchFileException If the application has no rule file yet
+     */
+    @SuppressWarnings("unchecked")
+    public Path append(String applicationId, List<Map<String, Object>> rules) throws IOException {
+        Path file = ruleFile(applicationId);
+        ReentrantLock lock = lockFor(applicationId);
+        lock.lock();
+        try {
+            if (!Files.exists(file)) {
+                throw new NoSuchFileException(file.toString(), null,
+                        "Rule file does not exist for applicationId: " + applicationId);
+            }
+            Map<String, Object> existingYaml = yamlMapper.readValue(file.toFile(), Map.class);
+            List<Map<String, Object>> groups = (List<Map<String, Object>>) existingYaml.get("groups");
+            if (groups == null) {
+                groups = new ArrayList<>();
+                existingYaml.put("groups", groups);
+            }
+
+            Map<String, Object> targetGroup = null;
+            for (Map<String, Object> group : groups) {
+                if (applicationId.equals(group.get("name"))) {
+                    targetGroup = group;
+                    break;
+                }
+            }
+            if (targetGroup == null) {
+                targetGroup = new LinkedHashMap<>();
+                targetGroup.put("name", applicationId);
+                targetGroup.put("rules", new ArrayList<>());
+                groups.add(targetGroup);
+            }
+
+            List<Map<String, Object>> existingRules = (List<Map<String, Object>>) targetGroup.get("rules");
+            if (existingRules == null) {
+                existingRules = new ArrayList<>();
+                targetGroup.put("rules", existingRules);
+            }
+            existingRules.addAll(rules);
+
+            write(file, existingYaml);
+            alertEvaluator.setRules(applicationId, existingRules);
+        } finally {
+            lock.unlock();
+        }
+        reloadScheduler.requestReload();
+        return file;
+    }
+
+    /**
+     * Hands the rules already on disk to the in-process evaluator, which keeps them only in memory
+     */
+    @PostConstruct
+    public void loadRules() {
+        if (!alertEvaluator.isEnabled() || !Files.isDirectory(directory)) {
+            return;
+        }
+        int applications = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + RULE_FILE_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                String applicationId = name.substring(0, name.length() - RULE_FILE_SUFFIX.length());
+                if (!VALID_APPLICATION_ID.matcher(applicationId).matches()) {
+                    continue;
+                }
+                try {
+                    alertEvaluator.setRules(applicationId, readGroupRules(file, applicationId));
+                    applications++;
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Skipping unreadable rule file {}: {}", file, e.getMessage());
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to list rule files in {}: {}", directory, e.getMessage());
+        }
+        log.info("Loaded alert rules of {} applications from {}", applications, directory);
+    }
+
+    /**
+     * @param applicationId The application ID
+     * @return The path of the rule file of the application
+     * @throws IllegalArgumentException If the ID is not usable as a file name
+     */
+    public Path ruleFile(String applicationId) {
+        if (applicationId == null || !VALID_APPLICATION_ID.matcher(applicationId).matches()) {
+            throw new IllegalArgumentException("Invalid applicationId: " + applicationId);
+        }
+        return directory.resolve(applicationId + RULE_FILE_SUFFIX);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> readGroupRules(Path file, String applicationId) throws IOException {
+        Map<String, Object> yaml = yamlMapper.readValue(file.toFile(), Map.class);
+        List<Map<String, Object>> groups = (List<Map<String, Object>>) yaml.get("groups");
+        if (groups != null) {
+            for (Map<String, Object> group : groups) {
+                if (applicationId.equals(group.get("name")) && group.get("rules") != null) {
+                    return (List<Map<String, Object>>) group.get("rules");
+                }
+            }
+        }
+        return List.of();
+    }
+
+    private ReentrantLock lockFor(String applicationId) {
+        return locks[Math.floorMod(applicationId.hashCode(), locks.length)];
+    }
+
+    private void write(Path file, Object content) throws IOException {
+        Files.createDirectories(directory);
+        // Same directory as the target, so the rename stays on one file system
+        Path tmp = Files.createTempFile(directory, "." + file.getFileName(), ".tmp");
+        try {
+            copyPermissions(file, tmp);
+            try (OutputStream out = Files.newOutputStream(tmp, StandardOpenOption.WRITE)) {
+                yamlMapper.writeValue(out, content);
+            }
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                log.warn("Atomic rename not supported in {}, replacing {} non-atomically", directory, file);
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static void copyPermissions(Path file, Path tmp) throws IOException {
+        // Temporary files are private to the owner, but the ruler may read the rules as another user
+        if (Files.getFileAttributeView(tmp, PosixFileAttributeView.class) == null) {
+            return;
+        }
+        Files.setPosixFilePermissions(tmp,
+                Files.exists(file) ? Files.getPosixFilePermissions(file) : DEFAULT_PERMISSIONS);
+    }
+}
@@ -0,0 +1,209 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.upr.monitoring.centralmonitoring.client.ThanosClient;
+import com.upr.monitoring.centralmonitoring.client.ThanosResilience;
+import com.upr.monitoring.centralmonitoring.client.ThanosResilience.Traffic;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registry of the applications being monitored.
+ * Keeps the registered applications in a concurrent set, a local copy of the
+ * Thanos application_id label values that is refreshed in the background,
+ * and a negative cache of IDs that Thanos does not know. Validating an ID
+ * only reaches Thanos when it is in none of them, and concurrent lookups
+ * share a single label refresh. Fetch intervals set for an application are
+ * kept here with its registration, so they are journaled and replayed with it.
+ */
+@Service
+@Slf4j
+public class ApplicationRegistry {
+
+    /**
+     * Outcome of checking an application ID against the registry
+     */
+    public enum Validation {
+        ALREADY_REGISTERED,
+        KNOWN,
+        UNKNOWN,
+        UNAVAILABLE
+    }
+
+    private record LabelSnapshot(Set<String> appIds, long loadedAt) {
+    }
+
+    private final ThanosClient thanosClient;
+
+    private final Set<String> registered = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, Duration> fetchIntervals = new ConcurrentHashMap<>();
+
+    private final Map<String, Long> negativeCache = new ConcurrentHashMap<>();
+
+    private final List<RegistryChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    private final ReentrantLock refreshLock = new ReentrantLock();
+
+    private volatile LabelSnapshot labelSnapshot;
+
+    private final long minRefreshNanos;
+
+    private final long negativeTtlNanos;
+
+    private final int negativeMaxEntries;
+
+    public ApplicationRegistry(ThanosClient thanosClient,
+                               @Value("${metrics.registry.min-refresh-interval:5s}") Duration minRefreshInterval,
+                               @Value("${metrics.registry.negative-ttl:5m}") Duration negativeTtl,
+                               @Value("${metrics.registry.negative-max-entries:100000}") int negativeMaxEntries) {
+        this.thanosClient = thanosClient;
+        this.minRefreshNanos = minRefreshInterval.toNanos();
+        this.negativeTtlNanos = negativeTtl.toNanos();
+        this.negativeMaxEntries = negativeMaxEntries;
+    }
+
+    /**
+     * Checks whether an application ID can be registered
+     * @param appId The application ID
+     * @return The validation outcome
+     */
+    public Validation validate(String appId) {
+        if (registered.contains(appId)) {
+            return Validation.ALREADY_REGISTERED;
+        }
+        LabelSnapshot snapshot = labelSnapshot;
+        if (snapshot != null && snapshot.appIds().contains(appId)) {
+            return Validation.KNOWN;
+        }
+        Long negativeUntil = negativeCache.get(appId);
+        if (negativeUntil != null) {
+            if (negativeUntil - System.nanoTime() > 0) {
+                return Validation.UNKNOWN;
+            }
+            negativeCache.remove(appId, negativeUntil);
+        }
+
+        snapshot = refreshIfOlderThan(minRefreshNanos);
+        if (snapshot == null) {
+            return Validation.UNAVAILABLE;
+        }
+        if (snapshot.appIds().contains(appId)) {
+            return Validation.KNOWN;
+        }
+        if (negativeCache.size() >= negativeMaxEntries) {
+            negativeCache.clear();
+        }
+        negativeCache.put(appId, System.nanoTime() + negativeTtlNanos);
+        return Validation.UNKNOWN;
+    }
+
+    /**
+     * Registers an application
+     * @param appId The application ID
+     * @return true if the application was not registered before
+     */
+    public boolean register(String appId) {
+        boolean added = registered.add(appId);
+        if (added) {
+            notifyChanged(appId);
+        }
+        return added;
+    }
+
+    /**
+     * Sets how often the metrics of an application are fetched
+     * @param appId The application ID
+     * @param interval The fetch interval, or null for the default interval
+     */
+    public void setFetchInterval(String appId, Duration interval) {
+        Duration previous = interval == null ? fetchIntervals.remove(appId) : fetchIntervals.put(appId, interval);
+        if (!Objects.equals(previous, interval)) {
+            notifyChanged(appId);
+        }
+    }
+
+    /**
+     * @param appId The application ID
+     * @return The fetch interval set for the application, or null if it uses the default interval
+     */
+    public Duration getFetchInterval(String appId) {
+        return fetchIntervals.get(appId);
+    }
+
+    /**
+     * Registers a listener that is notified after every new registration and fetch interval change
+     * @param listener The listener to add
+     */
+    public void addChangeListener(RegistryChangeListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * @param appId The application ID
+     * @return true if the application is registered
+     */
+    public boolean isRegistered(String appId) {
+        return registered.contains(appId);
+    }
+
+    /**
+     * Returns a point-in-time copy of the registered application IDs
+     * @return The registered application IDs
+     */
+    public Set<String> getRegisteredApplicationIds() {
+        return Set.copyOf(registered);
+    }
+
+    private void notifyChanged(String appId) {
+        for (RegistryChangeListener listener : listeners) {
+            listener.onApplicationChanged(appId);
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${metrics.registry.label-refresh-interval:60s}",
+               initialDelayString = "${metrics.registry.label-refresh-interval:60s}")
+    public void refreshLabelValues() {
+        ThanosResilience.runAs(Traffic.SCHEDULED, () -> refreshIfOlderThan(0));
+    }
+
+    private LabelSnapshot refreshIfOlderThan(long maxAgeNanos) {
+        LabelSnapshot snapshot = labelSnapshot;
+        if (snapshot != null && maxAgeNanos > 0 && System.nanoTime() - snapshot.loadedAt() < maxAgeNanos) {
+            return snapshot;
+        }
+        refreshLock.lock();
+        try {
+            // Another caller may have refreshed while we were waiting for the lock
+            LabelSnapshot current = labelSnapshot;
+            if (current != snapshot) {
+                return current;
+            }
+            Set<String> appIds = Set.copyOf(thanosClient.fetchApplicationIdLabelValues());
+            if (appIds.isEmpty()) {
+                return snapshot;
+            }
+            current = new LabelSnapshot(appIds, System.nanoTime());
+            labelSnapshot = current;
+            negativeCache.keySet().removeIf(appIds::contains);
+            return current;
+        } catch (Exception e) {
+            log.warn("Error refreshing application_id label values from Thanos: {}", e.getMessage());
+            return snapshot;
+        } finally {
+            refreshLock.unlock();
+        }
+    }
+}
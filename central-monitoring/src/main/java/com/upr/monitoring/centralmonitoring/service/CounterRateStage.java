@@ -0,0 +1,205 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.upr.monitoring.centralmonitoring.client.ThanosClient;
+import com.upr.monitoring.centralmonitoring.client.ThanosResilience;
+import com.upr.monitoring.centralmonitoring.client.ThanosResilience.Traffic;
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Converts monotonic counters into per-second rates as series are ingested.
+ * <p>
+ * Only the last sample of every counter series is kept. The rate between two
+ * fetches is the increase divided by the elapsed seconds; when the value drops
+ * the counter was reset and the new value itself is the increase, like
+ * Prometheus' {@code rate()}. Counters are recognised from the metric type in
+ * the Thanos metadata API and, for metrics without metadata, by the
+ * {@code _total}, {@code _count}, {@code _sum} and {@code _bucket} suffixes.
+ * A rate series is named after its counter with {@code _total} removed and
+ * {@code :rate} appended, e.g. {@code container_cpu_usage_seconds:rate}.
+ */
+@Service
+@Slf4j
+public class CounterRateStage {
+
+    /**
+     * What to publish for counters
+     */
+    public enum Mode {
+        /** Raw counters only */
+        OFF,
+        /** Raw counters followed by their rates */
+        ALONGSIDE,
+        /** Rates instead of raw counters */
+        REPLACE
+    }
+
+    private static final String[] COUNTER_SUFFIXES = {"_total", "_count", "_sum", "_bucket"};
+
+    private static final String RATE_SUFFIX = ":rate";
+
+    private record LastSample(long timestamp, double value, Map<String, String> rateLabels) {
+    }
+
+    private final ThanosClient thanosClient;
+
+    private final Map<String, Map<Map<String, String>, LastSample>> lastSamples = new ConcurrentHashMap<>();
+
+    private volatile Map<String, String> metricTypes = Map.of();
+
+    private final Mode mode;
+
+    private final long maxGapMillis;
+
+    public CounterRateStage(ThanosClient thanosClient,
+                            @Value("${metrics.rate.mode:off}") Mode mode,
+                            @Value("${metrics.rate.max-gap:10m}") Duration maxGap) {
+        this.thanosClient = thanosClient;
+        this.mode = mode;
+        this.maxGapMillis = maxGap.toMillis();
+    }
+
+    /**
+     * Computes the rates of the counters in the fetched series of an application
+     * @param appId The application ID
+     * @param series The fetched series
+     * @return The series to ingest according to the configured mode
+     */
+    public List<MetricSeries> apply(String appId, List<MetricSeries> series) {
+        if (mode == Mode.OFF || series.isEmpty()) {
+            return series;
+        }
+        Map<Map<String, String>, LastSample> appSamples =
+                lastSamples.computeIfAbsent(appId, id -> new ConcurrentHashMap<>());
+        List<MetricSeries> result = new ArrayList<>(mode == Mode.ALONGSIDE ? series.size() * 2 : series.size());
+        for (MetricSeries s : series) {
+            if (!isCounter(s.getName())) {
+                result.add(s);
+                continue;
+            }
+            if (mode == Mode.ALONGSIDE) {
+                result.add(s);
+            }
+            MetricSeries rate = rate(appSamples, s);
+            if (rate != null) {
+                result.add(rate);
+            }
+        }
+        if (!appSamples.isEmpty()) {
+            // expireIdle may have dropped the map as empty while it was filled
+            lastSamples.putIfAbsent(appId, appSamples);
+        }
+        return result;
+    }
+
+    /**
+     * @param series A series returned by {@link #apply(String, List)}
+     * @return true if the series is a rate added next to its counter, rather than a fetched series
+     */
+    public boolean isAddedRate(MetricSeries series) {
+        return mode == Mode.ALONGSIDE && series.getName() != null && series.getName().endsWith(RATE_SUFFIX);
+    }
+
+    /**
+     * @param metricName The metric name
+     * @return true if the metric is treated as a counter
+     */
+    public boolean isCounter(String metricName) {
+        if (metricName == null) {
+            return false;
+        }
+        String type = metricTypes.get(metricName);
+        if (type != null) {
+            return type.equals("counter");
+        }
+        for (String suffix : COUNTER_SUFFIXES) {
+            if (metricName.endsWith(suffix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Scheduled(fixedDelayString = "${metrics.rate.metadata-refresh-interval:10m}", initialDelayString = "30s")
+    public void refreshMetricTypes() {
+        if (mode == Mode.OFF) {
+            return;
+        }
+        try {
+            Map<String, String> types = ThanosResilience.callAs(Traffic.SCHEDULED, thanosClient::fetchMetricTypes);
+            if (!types.isEmpty()) {
+                metricTypes = Map.copyOf(types);
+            }
+        } catch (Exception e) {
+            log.warn("Error fetching metric metadata from Thanos, detecting counters by suffix: {}", e.getMessage());
+        }
+    }
+
+    /**
+     * Forgets counters that have not been fetched for longer than the maximum gap
+     */
+    @Scheduled(fixedDelayString = "${metrics.rate.max-gap:10m}")
+    public void expireIdle() {
+        long cutoff = System.currentTimeMillis() - maxGapMillis;
+        for (String appId : lastSamples.keySet()) {
+            lastSamples.computeIfPresent(appId, (id, samples) -> {
+                samples.values().removeIf(last -> last.timestamp() < cutoff);
+                return samples.isEmpty() ? null : samples;
+            });
+        }
+    }
+
+    private MetricSeries rate(Map<Map<String, String>, LastSample> appSamples, MetricSeries series) {
+        long[] timestamps = new long[series.size()];
+        double[] rates = new double[series.size()];
+        int[] count = {0};
+        LastSample updated = appSamples.compute(series.getLabels(), (labels, last) -> {
+            Map<String, String> rateLabels = last != null ? last.rateLabels() : rateLabels(labels);
+            for (int i = 0; i < series.size(); i++) {
+                long timestamp = series.getTimestamp(i);
+                double value = series.getValue(i);
+                if (last != null && timestamp <= last.timestamp()) {
+                    continue;
+                }
+                if (last != null && timestamp - last.timestamp() <= maxGapMillis
+                        && !Double.isNaN(value) && !Double.isNaN(last.value())) {
+                    // A decrease means the counter was reset and counted up from zero since
+                    double increase = value >= last.value() ? value - last.value() : value;
+                    timestamps[count[0]] = timestamp;
+                    rates[count[0]] = increase * 1000.0 / (timestamp - last.timestamp());
+                    count[0]++;
+                }
+                last = new LastSample(timestamp, value, rateLabels);
+            }
+            return last;
+        });
+        if (count[0] == 0) {
+            return null;
+        }
+        int n = count[0];
+        return new MetricSeries(updated.rateLabels(),
+                n == timestamps.length ? timestamps : Arrays.copyOf(timestamps, n),
+                n == rates.length ? rates : Arrays.copyOf(rates, n));
+    }
+
+    private static Map<String, String> rateLabels(Map<String, String> labels) {
+        String name = labels.get("__name__");
+        String base = name.endsWith("_total") ? name.substring(0, name.length() - "_total".length()) : name;
+        Map<String, String> rateLabels = new HashMap<>(labels);
+        rateLabels.put("__name__", (base + RATE_SUFFIX).intern());
+        return Map.copyOf(rateLabels);
+    }
+}
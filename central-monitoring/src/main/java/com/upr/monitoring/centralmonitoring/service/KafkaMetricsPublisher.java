@@ -0,0 +1,215 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.errors.TimeoutException;
+import org.apache.kafka.common.header.internals.RecordHeader;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.kafka.core.KafkaProducerException;
+import org.springframework.kafka.core.KafkaTemplate;
+import org.springframework.stereotype.Service;
+
+import com.upr.monitoring.centralmonitoring.codec.WireFormat;
+import com.upr.monitoring.centralmonitoring.model.KafkaPublishStats;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes metric snapshots to Kafka asynchronously.
+ * Records are keyed by application ID so every application stays ordered
+ * within its partition. The number of unacknowledged records is bounded:
+ * when the broker falls behind, callers on the fetch path block until a
+ * slot frees up, which slows the fetch cycle down instead of buffering
+ * without limit. Acknowledgements and failures are counted per partition.
+ * The configured wire format is announced in a content-type record header.
+ */
+@Service
+@Slf4j
+public class KafkaMetricsPublisher {
+
+    private static final byte[] JSON_CONTENT_TYPE = WireFormat.JSON.getContentType().getBytes(StandardCharsets.UTF_8);
+
+    private static final class PartitionCounters {
+        final LongAdder sent = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder latencyNanos = new LongAdder();
+    }
+
+    private final KafkaTemplate<String, byte[]> kafkaTemplate;
+
+    private final String topic;
+
+    private final WireFormat format;
+
+    private final byte[] contentType;
+
+    private final int maxInFlight;
+
+    private final Semaphore inFlight;
+
+    private final long maxBlockNanos;
+
+    private final Map<String, PartitionCounters> partitions = new ConcurrentHashMap<>();
+
+    private final LongAdder unassignedErrors = new LongAdder();
+
+    private final LongAdder backpressureWaits = new LongAdder();
+
+    private final Timer acknowledged;
+
+    private final Timer failed;
+
+    public KafkaMetricsPublisher(KafkaTemplate<String, byte[]> kafkaTemplate, MeterRegistry meterRegistry,
+                                 @Value("${metrics.publish.kafka.topic:metrics-topic}") String topic,
+                                 @Value("${metrics.publish.kafka.format:json}") WireFormat format,
+                                 @Value("${metrics.publish.kafka.max-in-flight:1000}") int maxInFlight,
+                                 @Value("${metrics.publish.kafka.max-block:30s}") Duration maxBlock) {
+        this.kafkaTemplate = kafkaTemplate;
+        this.topic = topic;
+        this.format = format;
+        this.contentType = format.getContentType().getBytes(StandardCharsets.UTF_8);
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.maxBlockNanos = maxBlock.toNanos();
+        this.acknowledged = publishTimer(meterRegistry, "success");
+        this.failed = publishTimer(meterRegistry, "error");
+        Gauge.builder("metrics.publish.in.flight", inFlight, permits -> maxInFlight - permits.availablePermits())
+                .description("Records sent but not acknowledged yet")
+                .tag("transport", "kafka")
+                .register(meterRegistry);
+        FunctionCounter.builder("metrics.publish.backpressure.waits", backpressureWaits, LongAdder::sum)
+                .description("Sends that had to wait for an in-flight slot")
+                .tag("transport", "kafka")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Sends a metrics payload for an application without waiting for the acknowledgement.
+     * Blocks only while the in-flight limit is reached.
+     * @param appId The application ID, used as record key
+     * @param payload The metrics encoded in {@link #getFormat()}
+     */
+    public void publish(String appId, byte[] payload) {
+        send(topic, appId, payload, contentType);
+    }
+
+    /**
+     * Sends a JSON payload to another topic, sharing the in-flight limit and counters
+     * @param topic The topic to send to
+     * @param key The record key
+     * @param payload The JSON payload
+     */
+    public void publishJson(String topic, String key, byte[] payload) {
+        send(topic, key, payload, JSON_CONTENT_TYPE);
+    }
+
+    private void send(String topic, String key, byte[] payload, byte[] contentType) {
+        acquire();
+        long start = System.nanoTime();
+        int size = payload.length;
+        ProducerRecord<String, byte[]> record = new ProducerRecord<>(topic, null, key, payload,
+                List.of(new RecordHeader(WireFormat.CONTENT_TYPE_HEADER, contentType)));
+        try {
+            kafkaTemplate.send(record).whenComplete((result, error) -> {
+                inFlight.release();
+                long latency = System.nanoTime() - start;
+                (error == null ? acknowledged : failed).record(latency, TimeUnit.NANOSECONDS);
+                if (error != null) {
+                    countError(topic, error);
+                    log.warn("Failed to publish record {} to Kafka topic {}: {}", key, topic, error.getMessage());
+                    return;
+                }
+                PartitionCounters counters = counters(topic, result.getRecordMetadata().partition());
+                counters.sent.increment();
+                counters.bytes.add(size);
+                counters.latencyNanos.add(latency);
+            });
+        } catch (RuntimeException e) {
+            inFlight.release();
+            unassignedErrors.increment();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The format payloads passed to {@link #publish(String, byte[])} must be encoded in
+     */
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return A snapshot of the publisher counters
+     */
+    public KafkaPublishStats getStats() {
+        Map<String, KafkaPublishStats.Partition> snapshot = new TreeMap<>();
+        partitions.forEach((partition, counters) -> {
+            long sent = counters.sent.sum();
+            snapshot.put(partition, KafkaPublishStats.Partition.builder()
+                    .sent(sent)
+                    .errors(counters.errors.sum())
+                    .bytes(counters.bytes.sum())
+                    .averageLatencyMs(sent == 0 ? 0 : counters.latencyNanos.sum() / 1_000_000.0 / sent)
+                    .build());
+        });
+        return KafkaPublishStats.builder()
+                .topic(topic)
+                .inFlight(maxInFlight - inFlight.availablePermits())
+                .backpressureWaits(backpressureWaits.sum())
+                .unassignedErrors(unassignedErrors.sum())
+                .partitions(snapshot)
+                .build();
+    }
+
+    private static Timer publishTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("metrics.publish")
+                .description("Time from sending a payload until the broker acknowledged or rejected it")
+                .tag("transport", "kafka")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private void acquire() {
+        if (inFlight.tryAcquire()) {
+            return;
+        }
+        backpressureWaits.increment();
+        try {
+            if (!inFlight.tryAcquire(maxBlockNanos, TimeUnit.NANOSECONDS)) {
+                throw new TimeoutException("Kafka publisher has " + maxInFlight + " unacknowledged records");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for Kafka publisher capacity", e);
+        }
+    }
+
+    private void countError(String topic, Throwable error) {
+        if (error instanceof KafkaProducerException producerException
+                && producerException.getFailedProducerRecord() != null
+                && producerException.getFailedProducerRecord().partition() != null) {
+            counters(topic, producerException.getFailedProducerRecord().partition()).errors.increment();
+        } else {
+            unassignedErrors.increment();
+        }
+    }
+
+    private PartitionCounters counters(String topic, int partition) {
+        return partitions.computeIfAbsent(topic + "-" + partition, p -> new PartitionCounters());
+    }
+}
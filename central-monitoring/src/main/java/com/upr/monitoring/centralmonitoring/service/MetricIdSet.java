@@ -0,0 +1,72 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Immutable bitset of metric IDs. Every update returns a new instance, so a
+ * reference read from a concurrent map is always a consistent snapshot.
+ */
+final class MetricIdSet {
+
+    static final MetricIdSet EMPTY = new MetricIdSet(new long[0], 0);
+
+    private final long[] words;
+
+    private final int size;
+
+    private MetricIdSet(long[] words, int size) {
+        this.words = words;
+        this.size = size;
+    }
+
+    boolean contains(int id) {
+        int word = id >>> 6;
+        return word < words.length && (words[word] & (1L << id)) != 0;
+    }
+
+    MetricIdSet with(int id) {
+        if (contains(id)) {
+            return this;
+        }
+        int word = id >>> 6;
+        long[] copy = Arrays.copyOf(words, Math.max(words.length, word + 1));
+        copy[word] |= 1L << id;
+        return new MetricIdSet(copy, size + 1);
+    }
+
+    MetricIdSet without(int id) {
+        if (!contains(id)) {
+            return this;
+        }
+        long[] copy = words.clone();
+        copy[id >>> 6] &= ~(1L << id);
+        int length = copy.length;
+        while (length > 0 && copy[length - 1] == 0) {
+            length--;
+        }
+        return new MetricIdSet(length == copy.length ? copy : Arrays.copyOf(copy, length), size - 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param consumer Receives every ID in ascending order
+     */
+    void forEach(IntConsumer consumer) {
+        for (int w = 0; w < words.length; w++) {
+            long word = words[w];
+            while (word != 0) {
+                int bit = Long.numberOfTrailingZeros(word);
+                consumer.accept((w << 6) + bit);
+                word &= word - 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Global dictionary that interns metric names and assigns each a small dense integer ID.
+ * Lookups in both directions are lock-free; only assigning a new ID takes a lock.
+ */
+class MetricNameDictionary {
+
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private volatile String[] names = new String[64];
+
+    /**
+     * Returns the ID of a metric name, assigning a new one if the name is not known yet
+     * @param name The metric name
+     * @return The dense ID of the name
+     */
+    int idOf(String name) {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+        lock.lock();
+        try {
+            id = ids.get(name);
+            if (id != null) {
+                return id;
+            }
+            int newId = ids.size();
+            String[] current = names;
+            if (newId == current.length) {
+                current = Arrays.copyOf(current, current.length * 2);
+            }
+            current[newId] = name.intern();
+            // Publish the name before the ID so readers never see an ID without its name
+            names = current;
+            ids.put(current[newId], newId);
+            return newId;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the ID of a metric name without assigning one
+     * @param name The metric name
+     * @return The ID, or -1 if the name was never interned
+     */
+    int existingIdOf(String name) {
+        Integer id = ids.get(name);
+        return id != null ? id : -1;
+    }
+
+    /**
+     * @param id A metric ID returned by {@link #idOf(String)}
+     * @return The interned metric name
+     */
+    String nameOf(int id) {
+        return names[id];
+    }
+}
@@ -0,0 +1,81 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.upr.monitoring.centralmonitoring.client.ThanosClient;
+import com.upr.monitoring.centralmonitoring.client.ThanosResilience;
+import com.upr.monitoring.centralmonitoring.client.ThanosResilience.Traffic;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Cached index of the metric names that exist in Thanos for each application.
+ * An application is discovered with one query instead of one probe per metric,
+ * and all indexed applications are refreshed periodically in batches.
+ */
+@Service
+@Slf4j
+public class MetricNameIndex {
+
+    private record Entry(Set<String> names, long refreshedAt) {
+    }
+
+    private final ThanosClient thanosClient;
+
+    private final Map<String, Entry> index = new ConcurrentHashMap<>();
+
+    private final long maxAgeNanos;
+
+    public MetricNameIndex(ThanosClient thanosClient,
+                           @Value("${metrics.discovery.refresh-interval:10m}") Duration refreshInterval) {
+        this.thanosClient = thanosClient;
+        this.maxAgeNanos = refreshInterval.toNanos();
+    }
+
+    /**
+     * Returns the metric names of an application, querying Thanos only when
+     * the application is not indexed yet or its entry is older than the refresh interval
+     * @param appId The application ID
+     * @return The metric names that exist for the application
+     */
+    public Set<String> getMetricNames(String appId) {
+        Entry entry = index.get(appId);
+        if (entry != null && System.nanoTime() - entry.refreshedAt() < maxAgeNanos) {
+            return entry.names();
+        }
+        Set<String> names = Set.copyOf(thanosClient.fetchMetricNamesByApplication(List.of(appId)).get(appId));
+        index.put(appId, new Entry(names, System.nanoTime()));
+        return names;
+    }
+
+    @Scheduled(fixedDelayString = "${metrics.discovery.refresh-interval:10m}",
+               initialDelayString = "${metrics.discovery.refresh-interval:10m}")
+    public void refreshAll() {
+        if (index.isEmpty()) {
+            return;
+        }
+        Map<String, List<String>> appIds = new LinkedHashMap<>();
+        index.keySet().forEach(appId -> appIds.put(appId, List.of()));
+
+        for (Map<String, List<String>> batch : thanosClient.planBatches(appIds)) {
+            try {
+                long now = System.nanoTime();
+                ThanosResilience.callAs(Traffic.SCHEDULED,
+                                () -> thanosClient.fetchMetricNamesByApplication(batch.keySet()))
+                        .forEach((appId, names) -> index.computeIfPresent(appId,
+                                (id, old) -> new Entry(Set.copyOf(names), now)));
+            } catch (Exception e) {
+                log.warn("Error refreshing metric names for {} applications: {}", batch.size(), e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.BiConsumer;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.upr.monitoring.centralmonitoring.client.ThanosClient;
+import com.upr.monitoring.centralmonitoring.client.ThanosResilience;
+import com.upr.monitoring.centralmonitoring.client.ThanosResilience.Traffic;
+import com.upr.monitoring.centralmonitoring.model.MetricsResponseDto;
+import com.upr.monitoring.centralmonitoring.model.ThanosQueryResult;
+
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Fetches the metrics of the applications that are due together concurrently.
+ * Every application is fetched on its own virtual thread, bounded by a
+ * configurable concurrency cap, so they take as long as the slowest
+ * application rather than the sum of all of them.
+ * When batching is enabled, applications with stored metrics are grouped into
+ * multi-application Thanos queries and each batch runs as one task.
+ */
+@Service
+@Slf4j
+public class MetricsFetchEngine {
+
+    private final MetricsService metricsService;
+
+    private final MetricsStorageService metricsStorageService;
+
+    private final ThanosClient thanosClient;
+
+    private final boolean batchingEnabled;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final Semaphore permits;
+
+    public MetricsFetchEngine(MetricsService metricsService, MetricsStorageService metricsStorageService,
+                              ThanosClient thanosClient,
+                              @Value("${metrics.fetch.max-concurrency:64}") int maxConcurrency,
+                              @Value("${thanos.batch.enabled:true}") boolean batchingEnabled) {
+        if (maxConcurrency < 1) {
+            throw new IllegalArgumentException("metrics.fetch.max-concurrency must be at least 1");
+        }
+        this.metricsService = metricsService;
+        this.metricsStorageService = metricsStorageService;
+        this.thanosClient = thanosClient;
+        this.batchingEnabled = batchingEnabled;
+        this.permits = new Semaphore(maxConcurrency);
+    }
+
+    /**
+     * Result of fetching and publishing the metrics of one application
+     */
+    public enum Outcome {
+        SUCCEEDED,
+        /** Thanos answered, but without any series */
+        EMPTY,
+        FAILED
+    }
+
+    /**
+     * Starts fetching and publishing the metrics of the given applications without waiting for them.
+     * Applications with stored metric names are fetched in batched queries, the others one by one.
+     * A failure for one application is logged and reported but never affects the others.
+     * @param appIds The application IDs to fetch
+     * @param listener Called once per application when its fetch has finished, on the fetching thread
+     * @return The submitted tasks
+     */
+    public List<Future<?>> submit(Collection<String> appIds, BiConsumer<String, Outcome> listener) {
+        List<Future<?>> tasks = new ArrayList<>();
+        Map<String, List<String>> batchable = new LinkedHashMap<>();
+        for (String appId : appIds) {
+            List<String> storedMetrics = batchingEnabled ? metricsStorageService.getMetrics(appId) : null;
+            if (storedMetrics != null && !storedMetrics.isEmpty()) {
+                batchable.put(appId, List.copyOf(storedMetrics));
+            } else {
+                tasks.add(executor.submit(() -> ThanosResilience.runAs(Traffic.SCHEDULED,
+                        () -> fetchApplication(appId, listener))));
+            }
+        }
+        if (!batchable.isEmpty()) {
+            for (Map<String, List<String>> batch : thanosClient.planBatches(batchable)) {
+                tasks.add(executor.submit(() -> ThanosResilience.runAs(Traffic.SCHEDULED,
+                        () -> fetchBatch(batch, listener))));
+            }
+        }
+        return tasks;
+    }
+
+    private void fetchApplication(String appId, BiConsumer<String, Outcome> listener) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            listener.accept(appId, Outcome.FAILED);
+            return;
+        }
+        try {
+            fetchSingle(appId, listener);
+        } finally {
+            permits.release();
+        }
+    }
+
+    private void fetchBatch(Map<String, List<String>> batch, BiConsumer<String, Outcome> listener) {
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            batch.keySet().forEach(appId -> listener.accept(appId, Outcome.FAILED));
+            return;
+        }
+        Map<String, ThanosQueryResult> responses = null;
+        try {
+            responses = thanosClient.fetchSpecificMetricsBatch(batch);
+            for (String appId : batch.keySet()) {
+                ThanosQueryResult response = responses.get(appId);
+                Outcome outcome;
+                try {
+                    outcome = outcome(metricsService.publishThanosResponse(appId, batch.get(appId), response));
+                } catch (Exception e) {
+                    outcome = Outcome.FAILED;
+                    log.warn("Error publishing metrics for application {}: {}", appId, e.getMessage());
+                }
+                listener.accept(appId, outcome);
+            }
+        } catch (Exception e) {
+            log.warn("Batch query for {} applications failed, retrying individually: {}",
+                    batch.size(), e.getMessage());
+        } finally {
+            permits.release();
+        }
+        if (responses == null) {
+            // Fall back to one query per application so failures stay isolated. The batch's permit is
+            // released first, the applications are fetched concurrently, each under its own permit.
+            List<Future<?>> tasks = new ArrayList<>(batch.size());
+            for (String appId : batch.keySet()) {
+                tasks.add(executor.submit(() -> ThanosResilience.runAs(Traffic.SCHEDULED,
+                        () -> fetchApplication(appId, listener))));
+            }
+            // Waited for, so the batch task still finishes together with its applications
+            await(tasks);
+        }
+    }
+
+    private void fetchSingle(String appId, BiConsumer<String, Outcome> listener) {
+        Outcome outcome;
+        try {
+            outcome = outcome(metricsService.refreshMetricsForApplication(appId));
+        } catch (Exception e) {
+            outcome = Outcome.FAILED;
+            log.warn("Error fetching metrics for application {}: {}", appId, e.getMessage());
+        }
+        listener.accept(appId, outcome);
+    }
+
+    /**
+     * Decides on the series Thanos returned, before the rate stage. A first fetch of counters
+     * alone publishes no rates yet, but is not empty.
+     */
+    private static Outcome outcome(MetricsResponseDto dto) {
+        return Integer.valueOf(0).equals(dto.getMetrics().get("total_count")) ? Outcome.EMPTY : Outcome.SUCCEEDED;
+    }
+
+    private static void await(List<Future<?>> tasks) {
+        for (Future<?> task : tasks) {
+            try {
+                task.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                tasks.forEach(t -> t.cancel(true));
+                break;
+            } catch (ExecutionException e) {
+                // The tasks never throw, failures are already counted
+            }
+        }
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,253 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.convert.DurationStyle;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upr.monitoring.centralmonitoring.client.ThanosClient;
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+import com.upr.monitoring.centralmonitoring.model.ThanosQueryResult;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Serves range queries as newline-delimited JSON.
+ * <p>
+ * Each series is written as one line as soon as it is parsed from the Thanos
+ * response, followed by a final status line. Pages are limited to a number of
+ * series; the status line then carries a cursor that identifies the last
+ * series written. Thanos returns range results sorted by labels, so the next
+ * page skips every series up to the cursor while parsing, without buffering.
+ */
+@Service
+@Slf4j
+public class MetricsRangeService {
+
+    /**
+     * A validated range query
+     * @param appId The application ID
+     * @param start Start of the range
+     * @param end End of the range
+     * @param step Resolution of the returned samples
+     * @param after Sort key of the last series of the previous page, or null for the first page
+     * @param limit Maximum number of series to return
+     */
+    public record RangeRequest(String appId, Instant start, Instant end, Duration step, byte[] after, int limit) {
+    }
+
+    private final ThanosClient thanosClient;
+
+    private final MetricsStorageService metricsStorageService;
+
+    private final ObjectMapper objectMapper;
+
+    private final int maxPoints;
+
+    private final int maxPageSize;
+
+    public MetricsRangeService(ThanosClient thanosClient, MetricsStorageService metricsStorageService,
+                               ObjectMapper objectMapper,
+                               @Value("${metrics.range.max-points:11000}") int maxPoints,
+                               @Value("${metrics.range.max-page-size:10000}") int maxPageSize) {
+        this.thanosClient = thanosClient;
+        this.metricsStorageService = metricsStorageService;
+        this.objectMapper = objectMapper;
+        this.maxPoints = maxPoints;
+        this.maxPageSize = maxPageSize;
+    }
+
+    /**
+     * Parses and validates the parameters of a range query
+     * @param appId The application ID
+     * @param start Start as RFC 3339 or epoch seconds, defaults to one hour before the end
+     * @param end End as RFC 3339 or epoch seconds, defaults to now
+     * @param step Step as a duration such as {@code 30s} or in seconds, defaults to 60 seconds
+     * @param cursor The cursor returned with the previous page, or null
+     * @param limit Maximum number of series to return
+     * @return The validated request
+     * @throws IllegalArgumentException If a parameter is invalid
+     */
+    public RangeRequest parseRequest(String appId, String start, String end, String step, String cursor, int limit) {
+        Instant endTime = end != null ? parseTime("end", end) : Instant.now();
+        Instant startTime = start != null ? parseTime("start", start) : endTime.minus(Duration.ofHours(1));
+        Duration stepDuration = step != null ? parseStep(step) : Duration.ofSeconds(60);
+        if (!endTime.isAfter(startTime)) {
+            throw new IllegalArgumentException("end must be after start");
+        }
+        if (stepDuration.toMillis() <= 0) {
+            throw new IllegalArgumentException("step must be positive");
+        }
+        if (Duration.between(startTime, endTime).toMillis() / stepDuration.toMillis() >= maxPoints) {
+            throw new IllegalArgumentException("Range too large for step, at most " + maxPoints + " samples per series");
+        }
+        if (limit < 1 || limit > maxPageSize) {
+            throw new IllegalArgumentException("limit must be between 1 and " + maxPageSize);
+        }
+        byte[] after = null;
+        if (cursor != null && !cursor.isEmpty()) {
+            try {
+                after = Base64.getUrlDecoder().decode(cursor);
+            } catch (IllegalArgumentException e) {
+                throw new IllegalArgumentException("Invalid cursor");
+            }
+        }
+        return new RangeRequest(appId, startTime, endTime, stepDuration, after, limit);
+    }
+
+    /**
+     * Streams one page of a range query as NDJSON. Failures after the first
+     * line are reported in the status line.
+     * @param request The validated request
+     * @param out The response body
+     * @throws IOException If writing to the client fails
+     */
+    public void stream(RangeRequest request, OutputStream out) throws IOException {
+        List<String> metricNames = metricsStorageService.getMetrics(request.appId());
+        try (JsonGenerator generator = objectMapper.getFactory().createGenerator(out)) {
+            generator.setRootValueSeparator(null);
+            int[] written = {0};
+            byte[][] last = {null};
+            boolean[] more = {false};
+            // Set once the status line is due; a reader still running after a timeout must not write any more
+            boolean[] finished = {false};
+
+            ThanosQueryResult result;
+            try {
+                result = thanosClient.streamRange(request.appId(), metricNames == null ? List.of() : metricNames,
+                        request.start(), request.end(), request.step(), series -> {
+                            byte[] key = sortKey(series.getLabels());
+                            if (request.after() != null && Arrays.compareUnsigned(key, request.after()) <= 0) {
+                                return true;
+                            }
+                            synchronized (generator) {
+                                if (finished[0]) {
+                                    return false;
+                                }
+                                if (written[0] == request.limit()) {
+                                    more[0] = true;
+                                    return false;
+                                }
+                                writeSeries(generator, series);
+                                written[0]++;
+                                last[0] = key;
+                            }
+                            return true;
+                        });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            } catch (RuntimeException e) {
+                log.warn("Range query for application {} failed: {}", request.appId(), e.getMessage());
+                synchronized (generator) {
+                    finished[0] = true;
+                    writeStatus(generator, "error", e.getMessage(), written[0], null);
+                }
+                return;
+            }
+
+            synchronized (generator) {
+                finished[0] = true;
+                if (!result.isSuccess()) {
+                    writeStatus(generator, "error", result.getError(), written[0], null);
+                    return;
+                }
+                String nextCursor = more[0] ? Base64.getUrlEncoder().withoutPadding().encodeToString(last[0]) : null;
+                writeStatus(generator, "success", null, written[0], nextCursor);
+            }
+        }
+    }
+
+    private static void writeSeries(JsonGenerator generator, MetricSeries series) {
+        try {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("metric");
+            for (Map.Entry<String, String> label : series.getLabels().entrySet()) {
+                generator.writeStringField(label.getKey(), label.getValue());
+            }
+            generator.writeEndObject();
+            generator.writeArrayFieldStart("values");
+            for (int i = 0; i < series.size(); i++) {
+                // Same representation as Thanos: seconds as a number, value as a string
+                generator.writeStartArray();
+                generator.writeNumber(BigDecimal.valueOf(series.getTimestamp(i), 3));
+                generator.writeString(MetricSeries.formatValue(series.getValue(i)));
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+        } catch (IOException e) {
+            // The client went away, stop reading from Thanos as well
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeStatus(JsonGenerator generator, String status, String error, int returned,
+                                    String nextCursor) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("status", status);
+        if (error != null) {
+            generator.writeStringField("error", error);
+        }
+        generator.writeNumberField("returned_count", returned);
+        generator.writeStringField("next_cursor", nextCursor);
+        generator.writeEndObject();
+        generator.writeRaw('\n');
+    }
+
+    /**
+     * Encodes a label set so that unsigned byte order matches the label order Thanos sorts results by:
+     * label pairs sorted by name, compared name first, then value
+     */
+    static byte[] sortKey(Map<String, String> labels) {
+        ByteArrayOutputStream key = new ByteArrayOutputStream(128);
+        for (Map.Entry<String, String> label : new TreeMap<>(labels).entrySet()) {
+            key.writeBytes(label.getKey().getBytes(StandardCharsets.UTF_8));
+            key.write(0);
+            key.writeBytes(label.getValue().getBytes(StandardCharsets.UTF_8));
+            key.write(0);
+        }
+        return key.toByteArray();
+    }
+
+    private static Instant parseTime(String name, String value) {
+        try {
+            BigDecimal seconds = new BigDecimal(value);
+            return Instant.ofEpochMilli(seconds.movePointRight(3).longValue());
+        } catch (NumberFormatException e) {
+            try {
+                return Instant.parse(value);
+            } catch (DateTimeParseException ex) {
+                throw new IllegalArgumentException("Invalid " + name + " time: " + value);
+            }
+        }
+    }
+
+    private static Duration parseStep(String value) {
+        try {
+            return Duration.ofMillis(new BigDecimal(value).movePointRight(3).longValue());
+        } catch (NumberFormatException e) {
+            try {
+                return DurationStyle.detectAndParse(value);
+            } catch (IllegalArgumentException ex) {
+                throw new IllegalArgumentException("Invalid step: " + value);
+            }
+        }
+    }
+}
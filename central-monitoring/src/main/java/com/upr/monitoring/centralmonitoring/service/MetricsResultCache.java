@@ -0,0 +1,120 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.upr.monitoring.centralmonitoring.model.MetricsResponseDto;
+
+/**
+ * TTL cache of the latest metrics snapshot per application and metric set.
+ * Concurrent loads of the same key are coalesced into a single in-flight
+ * Thanos query whose result is shared by every waiting caller.
+ */
+@Service
+public class MetricsResultCache {
+
+    private record Key(String appId, Set<String> metrics) {
+    }
+
+    private record Entry(MetricsResponseDto value, long expiresAt) {
+    }
+
+    private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Map<Key, CompletableFuture<MetricsResponseDto>> inFlight = new ConcurrentHashMap<>();
+
+    private final long ttlNanos;
+
+    public MetricsResultCache(@Value("${metrics.cache.ttl:60s}") Duration ttl) {
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Returns the cached snapshot if it is still fresh, otherwise loads it once
+     * for all concurrent callers of the same key
+     * @param appId The application ID
+     * @param metrics The metric names the snapshot was fetched for
+     * @param loader Fetches the snapshot from Thanos on a miss
+     * @return The cached or freshly loaded snapshot
+     */
+    public MetricsResponseDto get(String appId, Collection<String> metrics, Supplier<MetricsResponseDto> loader) {
+        Key key = key(appId, metrics);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expiresAt() - System.nanoTime() > 0) {
+            return entry.value();
+        }
+        return load(key, loader);
+    }
+
+    /**
+     * Loads a new snapshot regardless of the cached one, joining a load that
+     * is already in flight for the same key
+     * @param appId The application ID
+     * @param metrics The metric names the snapshot is fetched for
+     * @param loader Fetches the snapshot from Thanos
+     * @return The freshly loaded snapshot
+     */
+    public MetricsResponseDto refresh(String appId, Collection<String> metrics, Supplier<MetricsResponseDto> loader) {
+        return load(key(appId, metrics), loader);
+    }
+
+    /**
+     * Stores a snapshot that was fetched outside of the cache, e.g. by a batch query
+     * @param appId The application ID
+     * @param metrics The metric names the snapshot was fetched for
+     * @param value The snapshot
+     */
+    public void put(String appId, Collection<String> metrics, MetricsResponseDto value) {
+        entries.put(key(appId, metrics), new Entry(value, System.nanoTime() + ttlNanos));
+    }
+
+    @Scheduled(fixedDelayString = "${metrics.cache.ttl:60s}")
+    public void evictExpired() {
+        long now = System.nanoTime();
+        entries.values().removeIf(entry -> entry.expiresAt() - now <= 0);
+    }
+
+    private MetricsResponseDto load(Key key, Supplier<MetricsResponseDto> loader) {
+        CompletableFuture<MetricsResponseDto> future = new CompletableFuture<>();
+        CompletableFuture<MetricsResponseDto> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            MetricsResponseDto value = loader.get();
+            entries.put(key, new Entry(value, System.nanoTime() + ttlNanos));
+            future.complete(value);
+            return value;
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private static MetricsResponseDto join(CompletableFuture<MetricsResponseDto> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    private static Key key(String appId, Collection<String> metrics) {
+        return new Key(appId, metrics == null ? Set.of() : Set.copyOf(metrics));
+    }
+}
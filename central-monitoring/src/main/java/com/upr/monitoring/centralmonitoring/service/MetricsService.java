@@ -1,20 +1,39 @@
 package com.upr.monitoring.centralmonitoring.service;
 
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
-import org.springframework.amqp.rabbit.core.RabbitTemplate;
 import org.springframework.http.ResponseEntity;
-import org.springframework.kafka.core.KafkaTemplate;
 import org.springframework.stereotype.Service;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upr.monitoring.centralmonitoring.alert.AlertEvaluator;
 import com.upr.monitoring.centralmonitoring.client.ThanosClient;
+import com.upr.monitoring.centralmonitoring.codec.BinaryMetricsCodec;
+import com.upr.monitoring.centralmonitoring.codec.MetricsSnapshot;
+import com.upr.monitoring.centralmonitoring.codec.WireFormat;
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
 import com.upr.monitoring.centralmonitoring.model.MetricsResponseDto;
-
+import com.upr.monitoring.centralmonitoring.model.RecentMetricsResponse;
+import com.upr.monitoring.centralmonitoring.model.ThanosQueryResult;
+import com.upr.monitoring.centralmonitoring.rollup.RollupEngine;
+import com.upr.monitoring.centralmonitoring.store.RecentSamplesStore;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
 
 @Service
@@ -23,15 +42,29 @@ public class MetricsService {
     
     private ThanosClient thanosClient;
 
-    private RabbitTemplate rabbitTemplate;
+    private RabbitMetricsPublisher rabbitPublisher;
 
-    private KafkaTemplate<String, String> kafkaTemplate;
+    private KafkaMetricsPublisher kafkaPublisher;
 
     private ObjectMapper objectMapper;
 
     private MetricsStorageService metricsStorageService;
 
-    List<String> appIdList = new java.util.ArrayList<>();
+    private MetricsResultCache resultCache;
+
+    private MetricNameIndex metricNameIndex;
+
+    private ApplicationRegistry applicationRegistry;
+
+    private SeriesChangeTracker changeTracker;
+
+    private RecentSamplesStore sampleStore;
+
+    private RollupEngine rollupEngine;
+
+    private CounterRateStage rateStage;
+
+    private AlertEvaluator alertEvaluator;
 
     Map<String, List<String>> appMetricsMap = new java.util.HashMap<>();
 
@@ -75,149 +108,283 @@ public class MetricsService {
         "kube_pod_container_status_restarts_total"
     );
 
-    public MetricsService(ThanosClient thanosClient, RabbitTemplate rabbitTemplate, 
-                         KafkaTemplate<String, String> kafkaTemplate, ObjectMapper objectMapper,
-                         MetricsStorageService metricsStorageService) {
+    private final Map<WireFormat, Timer> serializeTimers = new EnumMap<>(WireFormat.class);
+
+    private final Map<WireFormat, DistributionSummary> serializedBytes = new EnumMap<>(WireFormat.class);
+
+    public MetricsService(ThanosClient thanosClient, RabbitMetricsPublisher rabbitPublisher,
+                         KafkaMetricsPublisher kafkaPublisher, ObjectMapper objectMapper,
+                         MetricsStorageService metricsStorageService, MetricsResultCache resultCache,
+                         MetricNameIndex metricNameIndex, ApplicationRegistry applicationRegistry,
+                         SeriesChangeTracker changeTracker, RecentSamplesStore sampleStore,
+                         RollupEngine rollupEngine, CounterRateStage rateStage, AlertEvaluator alertEvaluator,
+                         MeterRegistry meterRegistry) {
         this.thanosClient = thanosClient;
-        this.rabbitTemplate = rabbitTemplate;
-        this.kafkaTemplate = kafkaTemplate;
+        this.rabbitPublisher = rabbitPublisher;
+        this.kafkaPublisher = kafkaPublisher;
         this.objectMapper = objectMapper;
         this.metricsStorageService = metricsStorageService;
+        this.resultCache = resultCache;
+        this.metricNameIndex = metricNameIndex;
+        this.applicationRegistry = applicationRegistry;
+        this.changeTracker = changeTracker;
+        this.sampleStore = sampleStore;
+        this.rollupEngine = rollupEngine;
+        this.rateStage = rateStage;
+        this.alertEvaluator = alertEvaluator;
+        for (WireFormat format : WireFormat.values()) {
+            String tag = format.name().toLowerCase(Locale.ROOT);
+            serializeTimers.put(format, Timer.builder("metrics.serialize")
+                    .description("Time spent encoding a metrics snapshot")
+                    .tag("format", tag)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+            serializedBytes.put(format, DistributionSummary.builder("metrics.serialize.bytes")
+                    .description("Size of encoded metrics snapshots")
+                    .baseUnit("bytes")
+                    .tag("format", tag)
+                    .publishPercentileHistogram()
+                    .register(meterRegistry));
+        }
     }
 
     /**
-     * Parses the metrics from Thanos response and extracts only the metrics data
-     * @param thanosResponse The complete response from Thanos API
-     * @return List of parsed metric objects containing metric metadata and values
+     * Converts the parsed Thanos series into the metric entries published to consumers
+     * @param thanosResponse The parsed response from Thanos API
+     * @return List of metric objects containing metric metadata and values
      */
-    @SuppressWarnings("unchecked")
-    public List<Map<String, Object>> parseMetricsFromThanosResponse(Map<String, Object> thanosResponse) {
-        List<Map<String, Object>> parsedMetrics = new ArrayList<>();
-        
-        if (thanosResponse == null || !thanosResponse.containsKey("data")) {
-            return parsedMetrics;
+    public List<Map<String, Object>> parseMetricsFromThanosResponse(ThanosQueryResult thanosResponse) {
+        if (thanosResponse == null || thanosResponse.getSeries() == null) {
+            return new ArrayList<>();
         }
-        
-        Map<String, Object> data = (Map<String, Object>) thanosResponse.get("data");
-        if (data == null || !data.containsKey("result")) {
-            return parsedMetrics;
-        }
-        
-        List<Map<String, Object>> results = (List<Map<String, Object>>) data.get("result");
-        if (results == null) {
-            return parsedMetrics;
-        }
-        
-        for (Map<String, Object> result : results) {
+        return toMetricEntries(thanosResponse.getSeries());
+    }
+
+    private List<Map<String, Object>> toMetricEntries(List<MetricSeries> series) {
+        List<Map<String, Object>> parsedMetrics = new ArrayList<>(series.size());
+        for (MetricSeries s : series) {
             Map<String, Object> parsedMetric = new HashMap<>();
-            
-            // Extract metric metadata
-            if (result.containsKey("metric")) {
-                Map<String, Object> metricInfo = (Map<String, Object>) result.get("metric");
-                parsedMetric.put("metric", metricInfo);
-            }
-            
-            // Extract metric value and timestamp
-            if (result.containsKey("value")) {
-                List<Object> value = (List<Object>) result.get("value");
-                if (value != null && value.size() >= 2) {
-                    parsedMetric.put("timestamp", value.get(0));
-                    parsedMetric.put("value", value.get(1));
-                }
-            }
-            
+            parsedMetric.put("metric", s.getLabels());
+            // Keep the Prometheus representation: seconds as a number, value as a string
+            parsedMetric.put("timestamp", s.getLastTimestamp() / 1000.0);
+            parsedMetric.put("value", MetricSeries.formatValue(s.getLastValue()));
             parsedMetrics.add(parsedMetric);
         }
-        
         return parsedMetrics;
     }
 
+    /**
+     * Returns the latest metrics of an application, served from the result cache
+     * while fresh. Concurrent callers for the same application share one Thanos query.
+     * @param appId The application ID
+     * @return The metrics DTO
+     */
     public MetricsResponseDto getMetricsForSpecificApplication(String appId) {
+        List<String> storedMetrics = metricsStorageService.getMetrics(appId);
+        return resultCache.get(appId, storedMetrics, () -> fetchAndPublish(appId, storedMetrics));
+    }
 
+    /**
+     * Fetches and publishes the metrics of an application, bypassing a fresh
+     * cache entry, and refreshes the cache with the result
+     * @param appId The application ID
+     * @return The published metrics DTO
+     */
+    public MetricsResponseDto refreshMetricsForApplication(String appId) {
         List<String> storedMetrics = metricsStorageService.getMetrics(appId);
+        return resultCache.refresh(appId, storedMetrics, () -> fetchAndPublish(appId, storedMetrics));
+    }
+
+    private MetricsResponseDto fetchAndPublish(String appId, List<String> storedMetrics) {
 
         if (storedMetrics == null || storedMetrics.isEmpty()) {
-            Map<String, Object> thanosResponse = thanosClient.fetchMetrics(appId);
+            ThanosQueryResult thanosResponse = thanosClient.fetchMetrics(appId);
         // Validate
-        if (thanosResponse == null || thanosResponse.isEmpty()) {
+        if (thanosResponse == null || thanosResponse.getSeries().isEmpty()) {
             throw new RuntimeException("No metrics found for application ID: " + appId);
         }
         }
 
-        Map<String, Object> thanosResponse = thanosClient.fetchSpecificMetrics(appId, storedMetrics);
+        ThanosQueryResult thanosResponse = thanosClient.fetchSpecificMetrics(appId, storedMetrics);
+
+        return publishThanosResponse(appId, storedMetrics, thanosResponse);
+    }
+
+    /**
+     * Builds the metrics DTO for an application from an already fetched Thanos
+     * response, publishes the changed series to Kafka and RabbitMQ and caches the DTO
+     * @param appId The application the response belongs to
+     * @param metricNames The metric names the response was fetched for
+     * @param thanosResponse The Thanos query response for the application
+     * @return The published metrics DTO
+     */
+    public MetricsResponseDto publishThanosResponse(String appId, List<String> metricNames,
+                                                    ThanosQueryResult thanosResponse) {
 
         // Validate
-        if (thanosResponse == null || thanosResponse.isEmpty()) {
+        if (thanosResponse == null || !thanosResponse.isSuccess()) {
             throw new RuntimeException("No specific metrics found for application ID: " + appId);
         }
 
 
-        // Parse the metrics from Thanos response
-        List<Map<String, Object>> parsedMetrics = parseMetricsFromThanosResponse(thanosResponse);
-        
-        // Limit to the first 10 entries if needed
-        List<Map<String, Object>> limitedMetrics = parsedMetrics.stream()
-                .limit(10)
-                .collect(java.util.stream.Collectors.toList());
-        
-        // Create a map to store the parsed metrics
-        Map<String, Object> metrics = new HashMap<>();
-        metrics.put("metrics", limitedMetrics);
-        metrics.put("total_count", parsedMetrics.size());
-        metrics.put("returned_count", limitedMetrics.size());
-        
+        // Counters are converted to per-second rates before anything else sees them.
+        // The total stays the number of series Thanos returned, whatever rates were added or replaced.
+        int totalCount = thanosResponse.getSeries().size();
+        List<MetricSeries> series = rateStage.apply(appId, thanosResponse.getSeries());
+
+        // Keep every fetched sample so recent windows can be served without Thanos
+        sampleStore.append(appId, series);
+        rollupEngine.record(appId, series);
+        alertEvaluator.evaluate(appId, series);
 
+        // Limit to the first 10 entries if needed, only those are converted
+        List<MetricSeries> publishedSeries = firstSeries(series, 10);
+        Instant collectedAt = Instant.now();
+        LocalDateTime timestamp = LocalDateTime.ofInstant(collectedAt, ZoneId.systemDefault());
 
         // TODO: Refactor Dto
+        List<Map<String, Object>> limitedMetrics = toMetricEntries(publishedSeries);
         MetricsResponseDto dto = MetricsResponseDto.builder()
                 .applicationId(appId)
-                .timestamp(java.time.LocalDateTime.now())
-                .metrics(metrics)
+                .timestamp(timestamp)
+                .metrics(metricsBody(limitedMetrics, totalCount))
                 .build();
-        // TODO: Extract to a separate method -> sendMetrics
-
-        try {
-            String jsonMessage = objectMapper.writeValueAsString(dto);
-            
-            // Send to Kafka
-            kafkaTemplate.send("metrics-topic", jsonMessage);
 
-            // Send to RabbitMQ 
-            rabbitTemplate.convertAndSend("metrics.exchange", "metrics." + appId, jsonMessage);
-        } catch (JsonProcessingException e) {
-            // Log error and handle gracefully
-            System.err.println("Error serializing metrics to JSON: " + e.getMessage());
-            // Optionally, you could send a simplified error message or rethrow as RuntimeException
-            throw new RuntimeException("Failed to serialize metrics data", e);
+        // Only series whose value changed since the previous message are published, plus periodic keyframes
+        SeriesChangeTracker.Delta delta = changeTracker.track(appId, publishedSeries);
+        if (delta.isEmpty()) {
+            log.debug("No series of application {} changed, skipping publish", appId);
+        } else {
+            Map<String, Object> changedMetrics = delta.keyframe()
+                    ? dto.getMetrics()
+                    : metricsBody(toMetricEntries(delta.series()), totalCount);
+            MetricsResponseDto message = MetricsResponseDto.builder()
+                    .applicationId(appId)
+                    .timestamp(timestamp)
+                    .metrics(changedMetrics)
+                    .sequence(delta.sequence())
+                    .keyframe(delta.keyframe())
+                    .build();
+            MetricsSnapshot snapshot = new MetricsSnapshot(appId, collectedAt.toEpochMilli(), delta.sequence(),
+                    delta.keyframe(), totalCount, delta.series());
+            publish(appId, message, snapshot);
         }
 
+        resultCache.put(appId, metricNames, dto);
         return dto;
     }
 
-    public ResponseEntity<String> validateApplicationId(String appId) {
+    /**
+     * Cuts the series to the first fetched ones. Rates added next to their counter
+     * follow it and do not count, so they never push fetched series out.
+     * @param series The series after the rate stage
+     * @param limit The number of fetched series to keep
+     * @return The leading series, with the rates of the kept counters
+     */
+    private List<MetricSeries> firstSeries(List<MetricSeries> series, int limit) {
+        int kept = 0;
+        int end = 0;
+        for (; end < series.size(); end++) {
+            if (!rateStage.isAddedRate(series.get(end))) {
+                if (kept == limit) {
+                    break;
+                }
+                kept++;
+            }
+        }
+        return series.subList(0, end);
+    }
 
-        if (appIdList.contains(appId)) {
-            return ResponseEntity.ok("Application ID is already registered.");
+    /**
+     * Returns the samples of an application fetched within a recent window, from memory
+     * @param appId The application ID
+     * @param window How far back to read
+     * @param metricNames The metric names to return, or an empty list for all
+     * @return The stored series with samples in the window
+     */
+    public RecentMetricsResponse getRecentMetrics(String appId, Duration window, List<String> metricNames) {
+        Instant to = Instant.now();
+        Instant from = to.minus(window);
+        List<RecentMetricsResponse.Series> series = new ArrayList<>();
+        for (MetricSeries s : sampleStore.query(appId, from.toEpochMilli(), to.toEpochMilli(), metricNames)) {
+            List<List<Object>> values = new ArrayList<>(s.size());
+            for (int i = 0; i < s.size(); i++) {
+                values.add(List.of(BigDecimal.valueOf(s.getTimestamp(i), 3), MetricSeries.formatValue(s.getValue(i))));
+            }
+            series.add(RecentMetricsResponse.Series.builder()
+                    .metric(s.getLabels())
+                    .values(values)
+                    .build());
         }
+        return RecentMetricsResponse.builder()
+                .applicationId(appId)
+                .from(from)
+                .to(to)
+                .series(series)
+                .build();
+    }
+
+    private static Map<String, Object> metricsBody(List<Map<String, Object>> entries, int totalCount) {
+        // Create a map to store the parsed metrics
+        Map<String, Object> metrics = new HashMap<>();
+        metrics.put("metrics", entries);
+        metrics.put("total_count", totalCount);
+        metrics.put("returned_count", entries.size());
+        return metrics;
+    }
+
+    private void publish(String appId, MetricsResponseDto message, MetricsSnapshot snapshot) {
+        // Each format is encoded at most once, even when Kafka and RabbitMQ use the same one
+        Map<WireFormat, byte[]> payloads = new EnumMap<>(WireFormat.class);
+
+        // Send to Kafka, keyed by application so each application stays ordered within its partition
+        WireFormat kafkaFormat = kafkaPublisher.getFormat();
+        kafkaPublisher.publish(appId, payloads.computeIfAbsent(kafkaFormat, format -> encode(format, message, snapshot)));
+
+        // Send to RabbitMQ, confirmed asynchronously by the publisher
+        WireFormat rabbitFormat = rabbitPublisher.getFormat();
+        rabbitPublisher.publish(appId, payloads.computeIfAbsent(rabbitFormat, format -> encode(format, message, snapshot)));
+    }
 
-        Map<String, Object> response = thanosClient.fetchApplicationIdLabelValues();
-        if (response != null && response.containsKey("data")) {
-            Object data = response.get("data");
-            if (data instanceof java.util.List) {
-                java.util.List<?> appIds = (java.util.List<?>) data;
-                if (appIds.contains(appId)) {
-                    appIdList.add(appId);
-                    
-                    // Add default metrics that are available in Thanos
-                    addAvailableDefaultMetrics(appId);
-                    
-                    return ResponseEntity.ok("Application ID is valid and default metrics have been configured.");
-                } else {
-                    return ResponseEntity.badRequest().body("Invalid Application ID.");
+    private byte[] encode(WireFormat format, MetricsResponseDto dto, MetricsSnapshot snapshot) {
+        long start = System.nanoTime();
+        byte[] payload = encodeUnmeasured(format, dto, snapshot);
+        serializeTimers.get(format).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        serializedBytes.get(format).record(payload.length);
+        return payload;
+    }
+
+    private byte[] encodeUnmeasured(WireFormat format, MetricsResponseDto dto, MetricsSnapshot snapshot) {
+        if (format == WireFormat.BINARY) {
+            return BinaryMetricsCodec.encode(snapshot);
+        }
+        try {
+            return objectMapper.writeValueAsBytes(dto);
+        } catch (JsonProcessingException e) {
+            throw new RuntimeException("Failed to serialize metrics data", e);
+        }
+    }
+
+    public ResponseEntity<String> validateApplicationId(String appId) {
+
+        switch (applicationRegistry.validate(appId)) {
+            case ALREADY_REGISTERED:
+                return ResponseEntity.ok("Application ID is already registered.");
+            case KNOWN:
+                if (!applicationRegistry.register(appId)) {
+                    // A concurrent request registered it first
+                    return ResponseEntity.ok("Application ID is already registered.");
                 }
-            }
+
+                // Add default metrics that are available in Thanos
+                addAvailableDefaultMetrics(appId);
+
+                return ResponseEntity.ok("Application ID is valid and default metrics have been configured.");
+            case UNKNOWN:
+                return ResponseEntity.badRequest().body("Invalid Application ID.");
+            default:
+                return ResponseEntity.status(500).body("Error validating Application ID.");
         }
-        return ResponseEntity.status(500).body("Error validating Application ID.");
     }
 
     /**
@@ -226,12 +393,12 @@ public class MetricsService {
      */
     private void addAvailableDefaultMetrics(String appId) {
         try {
-            // Check which default metrics actually exist for this specific application
+            // Discover which default metrics exist for this application with a single query
+            Set<String> existingMetrics = metricNameIndex.getMetricNames(appId);
             List<String> availableDefaultMetrics = new ArrayList<>();
             
             for (String metricName : DEFAULT_METRICS) {
-                // Query Thanos to see if this metric exists for the specific application
-                if (metricExistsForApplication(metricName, appId)) {
+                if (existingMetrics.contains(metricName)) {
                     availableDefaultMetrics.add(metricName);
                 }
             }
@@ -252,36 +419,11 @@ public class MetricsService {
     }
 
     /**
-     * Checks if a specific metric exists for a given application in Thanos
-     * @param metricName The name of the metric to check
-     * @param appId The application ID to check for
-     * @return true if the metric exists for the application, false otherwise
+     * Returns a point-in-time copy of the registered application IDs
+     * @return The registered application IDs
      */
-    @SuppressWarnings("unchecked")
-    private boolean metricExistsForApplication(String metricName, String appId) {
-        try {
-            // Query Thanos for this specific metric and application
-            Map<String, Object> response = thanosClient.fetchSpecificMetrics(appId, List.of(metricName));
-            
-            if (response != null && response.containsKey("data")) {
-                Map<String, Object> data = (Map<String, Object>) response.get("data");
-                if (data != null && data.containsKey("result")) {
-                    List<Map<String, Object>> results = (List<Map<String, Object>>) data.get("result");
-                    // If we get any results, the metric exists for this application
-                    return results != null && !results.isEmpty();
-                }
-            }
-            return false;
-        } catch (Exception e) {
-            log.debug("Error checking if metric {} exists for application {}: {}", metricName, appId, e.getMessage());
-            return false;
-        }
-    }
-
-    public void getMetricsForAllRegisteredApps() {
-        for (String appId : appIdList) {
-            getMetricsForSpecificApplication(appId);
-        }
+    public List<String> getRegisteredApplicationIds() {
+        return List.copyOf(applicationRegistry.getRegisteredApplicationIds());
     }
 
     public MetricsResponseDto getSpecificMetricsForApplication(String applicationId) {
@@ -1,18 +1,34 @@
 package com.upr.monitoring.centralmonitoring.service;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.springframework.stereotype.Service;
 
 @Service
 public class MetricsStorageService {
     
-    // Using ConcurrentHashMap for thread-safe operations
-    private final Map<String, List<String>> metricsStorage = new ConcurrentHashMap<>();
+    // Metric names are interned once globally, each application only keeps a bitset of metric IDs.
+    // Sets are immutable and replaced atomically, so reads never lock and always see a consistent snapshot.
+    private final MetricNameDictionary dictionary = new MetricNameDictionary();
+
+    private final Map<String, MetricIdSet> metricsStorage = new ConcurrentHashMap<>();
+
+    private final List<RegistryChangeListener> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Registers a listener that is notified after every change to the stored metrics
+     * @param listener The listener to add
+     */
+    public void addChangeListener(RegistryChangeListener listener) {
+        listeners.add(listener);
+    }
 
     /**
      * Stores a metric for the given application ID
@@ -27,7 +43,9 @@ public class MetricsStorageService {
             throw new IllegalArgumentException("Metric cannot be null");
         }
         
-        metricsStorage.computeIfAbsent(applicationId, k -> new ArrayList<>()).add(metric);
+        int id = dictionary.idOf(metric);
+        metricsStorage.compute(applicationId, (k, existing) -> (existing == null ? MetricIdSet.EMPTY : existing).with(id));
+        fireChanged(applicationId);
     }
 
     /**
@@ -43,13 +61,40 @@ public class MetricsStorageService {
             throw new IllegalArgumentException("Metrics list cannot be null");
         }
         
-        List<String> existingMetrics = metricsStorage.computeIfAbsent(applicationId, k -> new ArrayList<>());
-        // Only add metrics that don't already exist
-        for (String metric : metrics) {
-            if (metric != null && !existingMetrics.contains(metric)) {
-                existingMetrics.add(metric);
+        int[] ids = metrics.stream()
+                .filter(metric -> metric != null)
+                .mapToInt(dictionary::idOf)
+                .toArray();
+        // Duplicates are ignored by the set, the whole batch is applied atomically
+        metricsStorage.compute(applicationId, (k, existing) -> {
+            MetricIdSet updated = existing == null ? MetricIdSet.EMPTY : existing;
+            for (int id : ids) {
+                updated = updated.with(id);
+            }
+            return updated;
+        });
+        fireChanged(applicationId);
+    }
+
+    /**
+     * Replaces the metrics of an application with exactly the given list, used when restoring state
+     * @param applicationId The application ID
+     * @param metrics The metrics of the application, or null to remove the application
+     */
+    public void replaceMetrics(String applicationId, List<String> metrics) {
+        if (applicationId == null || applicationId.trim().isEmpty()) {
+            throw new IllegalArgumentException("Application ID cannot be null or empty");
+        }
+        if (metrics == null) {
+            metricsStorage.remove(applicationId);
+        } else {
+            MetricIdSet replacement = MetricIdSet.EMPTY;
+            for (String metric : metrics) {
+                replacement = replacement.with(dictionary.idOf(metric));
             }
+            metricsStorage.put(applicationId, replacement);
         }
+        fireChanged(applicationId);
     }
 
     /**
@@ -61,7 +106,8 @@ public class MetricsStorageService {
         if (applicationId == null || applicationId.trim().isEmpty()) {
             return null;
         }
-        return metricsStorage.get(applicationId);
+        MetricIdSet metrics = metricsStorage.get(applicationId);
+        return metrics != null ? decode(metrics) : null;
     }
 
     /**
@@ -81,7 +127,9 @@ public class MetricsStorageService {
      * @return A map containing all application IDs and their associated metrics
      */
     public Map<String, List<String>> getAllMetrics() {
-        return new ConcurrentHashMap<>(metricsStorage);
+        Map<String, List<String>> allMetrics = new HashMap<>(metricsStorage.size() * 2);
+        metricsStorage.forEach((applicationId, metrics) -> allMetrics.put(applicationId, decode(metrics)));
+        return allMetrics;
     }
 
     /**
@@ -89,7 +137,7 @@ public class MetricsStorageService {
      * @return A set containing all application IDs
      */
     public Set<String> getAllApplicationIds() {
-        return metricsStorage.keySet();
+        return Collections.unmodifiableSet(metricsStorage.keySet());
     }
 
     /**
@@ -101,7 +149,12 @@ public class MetricsStorageService {
         if (applicationId == null || applicationId.trim().isEmpty()) {
             return null;
         }
-        return metricsStorage.remove(applicationId);
+        MetricIdSet removed = metricsStorage.remove(applicationId);
+        if (removed == null) {
+            return null;
+        }
+        fireChanged(applicationId);
+        return decode(removed);
     }
 
     /**
@@ -114,16 +167,21 @@ public class MetricsStorageService {
         if (applicationId == null || applicationId.trim().isEmpty() || metric == null) {
             return false;
         }
-        List<String> metrics = metricsStorage.get(applicationId);
-        if (metrics != null) {
-            boolean removed = metrics.remove(metric);
-            // If the list becomes empty, remove the application entry
-            if (metrics.isEmpty()) {
-                metricsStorage.remove(applicationId);
-            }
-            return removed;
+        int id = dictionary.existingIdOf(metric);
+        if (id < 0) {
+            return false;
         }
-        return false;
+        boolean[] removed = new boolean[1];
+        // If the set becomes empty, the application entry is removed in the same atomic step
+        metricsStorage.computeIfPresent(applicationId, (k, existing) -> {
+            removed[0] = existing.contains(id);
+            MetricIdSet updated = existing.without(id);
+            return updated.isEmpty() ? null : updated;
+        });
+        if (removed[0]) {
+            fireChanged(applicationId);
+        }
+        return removed[0];
     }
 
     /**
@@ -131,6 +189,7 @@ public class MetricsStorageService {
      */
     public void clearAllMetrics() {
         metricsStorage.clear();
+        listeners.forEach(RegistryChangeListener::onBulkChange);
     }
 
     /**
@@ -147,7 +206,19 @@ public class MetricsStorageService {
      */
     public int getTotalMetricsCount() {
         return metricsStorage.values().stream()
-                .mapToInt(List::size)
+                .mapToInt(MetricIdSet::size)
                 .sum();
     }
-}
\ No newline at end of file
+
+    private void fireChanged(String applicationId) {
+        for (RegistryChangeListener listener : listeners) {
+            listener.onApplicationChanged(applicationId);
+        }
+    }
+
+    private List<String> decode(MetricIdSet metrics) {
+        List<String> names = new ArrayList<>(metrics.size());
+        metrics.forEach(id -> names.add(dictionary.nameOf(id)));
+        return Collections.unmodifiableList(names);
+    }
+}
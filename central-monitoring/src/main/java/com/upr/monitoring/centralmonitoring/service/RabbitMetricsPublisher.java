@@ -0,0 +1,349 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.core.MessageBuilder;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.upr.monitoring.centralmonitoring.codec.WireFormat;
+import com.upr.monitoring.centralmonitoring.model.RabbitPublishStats;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Publishes metric snapshots to RabbitMQ with correlated publisher confirms.
+ * <p>
+ * Callers only enqueue the message. A dispatcher thread drains the queue in
+ * batches, groups each batch by routing key, and publishes the whole batch
+ * back to back on a single channel without waiting for confirms in between.
+ * The number of unconfirmed messages is bounded by a window; confirms arrive
+ * asynchronously and free their slot. Nacked messages are re-enqueued with
+ * exponential backoff from a scheduler, so retries never hold up the fetch
+ * cycle.
+ * <p>
+ * A retried message is published after the messages enqueued in the
+ * meantime, so messages of one application may arrive out of order.
+ * Consumers order them by their {@code sequence} and ignore a message older
+ * than the last one applied, see the integration guide.
+ */
+@Service
+@Slf4j
+public class RabbitMetricsPublisher {
+
+    private record Pending(String routingKey, Message message, int attempt) {
+    }
+
+    private final RabbitTemplate rabbitTemplate;
+
+    private final String exchange;
+
+    private final WireFormat format;
+
+    private final int maxOutstanding;
+
+    private final int batchSize;
+
+    private final int maxRetries;
+
+    private final long retryBackoffMillis;
+
+    private final long maxBlockNanos;
+
+    private final BlockingQueue<Pending> queue;
+
+    private final Semaphore window;
+
+    private final ScheduledExecutorService retryScheduler;
+
+    private Thread dispatcher;
+
+    private final AtomicInteger scheduledRetries = new AtomicInteger();
+
+    private final LongAdder published = new LongAdder();
+
+    private final LongAdder acked = new LongAdder();
+
+    private final LongAdder nacked = new LongAdder();
+
+    private final LongAdder retried = new LongAdder();
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder batches = new LongAdder();
+
+    private final LongAdder confirmLatencyNanos = new LongAdder();
+
+    private final LongAccumulator maxConfirmLatencyNanos = new LongAccumulator(Math::max, 0);
+
+    private final MeterRegistry meterRegistry;
+
+    private final Timer ackTimer;
+
+    private final Timer nackTimer;
+
+    private volatile boolean running = true;
+
+    public RabbitMetricsPublisher(RabbitTemplate rabbitTemplate, MeterRegistry meterRegistry,
+                                  @Value("${metrics.publish.rabbit.exchange:metrics.exchange}") String exchange,
+                                  @Value("${metrics.publish.rabbit.format:json}") WireFormat format,
+                                  @Value("${metrics.publish.rabbit.max-outstanding:1000}") int maxOutstanding,
+                                  @Value("${metrics.publish.rabbit.batch-size:100}") int batchSize,
+                                  @Value("${metrics.publish.rabbit.queue-capacity:10000}") int queueCapacity,
+                                  @Value("${metrics.publish.rabbit.max-retries:3}") int maxRetries,
+                                  @Value("${metrics.publish.rabbit.retry-backoff:500ms}") Duration retryBackoff,
+                                  @Value("${metrics.publish.rabbit.max-block:30s}") Duration maxBlock) {
+        this.rabbitTemplate = rabbitTemplate;
+        this.meterRegistry = meterRegistry;
+        this.exchange = exchange;
+        this.format = format;
+        this.maxOutstanding = maxOutstanding;
+        // A batch acquires its window slots at once, so it can never be larger than the window
+        this.batchSize = Math.max(1, Math.min(batchSize, maxOutstanding));
+        this.maxRetries = maxRetries;
+        this.retryBackoffMillis = retryBackoff.toMillis();
+        this.maxBlockNanos = maxBlock.toNanos();
+        this.queue = new LinkedBlockingQueue<>(queueCapacity);
+        this.window = new Semaphore(maxOutstanding);
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("rabbit-publisher-retry").daemon().factory());
+        this.ackTimer = confirmTimer(meterRegistry, "ack");
+        this.nackTimer = confirmTimer(meterRegistry, "nack");
+        Gauge.builder("metrics.publish.in.flight", window, permits -> maxOutstanding - permits.availablePermits())
+                .description("Messages sent but not confirmed yet")
+                .tag("transport", "rabbit")
+                .register(meterRegistry);
+        FunctionCounter.builder("metrics.publish.dropped", dropped, LongAdder::sum)
+                .description("Messages given up on")
+                .tag("transport", "rabbit")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        // Registered once constructed, the gauge reads this publisher
+        Gauge.builder("metrics.publish.queued", this, publisher -> publisher.queue.size() + publisher.scheduledRetries.get())
+                .description("Messages waiting to be published, including scheduled retries")
+                .tag("transport", "rabbit")
+                .register(meterRegistry);
+        dispatcher = Thread.ofPlatform().name("rabbit-publisher").daemon().start(this::dispatchLoop);
+    }
+
+    /**
+     * Enqueues a metrics payload for an application. Blocks only while the queue is full.
+     * @param appId The application ID, used in the routing key
+     * @param payload The metrics encoded in {@link #getFormat()}
+     */
+    public void publish(String appId, byte[] payload) {
+        enqueue("metrics." + appId, payload, format.getContentType());
+    }
+
+    /**
+     * Enqueues a JSON payload under another routing key of the same exchange
+     * @param routingKey The routing key
+     * @param payload The JSON payload
+     */
+    public void publishJson(String routingKey, byte[] payload) {
+        enqueue(routingKey, payload, WireFormat.JSON.getContentType());
+    }
+
+    private void enqueue(String routingKey, byte[] payload, String contentType) {
+        Message message = MessageBuilder.withBody(payload)
+                .setContentType(contentType)
+                .build();
+        Pending pending = new Pending(routingKey, message, 0);
+        try {
+            if (!queue.offer(pending, maxBlockNanos, TimeUnit.NANOSECONDS)) {
+                dropped.increment();
+                throw new IllegalStateException("RabbitMQ publisher queue is full, dropping message for " + routingKey);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for RabbitMQ publisher capacity", e);
+        }
+    }
+
+    /**
+     * @return The format payloads passed to {@link #publish(String, byte[])} must be encoded in
+     */
+    public WireFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * @return A snapshot of the publisher counters
+     */
+    public RabbitPublishStats getStats() {
+        long ackedCount = acked.sum();
+        return RabbitPublishStats.builder()
+                .exchange(exchange)
+                .queued(queue.size() + scheduledRetries.get())
+                .outstanding(maxOutstanding - window.availablePermits())
+                .published(published.sum())
+                .acked(ackedCount)
+                .nacked(nacked.sum())
+                .retried(retried.sum())
+                .dropped(dropped.sum())
+                .batches(batches.sum())
+                .averageConfirmLatencyMs(ackedCount == 0 ? 0 : confirmLatencyNanos.sum() / 1_000_000.0 / ackedCount)
+                .maxConfirmLatencyMs(maxConfirmLatencyNanos.get() / 1_000_000.0)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        retryScheduler.shutdownNow();
+        try {
+            // The dispatcher publishes what is still queued before it exits
+            if (dispatcher != null) {
+                dispatcher.join(5000);
+            }
+            if (!window.tryAcquire(maxOutstanding, 5, TimeUnit.SECONDS)) {
+                log.warn("Stopped with {} unconfirmed RabbitMQ messages", maxOutstanding - window.availablePermits());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!queue.isEmpty()) {
+            log.warn("Discarding {} queued RabbitMQ messages on shutdown", queue.size());
+        }
+    }
+
+    private void dispatchLoop() {
+        List<Pending> batch = new ArrayList<>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Pending first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                queue.drainTo(batch, batchSize - 1);
+                window.acquire(batch.size());
+                publishBatch(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (RuntimeException e) {
+                log.error("Unexpected error in RabbitMQ publisher: {}", e.getMessage());
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void publishBatch(List<Pending> batch) {
+        Map<String, List<Pending>> byRoutingKey = new LinkedHashMap<>();
+        for (Pending pending : batch) {
+            byRoutingKey.computeIfAbsent(pending.routingKey(), key -> new ArrayList<>()).add(pending);
+        }
+        int[] sent = {0};
+        try {
+            // All messages go out on one channel, confirms are collected asynchronously
+            rabbitTemplate.invoke(operations -> {
+                for (List<Pending> group : byRoutingKey.values()) {
+                    for (Pending pending : group) {
+                        CorrelationData correlation = new CorrelationData();
+                        long start = System.nanoTime();
+                        correlation.getFuture().whenComplete((confirm, error) ->
+                                onConfirm(pending, confirm != null && confirm.isAck(),
+                                        error != null ? error.getMessage() : confirm.getReason(), start));
+                        operations.send(exchange, pending.routingKey(), pending.message(), correlation);
+                        published.increment();
+                        sent[0]++;
+                    }
+                }
+                return null;
+            });
+            batches.increment();
+        } catch (RuntimeException e) {
+            // Messages that never reached the channel will not be confirmed, retry them here
+            log.warn("Failed to publish batch to RabbitMQ: {}", e.getMessage());
+            int skip = sent[0];
+            for (List<Pending> group : byRoutingKey.values()) {
+                for (Pending pending : group) {
+                    if (skip-- > 0) {
+                        continue;
+                    }
+                    window.release();
+                    nacked.increment();
+                    retry(pending);
+                }
+            }
+        }
+    }
+
+    private void onConfirm(Pending pending, boolean ack, String reason, long start) {
+        window.release();
+        long latency = System.nanoTime() - start;
+        (ack ? ackTimer : nackTimer).record(latency, TimeUnit.NANOSECONDS);
+        if (ack) {
+            acked.increment();
+            confirmLatencyNanos.add(latency);
+            maxConfirmLatencyNanos.accumulate(latency);
+            return;
+        }
+        nacked.increment();
+        log.debug("RabbitMQ nacked message for {}: {}", pending.routingKey(), reason);
+        retry(pending);
+    }
+
+    private static Timer confirmTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("metrics.publish")
+                .description("Time from sending a payload until the broker acknowledged or rejected it")
+                .tag("transport", "rabbit")
+                .tag("outcome", outcome)
+                .publishPercentileHistogram()
+                .register(meterRegistry);
+    }
+
+    private void retry(Pending pending) {
+        if (pending.attempt() >= maxRetries || !running) {
+            dropped.increment();
+            log.warn("Dropping metrics message for {} after {} attempts", pending.routingKey(), pending.attempt() + 1);
+            return;
+        }
+        Pending next = new Pending(pending.routingKey(), pending.message(), pending.attempt() + 1);
+        long delay = retryBackoffMillis << pending.attempt();
+        scheduledRetries.incrementAndGet();
+        try {
+            retryScheduler.schedule(() -> {
+                scheduledRetries.decrementAndGet();
+                if (queue.offer(next)) {
+                    retried.increment();
+                } else {
+                    dropped.increment();
+                    log.warn("Dropping metrics message for {}, the publisher queue is full", next.routingKey());
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shutting down
+            scheduledRetries.decrementAndGet();
+            dropped.increment();
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+/**
+ * Notified after the registration, fetch interval or metric subscriptions of applications change.
+ */
+public interface RegistryChangeListener {
+
+    /**
+     * Called after the registration, the fetch interval or the stored metrics of one application changed
+     * @param applicationId The application that changed
+     */
+    void onApplicationChanged(String applicationId);
+
+    /**
+     * Called after a change that affected many applications at once, such as clearing all metrics
+     */
+    void onBulkChange();
+}
@@ -0,0 +1,377 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Persists application registrations, fetch intervals and metric subscriptions
+ * so a restart recovers them without re-registering or querying Thanos.
+ * <p>
+ * Every change is appended to a log as the full current state of the changed
+ * application, so records are idempotent and the last one for an application
+ * always wins regardless of how concurrent changes interleave. The log is
+ * periodically compacted into a snapshot that stores each metric name once.
+ * At startup the snapshot and the log are read through memory-mapped buffers
+ * and applied before the services accept traffic.
+ */
+@Service
+@Slf4j
+public class RegistryJournal implements RegistryChangeListener {
+
+    private static final int SNAPSHOT_MAGIC = 0x434d5253; // "CMRS"
+
+    // Version 2 adds the fetch interval, version 1 snapshots are still read
+    private static final int SNAPSHOT_VERSION = 2;
+
+    private static final byte RECORD_APPLICATION_STATE = 1;
+
+    // Application state followed by the fetch interval
+    private static final byte RECORD_APPLICATION_STATE_WITH_INTERVAL = 2;
+
+    private static final long DEFAULT_INTERVAL = -1;
+
+    private static final String SNAPSHOT_FILE = "registry.snapshot";
+
+    private static final String LOG_FILE = "registry.log";
+
+    private record ApplicationState(boolean registered, List<String> metrics, Duration interval) {
+    }
+
+    private final ApplicationRegistry applicationRegistry;
+
+    private final MetricsStorageService metricsStorageService;
+
+    private final boolean enabled;
+
+    private final Path directory;
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    private DataOutputStream logOutput;
+
+    private volatile long recordsSinceSnapshot;
+
+    private boolean logTailCorrupt;
+
+    public RegistryJournal(ApplicationRegistry applicationRegistry, MetricsStorageService metricsStorageService,
+                           @Value("${metrics.persistence.enabled:true}") boolean enabled,
+                           @Value("${metrics.persistence.directory:./data/registry}") String directory) {
+        this.applicationRegistry = applicationRegistry;
+        this.metricsStorageService = metricsStorageService;
+        this.enabled = enabled;
+        this.directory = Path.of(directory);
+    }
+
+    @PostConstruct
+    public void recover() {
+        if (!enabled) {
+            return;
+        }
+        long start = System.nanoTime();
+        Map<String, ApplicationState> states = new LinkedHashMap<>();
+        try {
+            readSnapshot(directory.resolve(SNAPSHOT_FILE), states);
+            recordsSinceSnapshot = readLog(directory.resolve(LOG_FILE), states);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to recover registry from " + directory.toAbsolutePath(), e);
+        }
+
+        // Listeners are attached afterwards so restoring does not write to the log again
+        states.forEach((appId, state) -> {
+            // Set first, so the application is scheduled on its own interval right away
+            if (state.interval() != null) {
+                applicationRegistry.setFetchInterval(appId, state.interval());
+            }
+            if (state.registered()) {
+                applicationRegistry.register(appId);
+            }
+            if (state.metrics() != null) {
+                metricsStorageService.replaceMetrics(appId, state.metrics());
+            }
+        });
+        applicationRegistry.addChangeListener(this);
+        metricsStorageService.addChangeListener(this);
+        if (logTailCorrupt) {
+            // Start a clean log so new records are not appended behind the damaged tail
+            compact();
+        }
+
+        if (!states.isEmpty()) {
+            log.info("Recovered {} applications from {} in {} ms", states.size(),
+                    directory.toAbsolutePath(), (System.nanoTime() - start) / 1_000_000);
+        }
+    }
+
+    @Override
+    public void onApplicationChanged(String applicationId) {
+        lock.lock();
+        try {
+            // The state is read under the lock, so the last record written for an application is its latest state
+            ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(RECORD_APPLICATION_STATE_WITH_INTERVAL);
+            writeString(out, applicationId);
+            out.writeBoolean(applicationRegistry.isRegistered(applicationId));
+            List<String> metrics = metricsStorageService.getMetrics(applicationId);
+            out.writeInt(metrics == null ? -1 : metrics.size());
+            if (metrics != null) {
+                for (String metric : metrics) {
+                    writeString(out, metric);
+                }
+            }
+            writeInterval(out, applicationRegistry.getFetchInterval(applicationId));
+            appendRecord(record.toByteArray());
+        } catch (IOException e) {
+            log.error("Failed to persist registry change for application {}: {}", applicationId, e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void onBulkChange() {
+        compact();
+    }
+
+    /**
+     * Writes a snapshot of the current state and truncates the log
+     */
+    @Scheduled(fixedDelayString = "${metrics.persistence.snapshot-interval:5m}",
+               initialDelayString = "${metrics.persistence.snapshot-interval:5m}")
+    public void compactIfNeeded() {
+        if (recordsSinceSnapshot > 0) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        if (!enabled) {
+            return;
+        }
+        lock.lock();
+        try {
+            long start = System.nanoTime();
+            Files.createDirectories(directory);
+            Path tmp = directory.resolve(SNAPSHOT_FILE + ".tmp");
+            int applications = writeSnapshot(tmp);
+            Files.move(tmp, directory.resolve(SNAPSHOT_FILE),
+                    StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+            if (logOutput != null) {
+                logOutput.close();
+                logOutput = null;
+            }
+            Files.deleteIfExists(directory.resolve(LOG_FILE));
+            recordsSinceSnapshot = 0;
+            log.debug("Wrote registry snapshot with {} applications in {} ms", applications,
+                    (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            log.error("Failed to write registry snapshot: {}", e.getMessage());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @PreDestroy
+    public void close() {
+        compactIfNeeded();
+    }
+
+    private void appendRecord(byte[] payload) throws IOException {
+        if (!enabled) {
+            return;
+        }
+        if (logOutput == null) {
+            Files.createDirectories(directory);
+            OutputStream file = Files.newOutputStream(directory.resolve(LOG_FILE),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            logOutput = new DataOutputStream(new BufferedOutputStream(file, 64 * 1024));
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        logOutput.writeInt(payload.length);
+        logOutput.writeInt((int) crc.getValue());
+        logOutput.write(payload);
+        logOutput.flush();
+        recordsSinceSnapshot++;
+    }
+
+    private int writeSnapshot(Path file) throws IOException {
+        Map<String, List<String>> metrics = metricsStorageService.getAllMetrics();
+        Set<String> registered = applicationRegistry.getRegisteredApplicationIds();
+        Set<String> applications = new HashSet<>(metrics.keySet());
+        applications.addAll(registered);
+
+        // Each metric name is written once and referenced by index
+        Map<String, Integer> names = new LinkedHashMap<>();
+        metrics.values().forEach(list -> list.forEach(name -> names.putIfAbsent(name, names.size())));
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                Files.newOutputStream(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                        StandardOpenOption.WRITE), 64 * 1024))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(names.size());
+            for (String name : names.keySet()) {
+                writeString(out, name);
+            }
+            out.writeInt(applications.size());
+            for (String appId : applications) {
+                writeString(out, appId);
+                out.writeBoolean(registered.contains(appId));
+                List<String> appMetrics = metrics.get(appId);
+                out.writeInt(appMetrics == null ? -1 : appMetrics.size());
+                if (appMetrics != null) {
+                    for (String name : appMetrics) {
+                        out.writeInt(names.get(name));
+                    }
+                }
+                writeInterval(out, applicationRegistry.getFetchInterval(appId));
+            }
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.force(true);
+        }
+        return applications.size();
+    }
+
+    private static void readSnapshot(Path file, Map<String, ApplicationState> states) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            int magic = buffer.getInt();
+            int version = buffer.getInt();
+            if (magic != SNAPSHOT_MAGIC || version < 1 || version > SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported registry snapshot format: " + file);
+            }
+            String[] names = new String[buffer.getInt()];
+            for (int i = 0; i < names.length; i++) {
+                names[i] = readString(buffer).intern();
+            }
+            int applications = buffer.getInt();
+            for (int i = 0; i < applications; i++) {
+                String appId = readString(buffer);
+                boolean registered = buffer.get() != 0;
+                int count = buffer.getInt();
+                List<String> metrics = null;
+                if (count >= 0) {
+                    metrics = new ArrayList<>(count);
+                    for (int m = 0; m < count; m++) {
+                        metrics.add(names[buffer.getInt()]);
+                    }
+                }
+                Duration interval = version >= 2 ? readInterval(buffer) : null;
+                states.put(appId, new ApplicationState(registered, metrics, interval));
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Truncated registry snapshot: " + file, e);
+        }
+    }
+
+    private long readLog(Path file, Map<String, ApplicationState> states) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long records = 0;
+        Map<String, String> names = new HashMap<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            CRC32 crc = new CRC32();
+            while (buffer.remaining() >= 8) {
+                int length = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (length < 0 || length > buffer.remaining()) {
+                    break;
+                }
+                ByteBuffer payload = buffer.slice(buffer.position(), length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                buffer.position(buffer.position() + length);
+
+                byte type = payload.get();
+                if (type != RECORD_APPLICATION_STATE && type != RECORD_APPLICATION_STATE_WITH_INTERVAL) {
+                    continue;
+                }
+                String appId = readString(payload);
+                boolean registered = payload.get() != 0;
+                int count = payload.getInt();
+                List<String> metrics = null;
+                if (count >= 0) {
+                    metrics = new ArrayList<>(count);
+                    for (int m = 0; m < count; m++) {
+                        String name = readString(payload);
+                        metrics.add(names.computeIfAbsent(name, String::intern));
+                    }
+                }
+                Duration interval = type == RECORD_APPLICATION_STATE_WITH_INTERVAL ? readInterval(payload) : null;
+                ApplicationState previous = states.get(appId);
+                // Registrations are never revoked, a later record cannot unregister an application
+                states.put(appId, new ApplicationState(registered || (previous != null && previous.registered()),
+                        metrics, interval));
+                records++;
+            }
+            if (buffer.hasRemaining()) {
+                logTailCorrupt = true;
+                log.warn("Ignoring {} bytes of incomplete registry log records in {}", buffer.remaining(), file);
+            }
+        }
+        return records;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeInterval(DataOutputStream out, Duration interval) throws IOException {
+        out.writeLong(interval == null ? DEFAULT_INTERVAL : interval.toMillis());
+    }
+
+    private static Duration readInterval(ByteBuffer buffer) {
+        long millis = buffer.getLong();
+        return millis == DEFAULT_INTERVAL ? null : Duration.ofMillis(millis);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        String value = StandardCharsets.UTF_8.decode(buffer.slice(buffer.position(), length)).toString();
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+}
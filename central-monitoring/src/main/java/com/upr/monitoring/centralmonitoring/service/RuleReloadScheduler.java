@@ -0,0 +1,213 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.upr.monitoring.centralmonitoring.client.HttpTransport;
+import com.upr.monitoring.centralmonitoring.model.RuleReloadStatus;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Asks the Thanos ruler to reload its rule files, at most once per debounce window.
+ * <p>
+ * The first request after a quiet period schedules a reload one window later;
+ * every request arriving before it starts is folded into it, so a burst of
+ * rule changes from many applications costs a single reload. Requests made
+ * while a reload is in flight schedule one more reload after it, since the
+ * ruler may already have read the files before they changed. Failed reloads
+ * are retried with exponential backoff, and every new request starts the
+ * retry budget over.
+ */
+@Slf4j
+@Service
+public class RuleReloadScheduler {
+
+    private final HttpTransport transport;
+
+    private final boolean enabled;
+
+    private final URI reloadUri;
+
+    private final Duration debounce;
+
+    private final Duration timeout;
+
+    private final int maxRetries;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final Timer reloadSuccess;
+
+    private final Timer reloadFailure;
+
+    private final Counter requestCounter;
+
+    // Guarded by this
+    private boolean pending;
+    private boolean inFlight;
+    private boolean changedDuringReload;
+    private int consecutiveFailures;
+    private long requests;
+    private long reloads;
+    private long failures;
+    private long coalesced;
+    private Instant nextReloadAt;
+    private Instant lastRequestedAt;
+    private Instant lastReloadAt;
+    private Instant lastSuccessAt;
+    private long lastDurationMs;
+    private String lastError;
+
+    public RuleReloadScheduler(HttpTransport transport, MeterRegistry meterRegistry,
+                               @Value("${alerts.reload.enabled:true}") boolean enabled,
+                               @Value("${alerts.reload.url:http://82.223.13.241:10911/-/reload}") String reloadUrl,
+                               @Value("${alerts.reload.debounce:5s}") Duration debounce,
+                               @Value("${alerts.reload.timeout:10s}") Duration timeout,
+                               @Value("${alerts.reload.max-retries:3}") int maxRetries) {
+        if (debounce.isNegative() || debounce.isZero()) {
+            throw new IllegalArgumentException("alerts.reload.debounce must be positive");
+        }
+        this.transport = transport;
+        this.enabled = enabled;
+        this.reloadUri = URI.create(reloadUrl);
+        this.debounce = debounce;
+        this.timeout = timeout;
+        this.maxRetries = maxRetries;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+                Thread.ofPlatform().name("rule-reload").daemon().factory());
+        this.reloadSuccess = reloadTimer(meterRegistry, "success");
+        this.reloadFailure = reloadTimer(meterRegistry, "error");
+        this.requestCounter = Counter.builder("alerts.reload.requests")
+                .description("Rule reloads requested, including those folded into another reload")
+                .register(meterRegistry);
+    }
+
+    private static Timer reloadTimer(MeterRegistry meterRegistry, String outcome) {
+        return Timer.builder("alerts.reload")
+                .description("Thanos rule reload calls")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Requests a reload of the rule files, performed at the end of the current debounce window
+     */
+    public synchronized void requestReload() {
+        requests++;
+        requestCounter.increment();
+        lastRequestedAt = Instant.now();
+        if (!enabled) {
+            return;
+        }
+        // A new change gets the full retry budget again, even when it rides on a retry already scheduled
+        consecutiveFailures = 0;
+        if (pending || (inFlight && changedDuringReload)) {
+            coalesced++;
+            return;
+        }
+        if (inFlight) {
+            changedDuringReload = true;
+            return;
+        }
+        schedule(debounce);
+    }
+
+    /**
+     * @return The reload counters and the state of the current window
+     */
+    public synchronized RuleReloadStatus getStatus() {
+        return RuleReloadStatus.builder()
+                .enabled(enabled)
+                .reloadUrl(reloadUri.toString())
+                .debounceMs(debounce.toMillis())
+                .pending(pending || changedDuringReload)
+                .inFlight(inFlight)
+                .nextReloadAt(nextReloadAt)
+                .requests(requests)
+                .reloads(reloads)
+                .failures(failures)
+                .coalesced(coalesced)
+                .lastRequestedAt(lastRequestedAt)
+                .lastReloadAt(lastReloadAt)
+                .lastSuccessAt(lastSuccessAt)
+                .lastDurationMs(lastDurationMs)
+                .lastError(lastError)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            if (pending || changedDuringReload) {
+                log.warn("Stopped with a pending Thanos rule reload, the ruler picks the files up on its next reload");
+            }
+        }
+    }
+
+    private void schedule(Duration delay) {
+        pending = true;
+        nextReloadAt = Instant.now().plus(delay);
+        scheduler.schedule(this::reload, delay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private void reload() {
+        synchronized (this) {
+            pending = false;
+            inFlight = true;
+            nextReloadAt = null;
+            reloads++;
+            lastReloadAt = Instant.now();
+        }
+        long start = System.nanoTime();
+        try {
+            transport.post(reloadUri, timeout)
+                    .whenComplete((body, error) -> completed(System.nanoTime() - start, error));
+        } catch (RuntimeException e) {
+            completed(System.nanoTime() - start, e);
+        }
+    }
+
+    private synchronized void completed(long nanos, Throwable error) {
+        inFlight = false;
+        lastDurationMs = TimeUnit.NANOSECONDS.toMillis(nanos);
+        if (error == null) {
+            reloadSuccess.record(nanos, TimeUnit.NANOSECONDS);
+            consecutiveFailures = 0;
+            lastSuccessAt = Instant.now();
+            lastError = null;
+            log.debug("Reloaded Thanos rules in {} ms", lastDurationMs);
+        } else {
+            reloadFailure.record(nanos, TimeUnit.NANOSECONDS);
+            consecutiveFailures++;
+            failures++;
+            lastError = error.getMessage();
+            log.warn("Thanos rule reload failed ({} in a row): {}", consecutiveFailures, error.getMessage());
+        }
+
+        boolean retry = error != null && consecutiveFailures <= maxRetries;
+        if (changedDuringReload) {
+            // The change requested meanwhile has not been tried yet
+            consecutiveFailures = 0;
+        }
+        if (changedDuringReload || retry) {
+            changedDuringReload = false;
+            if (!scheduler.isShutdown()) {
+                schedule(consecutiveFailures == 0
+                        ? debounce : debounce.multipliedBy(1L << Math.min(consecutiveFailures, 10)));
+            }
+        }
+    }
+}
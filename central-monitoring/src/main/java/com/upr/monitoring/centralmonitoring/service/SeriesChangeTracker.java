@@ -0,0 +1,132 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+
+/**
+ * Detects which series of an application changed since it was last published.
+ * <p>
+ * For every application only two sorted arrays are kept: a 64-bit fingerprint
+ * of each series' labels and the raw bits of its last value. A series counts
+ * as changed when it is new or its last value differs. Every
+ * {@code keyframe-interval} publications a full keyframe is emitted instead,
+ * which also lets consumers drop series that disappeared. Each publication
+ * gets the next sequence number of the application, so a consumer that sees a
+ * gap knows it has to wait for the next keyframe.
+ */
+@Service
+public class SeriesChangeTracker {
+
+    /**
+     * What to publish for an application in this cycle
+     * @param sequence The sequence number of the message, unchanged when nothing is published
+     * @param keyframe Whether {@code series} is the full set of series
+     * @param series The series to publish
+     */
+    public record Delta(long sequence, boolean keyframe, List<MetricSeries> series) {
+
+        /**
+         * @return true if there is nothing to publish
+         */
+        public boolean isEmpty() {
+            return !keyframe && series.isEmpty();
+        }
+    }
+
+    private record Fingerprint(long labels, long value) {
+    }
+
+    private record State(long sequence, int sinceKeyframe, long[] labels, long[] values) {
+    }
+
+    private final Map<String, State> states = new ConcurrentHashMap<>();
+
+    private final boolean enabled;
+
+    private final int keyframeInterval;
+
+    public SeriesChangeTracker(@Value("${metrics.publish.delta.enabled:false}") boolean enabled,
+                               @Value("${metrics.publish.delta.keyframe-interval:10}") int keyframeInterval) {
+        this.enabled = enabled;
+        this.keyframeInterval = Math.max(1, keyframeInterval);
+    }
+
+    /**
+     * Compares the series of an application with the previously published ones
+     * and records them as the new published state
+     * @param appId The application ID
+     * @param series The current series of the application
+     * @return The series to publish with their sequence number
+     */
+    public Delta track(String appId, List<MetricSeries> series) {
+        Fingerprint[] fingerprints = new Fingerprint[series.size()];
+        for (int i = 0; i < fingerprints.length; i++) {
+            MetricSeries s = series.get(i);
+            fingerprints[i] = new Fingerprint(labelsFingerprint(s.getLabels()), Double.doubleToLongBits(s.getLastValue()));
+        }
+
+        Delta[] result = new Delta[1];
+        // Computed under the map's per-key lock, so concurrent publications of an application get distinct sequences
+        states.compute(appId, (key, previous) -> {
+            boolean keyframe = !enabled || previous == null || previous.sinceKeyframe() + 1 >= keyframeInterval;
+            List<MetricSeries> changed = keyframe ? series : changedSeries(previous, series, fingerprints);
+            if (!keyframe && changed.isEmpty()) {
+                result[0] = new Delta(previous.sequence(), false, changed);
+                return previous;
+            }
+            long sequence = previous == null ? 1 : previous.sequence() + 1;
+            result[0] = new Delta(sequence, keyframe, changed);
+            return toState(sequence, keyframe ? 0 : previous.sinceKeyframe() + 1, fingerprints);
+        });
+        return result[0];
+    }
+
+    private static List<MetricSeries> changedSeries(State previous, List<MetricSeries> series, Fingerprint[] fingerprints) {
+        List<MetricSeries> changed = new ArrayList<>();
+        for (int i = 0; i < fingerprints.length; i++) {
+            int index = Arrays.binarySearch(previous.labels(), fingerprints[i].labels());
+            if (index < 0 || previous.values()[index] != fingerprints[i].value()) {
+                changed.add(series.get(i));
+            }
+        }
+        return changed;
+    }
+
+    private static State toState(long sequence, int sinceKeyframe, Fingerprint[] fingerprints) {
+        Fingerprint[] sorted = fingerprints.clone();
+        Arrays.sort(sorted, Comparator.comparingLong(Fingerprint::labels));
+        long[] labels = new long[sorted.length];
+        long[] values = new long[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            labels[i] = sorted[i].labels();
+            values[i] = sorted[i].value();
+        }
+        return new State(sequence, sinceKeyframe, labels, values);
+    }
+
+    /**
+     * Order independent 64-bit hash of a label set
+     */
+    static long labelsFingerprint(Map<String, String> labels) {
+        long hash = labels.size();
+        for (Map.Entry<String, String> label : labels.entrySet()) {
+            hash += mix(label.getKey().hashCode() * 0x9E3779B97F4A7C15L + label.getValue().hashCode());
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 33)) * 0xff51afd7ed558ccdL;
+        value = (value ^ (value >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        return value ^ (value >>> 33);
+    }
+}
@@ -0,0 +1,286 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.consumer.ConsumerRebalanceListener;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.CooperativeStickyAssignor;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.WakeupException;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.utils.Utils;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.kafka.KafkaProperties;
+import org.springframework.stereotype.Service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.upr.monitoring.centralmonitoring.model.ShardingStatus;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Splits the registered applications between the running replicas.
+ * <p>
+ * Every application belongs to one partition of a compacted control topic,
+ * chosen by the murmur2 hash of its ID exactly like Kafka's default
+ * partitioner. All replicas consume the topic in one consumer group, so the
+ * group coordinator hands each partition to exactly one replica and moves
+ * them when a replica joins or leaves. A replica fetches only the
+ * applications of the partitions assigned to it.
+ * <p>
+ * The topic also replicates the registry: every registration or change of
+ * stored metrics is published as the full state of the application, keyed by
+ * its ID, so it lands in the partition of its owner. A replica replays its
+ * partitions from the beginning whenever it is assigned new ones, so it learns
+ * every application it now owns. Without sharding every application is owned
+ * locally.
+ */
+@Service
+@Slf4j
+public class ShardCoordinator implements RegistryChangeListener {
+
+    private record ApplicationState(boolean registered, Set<String> metrics) {
+    }
+
+    private final ApplicationRegistry applicationRegistry;
+
+    private final MetricsStorageService metricsStorageService;
+
+    private final KafkaMetricsPublisher kafkaPublisher;
+
+    private final KafkaProperties kafkaProperties;
+
+    private final ObjectMapper objectMapper;
+
+    private final boolean enabled;
+
+    private final String topic;
+
+    private final String groupId;
+
+    private final Set<Integer> ownedPartitions = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, ApplicationState> replicated = new ConcurrentHashMap<>();
+
+    private volatile int partitionCount;
+
+    private volatile KafkaConsumer<String, byte[]> consumer;
+
+    private volatile boolean running;
+
+    private volatile Thread poller;
+
+    public ShardCoordinator(ApplicationRegistry applicationRegistry, MetricsStorageService metricsStorageService,
+                            KafkaMetricsPublisher kafkaPublisher, KafkaProperties kafkaProperties,
+                            ObjectMapper objectMapper,
+                            @Value("${metrics.sharding.enabled:false}") boolean enabled,
+                            @Value("${metrics.sharding.topic:metrics-control}") String topic,
+                            @Value("${metrics.sharding.group-id:central-monitoring-shards}") String groupId) {
+        this.applicationRegistry = applicationRegistry;
+        this.metricsStorageService = metricsStorageService;
+        this.kafkaPublisher = kafkaPublisher;
+        this.kafkaProperties = kafkaProperties;
+        this.objectMapper = objectMapper;
+        this.enabled = enabled;
+        this.topic = topic;
+        this.groupId = groupId;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        applicationRegistry.addChangeListener(this);
+        metricsStorageService.addChangeListener(this);
+        poller = Thread.ofPlatform().name("shard-coordinator").daemon().unstarted(this::pollLoop);
+        poller.start();
+    }
+
+    /**
+     * @param appId The application ID
+     * @return true if this replica is responsible for fetching the application
+     */
+    public boolean owns(String appId) {
+        if (!enabled) {
+            return true;
+        }
+        int partitions = partitionCount;
+        return partitions > 0 && ownedPartitions.contains(partitionOf(appId, partitions));
+    }
+
+    @Override
+    public void onApplicationChanged(String applicationId) {
+        if (Thread.currentThread() == poller) {
+            // Applied from the control topic, sending it back would loop
+            return;
+        }
+        ApplicationState state = currentState(applicationId);
+        if (state.equals(replicated.get(applicationId))) {
+            return;
+        }
+        try {
+            kafkaPublisher.publishJson(topic, applicationId, objectMapper.writeValueAsBytes(state));
+        } catch (Exception e) {
+            log.warn("Failed to replicate application {} to other replicas: {}", applicationId, e.getMessage());
+        }
+    }
+
+    @Override
+    public void onBulkChange() {
+        Set<String> appIds = new TreeSet<>(applicationRegistry.getRegisteredApplicationIds());
+        appIds.addAll(metricsStorageService.getAllApplicationIds());
+        appIds.forEach(this::onApplicationChanged);
+    }
+
+    /**
+     * @return The partitions owned by this replica and the applications in them
+     */
+    public ShardingStatus getStatus() {
+        Set<String> known = new TreeSet<>(applicationRegistry.getRegisteredApplicationIds());
+        int owned = (int) known.stream().filter(this::owns).count();
+        return ShardingStatus.builder()
+                .enabled(enabled)
+                .topic(enabled ? topic : null)
+                .totalPartitions(partitionCount)
+                .ownedPartitions(List.copyOf(new TreeSet<>(ownedPartitions)))
+                .knownApplications(known.size())
+                .ownedApplications(owned)
+                .build();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running = false;
+        KafkaConsumer<String, byte[]> current = consumer;
+        if (current != null) {
+            current.wakeup();
+        }
+    }
+
+    private void pollLoop() {
+        while (running) {
+            try (KafkaConsumer<String, byte[]> kafkaConsumer = new KafkaConsumer<>(consumerProperties(),
+                    new StringDeserializer(), new ByteArrayDeserializer())) {
+                consumer = kafkaConsumer;
+                List<PartitionInfo> partitions = kafkaConsumer.partitionsFor(topic);
+                if (partitions == null || partitions.isEmpty()) {
+                    throw new IllegalStateException("Control topic " + topic + " does not exist");
+                }
+                partitionCount = partitions.size();
+                kafkaConsumer.subscribe(List.of(topic), new Rebalance(kafkaConsumer));
+                while (running) {
+                    for (ConsumerRecord<String, byte[]> record : kafkaConsumer.poll(Duration.ofSeconds(1))) {
+                        apply(record);
+                    }
+                }
+            } catch (WakeupException e) {
+                // Shutting down
+            } catch (Exception e) {
+                ownedPartitions.clear();
+                log.warn("Shard coordination failed, owning no applications until it recovers: {}", e.getMessage());
+                sleepBeforeRetry();
+            } finally {
+                consumer = null;
+            }
+        }
+        ownedPartitions.clear();
+    }
+
+    private void apply(ConsumerRecord<String, byte[]> record) {
+        String appId = record.key();
+        if (appId == null || record.value() == null) {
+            return;
+        }
+        ApplicationState state;
+        try {
+            state = objectMapper.readValue(record.value(), ApplicationState.class);
+        } catch (IOException e) {
+            log.warn("Ignoring unreadable control record for application {}: {}", appId, e.getMessage());
+            return;
+        }
+        replicated.put(appId, state);
+        if (state.registered()) {
+            applicationRegistry.register(appId);
+        }
+        if (!Objects.equals(state.metrics(), currentState(appId).metrics())) {
+            metricsStorageService.replaceMetrics(appId, state.metrics() == null ? null : List.copyOf(state.metrics()));
+        }
+    }
+
+    private ApplicationState currentState(String appId) {
+        List<String> metrics = metricsStorageService.getMetrics(appId);
+        return new ApplicationState(applicationRegistry.isRegistered(appId),
+                metrics == null ? null : new TreeSet<>(metrics));
+    }
+
+    private Map<String, Object> consumerProperties() {
+        Map<String, Object> properties = kafkaProperties.buildConsumerProperties(null);
+        properties.put(ConsumerConfig.GROUP_ID_CONFIG, groupId);
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        properties.put(ConsumerConfig.PARTITION_ASSIGNMENT_STRATEGY_CONFIG, CooperativeStickyAssignor.class.getName());
+        properties.remove(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG);
+        properties.remove(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG);
+        return properties;
+    }
+
+    private void sleepBeforeRetry() {
+        try {
+            Thread.sleep(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    static int partitionOf(String appId, int partitions) {
+        // Same as the default partitioner, so a control record lands in the partition of its application
+        return Utils.toPositive(Utils.murmur2(appId.getBytes(StandardCharsets.UTF_8))) % partitions;
+    }
+
+    private final class Rebalance implements ConsumerRebalanceListener {
+
+        private final KafkaConsumer<String, byte[]> kafkaConsumer;
+
+        Rebalance(KafkaConsumer<String, byte[]> kafkaConsumer) {
+            this.kafkaConsumer = kafkaConsumer;
+        }
+
+        @Override
+        public void onPartitionsAssigned(Collection<TopicPartition> partitions) {
+            if (partitions.isEmpty()) {
+                return;
+            }
+            // Replay the compacted state of every new partition to learn the applications in it
+            kafkaConsumer.seekToBeginning(partitions);
+            partitions.forEach(partition -> ownedPartitions.add(partition.partition()));
+            log.info("Now owning control partitions {}", new TreeSet<>(ownedPartitions));
+        }
+
+        @Override
+        public void onPartitionsRevoked(Collection<TopicPartition> partitions) {
+            partitions.forEach(partition -> ownedPartitions.remove(partition.partition()));
+        }
+
+        @Override
+        public void onPartitionsLost(Collection<TopicPartition> partitions) {
+            onPartitionsRevoked(partitions);
+        }
+    }
+}
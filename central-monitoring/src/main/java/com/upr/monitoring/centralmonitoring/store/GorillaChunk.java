@@ -0,0 +1,250 @@
+package com.upr.monitoring.centralmonitoring.store;
+
+import java.util.Arrays;
+
+/**
+ * Block of samples compressed as described in the Gorilla paper.
+ * <p>
+ * Timestamps are stored as delta-of-deltas in variable size buckets, so a
+ * series scraped at a steady interval costs one bit per timestamp. Values are
+ * XORed with the previous value and only the meaningful bits are written,
+ * reusing the previous leading and trailing zero counts when they fit. Samples
+ * are appended in place; {@link #seal()} trims the buffer once the chunk is full.
+ * Not thread-safe, callers synchronize on the owning series.
+ */
+final class GorillaChunk {
+
+    static final int MAX_SAMPLES = 120;
+
+    /**
+     * Receives decoded samples
+     */
+    @FunctionalInterface
+    interface SampleConsumer {
+        void accept(long timestamp, double value);
+    }
+
+    private long[] words = new long[4];
+
+    private int bitLength;
+
+    private int count;
+
+    private long firstTimestamp;
+
+    private long lastTimestamp;
+
+    private long lastDelta;
+
+    private long lastValueBits;
+
+    private int lastLeading = -1;
+
+    private int lastTrailing;
+
+    /**
+     * Appends a sample, the timestamp must be after the last one
+     * @param timestamp The sample timestamp in epoch milliseconds
+     * @param value The sample value
+     */
+    void append(long timestamp, double value) {
+        long valueBits = Double.doubleToRawLongBits(value);
+        if (count == 0) {
+            writeBits(timestamp, 64);
+            writeBits(valueBits, 64);
+            firstTimestamp = timestamp;
+        } else {
+            long delta = timestamp - lastTimestamp;
+            writeTimestampDelta(delta - lastDelta);
+            lastDelta = delta;
+            writeValueXor(valueBits ^ lastValueBits);
+        }
+        lastTimestamp = timestamp;
+        lastValueBits = valueBits;
+        count++;
+    }
+
+    boolean isFull() {
+        return count >= MAX_SAMPLES;
+    }
+
+    int count() {
+        return count;
+    }
+
+    long firstTimestamp() {
+        return firstTimestamp;
+    }
+
+    long lastTimestamp() {
+        return lastTimestamp;
+    }
+
+    /**
+     * @return The approximate heap size of the chunk in bytes
+     */
+    long sizeBytes() {
+        return 64 + words.length * 8L;
+    }
+
+    /**
+     * Releases the unused part of the buffer
+     */
+    void seal() {
+        words = Arrays.copyOf(words, (bitLength + 63) >>> 6);
+    }
+
+    /**
+     * Decodes the samples within a time window
+     * @param from Start of the window in epoch milliseconds, inclusive
+     * @param to End of the window in epoch milliseconds, inclusive
+     * @param consumer Receives the samples in ascending time order
+     */
+    void forEach(long from, long to, SampleConsumer consumer) {
+        if (count == 0 || lastTimestamp < from || firstTimestamp > to) {
+            return;
+        }
+        Reader reader = new Reader();
+        long timestamp = reader.readBits(64);
+        long valueBits = reader.readBits(64);
+        long delta = 0;
+        int leading = 0;
+        int trailing = 0;
+        for (int i = 0; ; ) {
+            if (timestamp > to) {
+                return;
+            }
+            if (timestamp >= from) {
+                consumer.accept(timestamp, Double.longBitsToDouble(valueBits));
+            }
+            if (++i == count) {
+                return;
+            }
+            delta += reader.readTimestampDelta();
+            timestamp += delta;
+            if (reader.readBit()) {
+                if (reader.readBit()) {
+                    leading = (int) reader.readBits(5);
+                    int significant = (int) reader.readBits(6);
+                    if (significant == 0) {
+                        significant = 64;
+                    }
+                    trailing = 64 - leading - significant;
+                }
+                valueBits ^= reader.readBits(64 - leading - trailing) << trailing;
+            }
+        }
+    }
+
+    private void writeTimestampDelta(long deltaOfDelta) {
+        if (deltaOfDelta == 0) {
+            writeBits(0, 1);
+        } else if (fits(deltaOfDelta, 14)) {
+            writeBits(0b10, 2);
+            writeBits(deltaOfDelta, 14);
+        } else if (fits(deltaOfDelta, 17)) {
+            writeBits(0b110, 3);
+            writeBits(deltaOfDelta, 17);
+        } else if (fits(deltaOfDelta, 20)) {
+            writeBits(0b1110, 4);
+            writeBits(deltaOfDelta, 20);
+        } else {
+            writeBits(0b1111, 4);
+            writeBits(deltaOfDelta, 64);
+        }
+    }
+
+    private void writeValueXor(long xor) {
+        if (xor == 0) {
+            writeBits(0, 1);
+            return;
+        }
+        writeBits(1, 1);
+        // The leading count is written in 5 bits
+        int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        int trailing = Long.numberOfTrailingZeros(xor);
+        if (lastLeading >= 0 && leading >= lastLeading && trailing >= lastTrailing) {
+            writeBits(0, 1);
+            writeBits(xor >>> lastTrailing, 64 - lastLeading - lastTrailing);
+            return;
+        }
+        int significant = 64 - leading - trailing;
+        writeBits(1, 1);
+        writeBits(leading, 5);
+        // 64 significant bits do not fit in 6 bits and are written as 0
+        writeBits(significant & 63, 6);
+        writeBits(xor >>> trailing, significant);
+        lastLeading = leading;
+        lastTrailing = trailing;
+    }
+
+    private static boolean fits(long value, int bits) {
+        return value >= -((1L << (bits - 1)) - 1) && value <= 1L << (bits - 1);
+    }
+
+    private void writeBits(long value, int bits) {
+        if (bits == 0) {
+            return;
+        }
+        if (bitLength + bits > words.length * 64) {
+            words = Arrays.copyOf(words, words.length * 2);
+        }
+        if (bits < 64) {
+            value &= (1L << bits) - 1;
+        }
+        int word = bitLength >>> 6;
+        int free = 64 - (bitLength & 63);
+        if (bits <= free) {
+            words[word] |= value << (free - bits);
+        } else {
+            words[word] |= value >>> (bits - free);
+            words[word + 1] |= value << (64 - (bits - free));
+        }
+        bitLength += bits;
+    }
+
+    private final class Reader {
+
+        private int position;
+
+        boolean readBit() {
+            return readBits(1) != 0;
+        }
+
+        long readBits(int bits) {
+            if (bits == 0) {
+                return 0;
+            }
+            int word = position >>> 6;
+            int offset = position & 63;
+            int free = 64 - offset;
+            long result;
+            if (bits <= free) {
+                result = (words[word] << offset) >>> (64 - bits);
+            } else {
+                int rest = bits - free;
+                result = ((words[word] << offset) >>> offset) << rest | words[word + 1] >>> (64 - rest);
+            }
+            position += bits;
+            return result;
+        }
+
+        long readTimestampDelta() {
+            int bits;
+            if (!readBit()) {
+                return 0;
+            } else if (!readBit()) {
+                bits = 14;
+            } else if (!readBit()) {
+                bits = 17;
+            } else if (!readBit()) {
+                bits = 20;
+            } else {
+                return readBits(64);
+            }
+            long value = readBits(bits);
+            // Sign extend, the encoder allows values up to 2^(bits-1)
+            return value > 1L << (bits - 1) ? value - (1L << bits) : value;
+        }
+    }
+}
@@ -0,0 +1,217 @@
+package com.upr.monitoring.centralmonitoring.store;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+import com.upr.monitoring.centralmonitoring.model.SampleStoreStats;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * In-memory store of the samples fetched by the scheduler, so recent windows
+ * can be served without querying Thanos.
+ * <p>
+ * Samples are kept per series in Gorilla-compressed chunks. Chunks older than
+ * the retention of their application and metric are dropped periodically.
+ * When the store exceeds its memory budget, the chunks with the oldest samples
+ * across all series are evicted first.
+ */
+@Service
+@Slf4j
+public class RecentSamplesStore {
+
+    private record EvictionCandidate(Map<Map<String, String>, SeriesRing> rings, SeriesRing ring,
+                                     long oldestChunkEnd) {
+    }
+
+    private final Map<String, Map<Map<String, String>, SeriesRing>> applications = new ConcurrentHashMap<>();
+
+    private final Map<String, Duration> retentionOverrides = new ConcurrentHashMap<>();
+
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    private final LongAdder evictedChunks = new LongAdder();
+
+    private final boolean enabled;
+
+    private final Duration defaultRetention;
+
+    private final long maxBytes;
+
+    public RecentSamplesStore(@Value("${metrics.store.enabled:true}") boolean enabled,
+                              @Value("${metrics.store.retention:1h}") Duration defaultRetention,
+                              @Value("${metrics.store.max-bytes:67108864}") long maxBytes) {
+        this.enabled = enabled;
+        this.defaultRetention = defaultRetention;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Stores the samples of an application's series that are newer than the ones already stored
+     * @param appId The application ID
+     * @param series The fetched series
+     */
+    public void append(String appId, List<MetricSeries> series) {
+        if (!enabled || series.isEmpty()) {
+            return;
+        }
+        // Appending inside compute keeps expiry from removing a ring or an application that is being written to
+        applications.compute(appId, (id, rings) -> {
+            if (rings == null) {
+                rings = new ConcurrentHashMap<>();
+            }
+            for (MetricSeries s : series) {
+                rings.compute(s.getLabels(), (labels, ring) -> {
+                    if (ring == null) {
+                        ring = new SeriesRing(labels);
+                        usedBytes.addAndGet(SeriesRing.OVERHEAD_BYTES);
+                    }
+                    usedBytes.addAndGet(ring.append(s));
+                    return ring;
+                });
+            }
+            return rings;
+        });
+    }
+
+    /**
+     * Reads the stored samples of an application within a time window
+     * @param appId The application ID
+     * @param from Start of the window in epoch milliseconds, inclusive
+     * @param to End of the window in epoch milliseconds, inclusive
+     * @param metricNames The metric names to return, or an empty collection for all
+     * @return One series per stored series with samples in the window
+     */
+    public List<MetricSeries> query(String appId, long from, long to, Collection<String> metricNames) {
+        Map<Map<String, String>, SeriesRing> rings = applications.get(appId);
+        if (rings == null) {
+            return List.of();
+        }
+        List<MetricSeries> result = new ArrayList<>();
+        for (SeriesRing ring : rings.values()) {
+            if (!metricNames.isEmpty() && !metricNames.contains(ring.labels().get("__name__"))) {
+                continue;
+            }
+            MetricSeries series = ring.read(from, to);
+            if (series != null) {
+                result.add(series);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sets how long samples of an application, or of one of its metrics, are kept
+     * @param appId The application ID
+     * @param metricName The metric name, or null for all metrics of the application
+     * @param retention The retention window
+     */
+    public void setRetention(String appId, String metricName, Duration retention) {
+        retentionOverrides.put(retentionKey(appId, metricName), retention);
+    }
+
+    /**
+     * @param appId The application ID
+     * @param metricName The metric name
+     * @return How long samples of the metric are kept
+     */
+    public Duration getRetention(String appId, String metricName) {
+        Duration retention = metricName != null ? retentionOverrides.get(retentionKey(appId, metricName)) : null;
+        if (retention == null) {
+            retention = retentionOverrides.get(retentionKey(appId, null));
+        }
+        return retention != null ? retention : defaultRetention;
+    }
+
+    /**
+     * Drops expired samples and evicts the oldest chunks while over the memory budget
+     */
+    @Scheduled(fixedDelayString = "${metrics.store.enforce-interval:10s}")
+    public void enforceLimits() {
+        long now = System.currentTimeMillis();
+        applications.forEach((appId, rings) -> {
+            for (SeriesRing ring : rings.values()) {
+                long cutoff = now - getRetention(appId, ring.labels().get("__name__")).toMillis();
+                usedBytes.addAndGet(-ring.expire(cutoff));
+                removeIfEmpty(rings, ring);
+            }
+            applications.computeIfPresent(appId, (id, current) -> current.isEmpty() ? null : current);
+        });
+
+        if (usedBytes.get() <= maxBytes) {
+            return;
+        }
+        PriorityQueue<EvictionCandidate> candidates =
+                new PriorityQueue<>(Comparator.comparingLong(EvictionCandidate::oldestChunkEnd));
+        applications.values().forEach(rings -> rings.values()
+                .forEach(ring -> candidates.add(new EvictionCandidate(rings, ring, ring.oldestChunkEnd()))));
+        long evicted = 0;
+        while (usedBytes.get() > maxBytes && !candidates.isEmpty()) {
+            EvictionCandidate candidate = candidates.poll();
+            SeriesRing ring = candidate.ring();
+            long freed = ring.evictOldest();
+            if (freed > 0) {
+                usedBytes.addAndGet(-freed);
+                evicted++;
+            }
+            if (ring.isEmpty()) {
+                removeIfEmpty(candidate.rings(), ring);
+            } else {
+                candidates.add(new EvictionCandidate(candidate.rings(), ring, ring.oldestChunkEnd()));
+            }
+        }
+        evictedChunks.add(evicted);
+        log.debug("Evicted {} chunks to stay within the {} byte budget of the sample store", evicted, maxBytes);
+    }
+
+    /**
+     * @return A snapshot of the store size
+     */
+    public SampleStoreStats getStats() {
+        long series = 0;
+        long samples = 0;
+        for (Map<Map<String, String>, SeriesRing> rings : applications.values()) {
+            for (SeriesRing ring : rings.values()) {
+                series++;
+                samples += ring.sampleCount();
+            }
+        }
+        long bytes = usedBytes.get();
+        return SampleStoreStats.builder()
+                .applications(applications.size())
+                .series(series)
+                .samples(samples)
+                .bytes(bytes)
+                .maxBytes(maxBytes)
+                .bytesPerSample(samples == 0 ? 0 : (double) bytes / samples)
+                .evictedChunks(evictedChunks.sum())
+                .build();
+    }
+
+    private void removeIfEmpty(Map<Map<String, String>, SeriesRing> rings, SeriesRing ring) {
+        rings.computeIfPresent(ring.labels(), (labels, current) -> {
+            if (current == ring && ring.isEmpty()) {
+                usedBytes.addAndGet(-SeriesRing.OVERHEAD_BYTES);
+                return null;
+            }
+            return current;
+        });
+    }
+
+    private static String retentionKey(String appId, String metricName) {
+        return metricName == null ? appId : appId + '\u0000' + metricName;
+    }
+}
@@ -0,0 +1,145 @@
+package com.upr.monitoring.centralmonitoring.store;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+
+/**
+ * Recent samples of one series as a queue of compressed chunks. New samples go
+ * into the newest chunk, expired chunks are dropped from the head.
+ */
+final class SeriesRing {
+
+    /** Approximate heap cost of a series besides its chunks */
+    static final long OVERHEAD_BYTES = 256;
+
+    private final Map<String, String> labels;
+
+    private final ArrayDeque<GorillaChunk> chunks = new ArrayDeque<>();
+
+    private long lastTimestamp = Long.MIN_VALUE;
+
+    SeriesRing(Map<String, String> labels) {
+        this.labels = labels;
+    }
+
+    Map<String, String> labels() {
+        return labels;
+    }
+
+    /**
+     * Appends the samples of a series that are newer than the last stored sample
+     * @param series The series to take the samples from
+     * @return The change in bytes used
+     */
+    synchronized long append(MetricSeries series) {
+        long before = chunkBytes();
+        for (int i = 0; i < series.size(); i++) {
+            long timestamp = series.getTimestamp(i);
+            if (timestamp <= lastTimestamp) {
+                continue;
+            }
+            GorillaChunk chunk = chunks.peekLast();
+            if (chunk == null || chunk.isFull()) {
+                if (chunk != null) {
+                    chunk.seal();
+                }
+                chunk = new GorillaChunk();
+                chunks.addLast(chunk);
+            }
+            chunk.append(timestamp, series.getValue(i));
+            lastTimestamp = timestamp;
+        }
+        return chunkBytes() - before;
+    }
+
+    /**
+     * Drops chunks whose samples are all older than the cutoff
+     * @param cutoff The oldest timestamp to keep in epoch milliseconds
+     * @return The number of bytes freed
+     */
+    synchronized long expire(long cutoff) {
+        long freed = 0;
+        while (!chunks.isEmpty() && chunks.peekFirst().lastTimestamp() < cutoff) {
+            freed += chunks.removeFirst().sizeBytes();
+        }
+        return freed;
+    }
+
+    /**
+     * Drops the oldest chunk
+     * @return The number of bytes freed
+     */
+    synchronized long evictOldest() {
+        GorillaChunk chunk = chunks.pollFirst();
+        return chunk == null ? 0 : chunk.sizeBytes();
+    }
+
+    /**
+     * @return The end timestamp of the oldest chunk, or {@link Long#MAX_VALUE} if empty
+     */
+    synchronized long oldestChunkEnd() {
+        GorillaChunk chunk = chunks.peekFirst();
+        return chunk == null ? Long.MAX_VALUE : chunk.lastTimestamp();
+    }
+
+    synchronized boolean isEmpty() {
+        return chunks.isEmpty();
+    }
+
+    synchronized int sampleCount() {
+        int samples = 0;
+        for (GorillaChunk chunk : chunks) {
+            samples += chunk.count();
+        }
+        return samples;
+    }
+
+    synchronized long chunkBytes() {
+        long bytes = 0;
+        for (GorillaChunk chunk : chunks) {
+            bytes += chunk.sizeBytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * Decodes the samples within a time window
+     * @param from Start of the window in epoch milliseconds, inclusive
+     * @param to End of the window in epoch milliseconds, inclusive
+     * @return The samples as a series, or null if there are none in the window
+     */
+    synchronized MetricSeries read(long from, long to) {
+        SampleCollector collector = new SampleCollector();
+        for (GorillaChunk chunk : chunks) {
+            chunk.forEach(from, to, collector);
+        }
+        if (collector.size == 0) {
+            return null;
+        }
+        return new MetricSeries(labels, Arrays.copyOf(collector.timestamps, collector.size),
+                Arrays.copyOf(collector.values, collector.size));
+    }
+
+    private static final class SampleCollector implements GorillaChunk.SampleConsumer {
+
+        private long[] timestamps = new long[16];
+
+        private double[] values = new double[16];
+
+        private int size;
+
+        @Override
+        public void accept(long timestamp, double value) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                values = Arrays.copyOf(values, size * 2);
+            }
+            timestamps[size] = timestamp;
+            values[size] = value;
+            size++;
+        }
+    }
+}
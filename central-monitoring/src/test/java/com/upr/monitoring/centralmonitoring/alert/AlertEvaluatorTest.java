@@ -0,0 +1,142 @@
+package com.upr.monitoring.centralmonitoring.alert;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.upr.monitoring.centralmonitoring.model.AlertEvent;
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+import com.upr.monitoring.centralmonitoring.service.CounterRateStage;
+import com.upr.monitoring.centralmonitoring.service.RabbitMetricsPublisher;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Drives the evaluator with hand-made samples and checks the events it publishes.
+ */
+class AlertEvaluatorTest {
+
+    private static final String APP = "user-service";
+
+    private final ObjectMapper objectMapper = JsonMapper.builder().findAndAddModules().build();
+
+    private final List<AlertEvent> published = new ArrayList<>();
+
+    private AlertEvaluator evaluator;
+
+    private final RabbitMetricsPublisher publisher = mock(RabbitMetricsPublisher.class);
+
+    @BeforeEach
+    void setUp() {
+        doAnswer(invocation -> {
+            published.add(objectMapper.readValue((byte[]) invocation.getArgument(1), AlertEvent.class));
+            return null;
+        }).when(publisher).publishJson(eq("alerts." + APP), any());
+        evaluator = evaluator(CounterRateStage.Mode.ALONGSIDE);
+    }
+
+    private AlertEvaluator evaluator(CounterRateStage.Mode rateMode) {
+        return new AlertEvaluator(publisher, objectMapper, new SimpleMeterRegistry(), true, "alerts.",
+                Duration.ofMinutes(5), rateMode);
+    }
+
+    @Test
+    void firesAfterForDurationAndResolves() {
+        evaluator.setRules(APP, List.of(Map.of(
+                "alert", "HighMemory",
+                "expr", "container_memory_rss{pod=~\"api-.*\"} > 100",
+                "for", "1m",
+                "labels", Map.of("severity", "warning"),
+                "annotations", Map.of("summary", "{{ $labels.pod }} uses {{ $value }} bytes"))));
+        long now = System.currentTimeMillis();
+
+        evaluator.evaluate(APP, List.of(series("container_memory_rss", "api-1", now - 90_000, 150)));
+        assertTrue(published.isEmpty(), "pending only");
+        assertEquals("pending", evaluator.getActiveAlerts(APP).get(0).getStatus());
+
+        // Already delivered samples are not evaluated again
+        evaluator.evaluate(APP, List.of(series("container_memory_rss", "api-1", now - 90_000, 150)));
+        evaluator.evaluate(APP, List.of(series("container_memory_rss", "other", now - 20_000, 500)));
+        evaluator.evaluate(APP, List.of(series("container_memory_rss", "api-1", now - 20_000, 200)));
+        assertEquals(1, published.size());
+        AlertEvent fired = published.get(0);
+        assertEquals("firing", fired.getStatus());
+        assertEquals("warning", fired.getLabels().get("severity"));
+        assertEquals("HighMemory", fired.getLabels().get("alertname"));
+        assertEquals("api-1 uses 200 bytes", fired.getAnnotations().get("summary"));
+
+        evaluator.evaluate(APP, List.of(series("container_memory_rss", "api-1", now, 50)));
+        assertEquals(2, published.size());
+        assertEquals("resolved", published.get(1).getStatus());
+        assertTrue(evaluator.getActiveAlerts(APP).isEmpty());
+    }
+
+    @Test
+    void rateRulesUseRateSeriesAndRemovedRulesResolve() {
+        Map<String, Object> rule = Map.of("alert", "Restarts",
+                "expr", "rate(kube_pod_container_status_restarts_total[5m]) >= 1");
+        evaluator.setRules(APP, List.of(rule));
+        evaluator.evaluate(APP, List.of(series("kube_pod_container_status_restarts:rate", "api-1",
+                System.currentTimeMillis(), 2)));
+        assertEquals("firing", published.get(0).getStatus());
+
+        // Rules the evaluator cannot compile are left to the Thanos ruler
+        assertEquals(0, evaluator.setRules(APP, List.of(Map.of("alert", "Absent", "expr", "absent(up) == 1"))));
+        assertEquals("resolved", published.get(1).getStatus());
+    }
+
+    @Test
+    void rateRulesAreLeftToRulerWhileRatesAreOff() {
+        AlertEvaluator withoutRates = evaluator(CounterRateStage.Mode.OFF);
+
+        assertEquals(1, withoutRates.setRules(APP, List.of(
+                Map.of("alert", "Restarts", "expr", "rate(kube_pod_container_status_restarts_total[5m]) >= 1"),
+                Map.of("alert", "HighMemory", "expr", "container_memory_rss > 100"))));
+        withoutRates.evaluate(APP, List.of(series("kube_pod_container_status_restarts:rate", "api-1",
+                System.currentTimeMillis(), 2)));
+        assertTrue(published.isEmpty());
+    }
+
+    @Test
+    void staleSeriesAreResolvedBySweep() {
+        evaluator.setRules(APP, List.of(Map.of("alert", "HighMemory", "expr", "container_memory_rss > 100")));
+        evaluator.evaluate(APP, List.of(series("container_memory_rss", "api-1",
+                System.currentTimeMillis() - Duration.ofMinutes(10).toMillis(), 150)));
+        assertEquals(List.of("firing"), published.stream().map(AlertEvent::getStatus).toList());
+
+        evaluator.resolveStale();
+
+        assertEquals(List.of("firing", "resolved"), published.stream().map(AlertEvent::getStatus).toList());
+        assertTrue(evaluator.getActiveAlerts(APP).isEmpty());
+    }
+
+    @Test
+    void rejectsExpressionsThatAreNotThresholds() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ThresholdRule.compile(Map.of("alert", "A", "expr", "sum(rate(x[5m])) > 1")));
+        assertThrows(IllegalArgumentException.class,
+                () -> ThresholdRule.compile(Map.of("alert", "A", "expr", "x[5m] > 1")));
+        assertThrows(IllegalArgumentException.class,
+                () -> ThresholdRule.compile(Map.of("record", "r", "expr", "x > 1")));
+        assertEquals(5_400_000, ThresholdRule.parseDuration("1h30m"));
+    }
+
+    private static MetricSeries series(String name, String pod, long timestamp, double value) {
+        return new MetricSeries(Map.of("__name__", name, "application_id", APP, "pod", pod),
+                new long[]{timestamp}, new double[]{value});
+    }
+}
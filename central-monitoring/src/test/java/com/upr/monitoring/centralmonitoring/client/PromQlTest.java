@@ -0,0 +1,46 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that label values end up in selectors as literals, whatever characters they contain.
+ */
+class PromQlTest {
+
+    @Test
+    void escapesRegexMetacharacters() {
+        assertEquals("svc\\.prod", PromQl.escapeRegex("svc.prod"));
+        assertEquals("a\\|b\\(c\\)\\[d\\]\\{e\\}\\^\\$\\*\\+\\?\\\\", PromQl.escapeRegex("a|b(c)[d]{e}^$*+?\\"));
+        assertEquals("plain-app_1", PromQl.escapeRegex("plain-app_1"));
+    }
+
+    @Test
+    void alternationMatchesOnlyTheLiteralValues() {
+        String alternation = PromQl.alternation(List.of("svc.prod", "a|b"));
+        assertEquals("\"svc\\\\.prod|a\\\\|b\"", alternation);
+
+        // Undo the string literal quoting to get the regex Thanos evaluates
+        String regex = alternation.substring(1, alternation.length() - 1).replace("\\\\", "\\");
+        Pattern pattern = Pattern.compile(regex);
+        assertTrue(pattern.matcher("svc.prod").matches());
+        assertTrue(pattern.matcher("a|b").matches());
+        assertFalse(pattern.matcher("svcXprod").matches());
+        assertFalse(pattern.matcher("a").matches());
+    }
+
+    @Test
+    void selectorsQuoteApplicationIds() {
+        assertEquals("{application_id=\"my\\\"app\"}", PromQl.applicationSelector("my\"app", List.of()));
+        assertEquals("{__name__=~\"cpu|memory\",application_id=\"svc.prod\"}",
+                PromQl.applicationSelector("svc.prod", List.of("cpu", "memory")));
+        assertEquals("{__name__=~\"http_requests_total\",application_id=~\"svc\\\\.prod|svc\\\\.test\"}",
+                PromQl.batchSelector(List.of("svc.prod", "svc.test"), List.of("http_requests_total")));
+    }
+}
@@ -0,0 +1,79 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks how applications are split into batch queries and that every batch URL stays within its budget.
+ */
+class QueryBatchPlannerTest {
+
+    private static final String URI_PREFIX = "http://thanos.example:10904/api/v1/query?query=";
+
+    @Test
+    void splitsByMaxApps() {
+        QueryBatchPlanner planner = new QueryBatchPlanner(2, 6000, 50000);
+
+        List<Map<String, List<String>>> batches = planner.plan(apps(5, "app-", List.of("cpu")), URI_PREFIX.length());
+
+        assertEquals(List.of(List.of("app-0", "app-1"), List.of("app-2", "app-3"), List.of("app-4")), ids(batches));
+    }
+
+    @Test
+    void halvesMaxAppsAfterFailure() {
+        QueryBatchPlanner planner = new QueryBatchPlanner(4, 6000, 50000);
+        planner.onFailure();
+
+        assertEquals(List.of(2, 2), sizes(planner.plan(apps(4, "app-", List.of("cpu")), URI_PREFIX.length())));
+    }
+
+    @Test
+    void splitsByQueryLengthAndStaysWithinIt() {
+        int maxQueryLength = 400;
+        QueryBatchPlanner planner = new QueryBatchPlanner(200, maxQueryLength, 50000);
+        // Metacharacters grow once escaped and again once encoded
+        Map<String, List<String>> appMetrics = apps(20, "team.payments|service(",
+                List.of("http_server_requests_seconds_count", "jvm_memory_used_bytes"));
+
+        List<Map<String, List<String>>> batches = planner.plan(appMetrics, URI_PREFIX.length());
+
+        assertTrue(batches.size() > 1, "expected the applications to be split, got " + sizes(batches));
+        List<String> planned = new ArrayList<>();
+        for (Map<String, List<String>> batch : batches) {
+            planned.addAll(batch.keySet());
+            Set<String> metricNames = new LinkedHashSet<>();
+            batch.values().forEach(metricNames::addAll);
+            String uri = URI_PREFIX + URLEncoder.encode(
+                    PromQl.batchSelector(batch.keySet(), metricNames), StandardCharsets.UTF_8);
+            assertTrue(uri.length() <= maxQueryLength, "batch URL of " + uri.length() + " characters");
+        }
+        assertEquals(List.copyOf(appMetrics.keySet()), planned);
+    }
+
+    private static Map<String, List<String>> apps(int count, String prefix, List<String> metrics) {
+        Map<String, List<String>> appMetrics = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            appMetrics.put(prefix + i, metrics);
+        }
+        return appMetrics;
+    }
+
+    private static List<List<String>> ids(List<Map<String, List<String>>> batches) {
+        return batches.stream().map(batch -> List.copyOf(batch.keySet())).toList();
+    }
+
+    private static List<Integer> sizes(List<Map<String, List<String>>> batches) {
+        return batches.stream().map(Map::size).toList();
+    }
+}
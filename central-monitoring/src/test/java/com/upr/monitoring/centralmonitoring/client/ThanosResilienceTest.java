@@ -0,0 +1,288 @@
+package com.upr.monitoring.centralmonitoring.client;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import com.upr.monitoring.centralmonitoring.client.ThanosResilience.Traffic;
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+import com.upr.monitoring.centralmonitoring.model.ThanosQueryResult;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Exercises the resilience layer against a local stub Thanos whose latency and status can be changed per test.
+ */
+class ThanosResilienceTest {
+
+    private static final byte[] LABEL_VALUES = "{\"status\":\"success\",\"data\":[\"app-1\",\"app-2\"]}"
+            .getBytes(StandardCharsets.UTF_8);
+
+    private static final byte[] VECTOR = ("{\"status\":\"success\",\"data\":{\"resultType\":\"vector\",\"result\":["
+            + "{\"metric\":{\"__name__\":\"cpu\",\"application_id\":\"app-1\"},\"value\":[1700000000,\"1\"]},"
+            + "{\"metric\":{\"__name__\":\"memory\",\"application_id\":\"app-1\"},\"value\":[1700000000,\"2\"]},"
+            + "{\"metric\":{\"__name__\":\"cpu\",\"application_id\":\"app-2\"},\"value\":[1700000000,\"3\"]}]}}")
+            .getBytes(StandardCharsets.UTF_8);
+
+    private HttpServer stub;
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private volatile long delayMillis;
+
+    private volatile int status = 200;
+
+    private final AtomicBoolean slowNext = new AtomicBoolean();
+
+    private volatile long slowMillis = 1500;
+
+    private HttpTransport transport;
+
+    private ThanosResilience resilience;
+
+    private ThanosClient client;
+
+    private final MeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @BeforeEach
+    void startStub() throws IOException {
+        stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        stub.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        stub.createContext("/", this::handle);
+        stub.createContext("/stalled", this::stall);
+        stub.start();
+
+        transport = new HttpTransport(Duration.ofSeconds(1), Duration.ofSeconds(2));
+        resilience = new ThanosResilience(meterRegistry, true, Duration.ofSeconds(2),
+                Duration.ofMillis(100), 3, 10,
+                true, Duration.ofMillis(20), 1.0,
+                10, 5, 0.5, Duration.ofMillis(300), 2,
+                2, Duration.ofMillis(50), 2, Duration.ofMillis(50), 1, Duration.ofMillis(50));
+        client = new ThanosClient(transport, resilience, meterRegistry, 100, Duration.ofSeconds(5), 200, 6000, 50000);
+        ReflectionTestUtils.setField(client, "thanosBaseUrl",
+                "http://127.0.0.1:" + stub.getAddress().getPort());
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.stop(0);
+        resilience.shutdown();
+        transport.shutdown();
+    }
+
+    @Test
+    void adaptiveTimeoutCutsOffCallsFarSlowerThanUsual() {
+        warmUp();
+        delayMillis = 1500;
+
+        long start = System.nanoTime();
+        assertThrows(HttpTransportException.class, client::fetchApplicationIdLabelValues);
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 1000, "timed out after " + elapsedMillis + " ms instead of the adapted timeout");
+        assertTrue(resilience.getStats().getEndpoints().get("/api/v1/label/application_id/values").getTimeouts() > 0);
+    }
+
+    @Test
+    void hedgedRequestAnswersSlowOutlier() throws InterruptedException {
+        warmUp();
+        // A hedge may already have won while warming up on a busy machine
+        long hedgeWins = resilience.getStats().getEndpoints().get("/api/v1/label/application_id/values").getHedgeWins();
+        slowNext.set(true);
+
+        long start = System.nanoTime();
+        assertEquals(List.of("app-1", "app-2"), client.fetchApplicationIdLabelValues());
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue(elapsedMillis < 1000, "answered after " + elapsedMillis + " ms");
+        assertEquals(hedgeWins + 1,
+                resilience.getStats().getEndpoints().get("/api/v1/label/application_id/values").getHedgeWins());
+
+        // The slow attempt is cancelled instead of running on, which frees its bulkhead slot
+        Thread.sleep(100);
+        assertEquals(0, resilience.getStats().getBulkheads().get("interactive").getInUse());
+    }
+
+    @Test
+    void cancellingHedgedCallCancelsBothAttempts() throws InterruptedException {
+        warmUp();
+        List<CompletableFuture<List<String>>> attempts = new CopyOnWriteArrayList<>();
+        CompletableFuture<List<String>> call = resilience.call("/api/v1/label/application_id/values", null,
+                timeout -> {
+                    CompletableFuture<List<String>> attempt = new CompletableFuture<>();
+                    attempts.add(attempt);
+                    return attempt;
+                });
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (attempts.size() < 2 && System.nanoTime() < deadline) {
+            Thread.sleep(5);
+        }
+        assertEquals(2, attempts.size(), "the call was not hedged");
+
+        call.cancel(true);
+
+        assertTrue(attempts.stream().allMatch(CompletableFuture::isCancelled));
+        assertEquals(0, resilience.getStats().getBulkheads().get("interactive").getInUse());
+    }
+
+    @Test
+    void hedgedBatchQueryKeepsEverySeriesOnce() throws InterruptedException {
+        Map<String, List<String>> batch = Map.of("app-1", List.of("cpu", "memory"), "app-2", List.of("cpu"));
+        for (int i = 0; i < 20; i++) {
+            client.fetchSpecificMetricsBatch(batch);
+        }
+        // Slow enough to be hedged, fast enough to answer within its timeout
+        slowMillis = (long) (2 * resilience.getStats().getEndpoints().get("/api/v1/query:batch").getP99Ms());
+        long hedgeWins = resilience.getStats().getEndpoints().get("/api/v1/query:batch").getHedgeWins();
+        slowNext.set(true);
+
+        Map<String, ThanosQueryResult> results = client.fetchSpecificMetricsBatch(batch);
+        // Let the slow attempt deliver and parse its response before looking at the result
+        Thread.sleep(slowMillis + 200);
+
+        assertEquals(List.of("cpu", "memory"), names(results.get("app-1")));
+        assertEquals(List.of("cpu"), names(results.get("app-2")));
+        assertEquals(hedgeWins + 1, resilience.getStats().getEndpoints().get("/api/v1/query:batch").getHedgeWins());
+    }
+
+    @Test
+    void circuitOpensOnFailuresAndClosesAfterSuccessfulProbes() throws InterruptedException {
+        status = 500;
+        for (int i = 0; i < 5; i++) {
+            assertThrows(HttpTransportException.class, client::fetchApplicationIdLabelValues);
+        }
+        assertEquals("OPEN", resilience.getStats().getCircuitState());
+
+        int before = requests.get();
+        assertThrows(ThanosUnavailableException.class, client::fetchApplicationIdLabelValues);
+        assertEquals(before, requests.get(), "an open circuit must not reach Thanos");
+
+        status = 200;
+        Thread.sleep(350);
+        assertEquals("HALF_OPEN", resilience.getStats().getCircuitState());
+        client.fetchApplicationIdLabelValues();
+        client.fetchApplicationIdLabelValues();
+        assertEquals("CLOSED", resilience.getStats().getCircuitState());
+    }
+
+    @Test
+    void fullScheduledBulkheadDoesNotBlockInteractiveCalls() throws Exception {
+        delayMillis = 500;
+        List<CompletableFuture<List<String>>> scheduled = List.of(scheduledCall(), scheduledCall());
+        while (inFlight.get() < 2) {
+            Thread.sleep(5);
+        }
+
+        assertThrows(ThanosUnavailableException.class,
+                () -> ThanosResilience.callAs(Traffic.SCHEDULED, client::fetchApplicationIdLabelValues));
+        assertEquals(List.of("app-1", "app-2"), client.fetchApplicationIdLabelValues());
+        for (CompletableFuture<List<String>> call : scheduled) {
+            assertEquals(List.of("app-1", "app-2"), call.get());
+        }
+        assertEquals(1, resilience.getStats().getBulkheads().get("scheduled").getRejected());
+        assertEquals(0, resilience.getStats().getBulkheads().get("interactive").getRejected());
+    }
+
+    @Test
+    void timeoutClosesStalledBodyAndStopsReader() throws Exception {
+        CountDownLatch readerDone = new CountDownLatch(1);
+        CompletableFuture<byte[]> call = transport.get(
+                URI.create("http://127.0.0.1:" + stub.getAddress().getPort() + "/stalled"),
+                Duration.ofMillis(200), body -> {
+                    try {
+                        return body.readAllBytes();
+                    } finally {
+                        readerDone.countDown();
+                    }
+                });
+
+        ExecutionException failure = assertThrows(ExecutionException.class, call::get);
+        assertTrue(failure.getCause() instanceof TimeoutException, failure.getCause().toString());
+        assertTrue(readerDone.await(1, TimeUnit.SECONDS), "reader still blocked on the stalled body");
+    }
+
+    private CompletableFuture<List<String>> scheduledCall() {
+        return CompletableFuture.supplyAsync(
+                () -> ThanosResilience.callAs(Traffic.SCHEDULED, client::fetchApplicationIdLabelValues),
+                Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    private static List<String> names(ThanosQueryResult result) {
+        return result.getSeries().stream().map(MetricSeries::getName).sorted().toList();
+    }
+
+    private void warmUp() {
+        for (int i = 0; i < 20; i++) {
+            client.fetchApplicationIdLabelValues();
+        }
+    }
+
+    private void stall(HttpExchange exchange) throws IOException {
+        try {
+            exchange.sendResponseHeaders(200, 0);
+            OutputStream out = exchange.getResponseBody();
+            out.write("{\"status\":".getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            Thread.sleep(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The client closed the stalled body
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        inFlight.incrementAndGet();
+        try {
+            long delay = slowNext.compareAndSet(true, false) ? slowMillis : delayMillis;
+            if (delay > 0) {
+                Thread.sleep(delay);
+            }
+            byte[] ok = exchange.getRequestURI().getPath().equals("/api/v1/query") ? VECTOR : LABEL_VALUES;
+            byte[] body = status == 200 ? ok : "{\"status\":\"error\"}".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The client gave up on a slow response
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.upr.monitoring.centralmonitoring.codec;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+
+/**
+ * Round-trips snapshots through the binary format, including the edges of its varint encodings.
+ */
+class BinaryMetricsCodecTest {
+
+    private static final long COLLECTED_AT = 1_700_000_000_000L;
+
+    @Test
+    void roundTripsVarintAndZigZagBoundaries() {
+        // Deltas around the 1, 2, 3 and 9 byte varint limits, in both directions
+        long[] deltas = {0, 63, 64, -64, -65, 8191, 8192, -8192, -8193, 1_048_575, 1_048_576,
+                Long.MAX_VALUE / 2, -(Long.MAX_VALUE / 2) - 1};
+        long[] timestamps = new long[deltas.length];
+        long previous = COLLECTED_AT;
+        for (int i = 0; i < deltas.length; i++) {
+            previous += deltas[i];
+            timestamps[i] = previous;
+        }
+        MetricSeries series = new MetricSeries(Map.of("__name__", "up"), timestamps, new double[deltas.length]);
+
+        for (long sequence : new long[]{0, 127, 128, 16_383, 16_384, Long.MAX_VALUE}) {
+            MetricsSnapshot decoded = roundTrip(new MetricsSnapshot("app", COLLECTED_AT, sequence, false, 1,
+                    List.of(series)));
+            assertEquals(sequence, decoded.sequence());
+            assertArrayEquals(timestamps, timestamps(decoded.series().get(0)));
+        }
+    }
+
+    @Test
+    void roundTripsNegativeDeltasAndSpecialValues() {
+        long[] timestamps = {COLLECTED_AT - 60_000, COLLECTED_AT - 90_000, 0, COLLECTED_AT + 15_000, COLLECTED_AT};
+        double[] values = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, -0.0, Double.MIN_VALUE};
+        MetricsSnapshot snapshot = new MetricsSnapshot("user-service", COLLECTED_AT, 42, true, 7,
+                List.of(new MetricSeries(Map.of("__name__", "cpu", "pod", "api-1"), timestamps, values)));
+
+        MetricsSnapshot decoded = roundTrip(snapshot);
+
+        assertEquals("user-service", decoded.applicationId());
+        assertEquals(COLLECTED_AT, decoded.collectedAt());
+        assertEquals(42, decoded.sequence());
+        assertTrue(decoded.keyframe());
+        assertEquals(7, decoded.totalCount());
+        MetricSeries series = decoded.series().get(0);
+        assertEquals(Map.of("__name__", "cpu", "pod", "api-1"), series.getLabels());
+        assertArrayEquals(timestamps, timestamps(series));
+        for (int i = 0; i < values.length; i++) {
+            // Bit patterns, so NaN and the sign of zero are compared too
+            assertEquals(Double.doubleToRawLongBits(values[i]), Double.doubleToRawLongBits(series.getValue(i)));
+        }
+    }
+
+    @Test
+    void writesSharedLabelsOnceInTheDictionary() {
+        List<MetricSeries> series = List.of(
+                new MetricSeries(Map.of("__name__", "cpu", "namespace", "production-eu-west"),
+                        new long[]{COLLECTED_AT}, new double[]{1}),
+                new MetricSeries(Map.of("__name__", "memory", "namespace", "production-eu-west"),
+                        new long[]{COLLECTED_AT}, new double[]{2}),
+                new MetricSeries(Map.of("__name__", "cpu", "namespace", "staging"),
+                        new long[]{COLLECTED_AT}, new double[]{3}));
+        byte[] message = BinaryMetricsCodec.encode(new MetricsSnapshot("app", COLLECTED_AT, 1, true, 3, series));
+
+        assertEquals(1, occurrences(message, "production-eu-west"));
+        assertEquals(1, occurrences(message, "namespace"));
+        MetricsSnapshot decoded = BinaryMetricsCodec.decode(message);
+        for (int i = 0; i < series.size(); i++) {
+            assertEquals(series.get(i).getLabels(), decoded.series().get(i).getLabels());
+            assertEquals(series.get(i).getValue(0), decoded.series().get(i).getValue(0));
+        }
+    }
+
+    @Test
+    void rejectsUnknownVersionAndCorruptMessages() {
+        byte[] message = BinaryMetricsCodec.encode(new MetricsSnapshot("app", COLLECTED_AT, 1, true, 0, List.of()));
+
+        byte[] future = message.clone();
+        future[2] = BinaryMetricsCodec.VERSION + 1;
+        IllegalArgumentException unsupported = assertThrows(IllegalArgumentException.class,
+                () -> BinaryMetricsCodec.decode(future));
+        assertTrue(unsupported.getMessage().contains("version"), unsupported.getMessage());
+
+        byte[] notMetrics = message.clone();
+        notMetrics[0] = '{';
+        assertThrows(IllegalArgumentException.class, () -> BinaryMetricsCodec.decode(notMetrics));
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryMetricsCodec.decode(Arrays.copyOf(message, message.length - 1)));
+    }
+
+    private static MetricsSnapshot roundTrip(MetricsSnapshot snapshot) {
+        return BinaryMetricsCodec.decode(BinaryMetricsCodec.encode(snapshot));
+    }
+
+    private static long[] timestamps(MetricSeries series) {
+        long[] timestamps = new long[series.size()];
+        for (int i = 0; i < timestamps.length; i++) {
+            timestamps[i] = series.getTimestamp(i);
+        }
+        return timestamps;
+    }
+
+    private static int occurrences(byte[] message, String text) {
+        byte[] needle = text.getBytes(StandardCharsets.UTF_8);
+        int count = 0;
+        for (int i = 0; i + needle.length <= message.length; i++) {
+            if (Arrays.equals(message, i, i + needle.length, needle, 0, needle.length)) {
+                count++;
+            }
+        }
+        return count;
+    }
+}
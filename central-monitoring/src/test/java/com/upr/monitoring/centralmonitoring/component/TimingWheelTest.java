@@ -0,0 +1,95 @@
+package com.upr.monitoring.centralmonitoring.component;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Steps small wheels tick by tick to check when timeouts expire.
+ */
+class TimingWheelTest {
+
+    // 8 slots and 3 levels span 8, 64 and 512 ticks
+    private static final int WHEEL_SIZE = 8;
+
+    private static final int LEVELS = 3;
+
+    private static final long MAX_DELAY = 511;
+
+    @Test
+    void expiresExactlyAtDeadlinesAcrossLevelBoundaries() {
+        long[] delays = {1, 7, 8, 9, 15, 16, 56, 63, 64, 65, 127, 128, 200, 448, 511};
+        // Starting mid-rotation moves the deadlines onto different slots of every level
+        for (long start : new long[]{0, 1, 5, 7, 8, 63, 64, 100}) {
+            TimingWheel<Long> wheel = new TimingWheel<>(1, WHEEL_SIZE, LEVELS, 0);
+            wheel.advance(start);
+            for (long delay : delays) {
+                wheel.schedule(start + delay, start + delay);
+            }
+
+            Map<Long, Long> expiredAt = stepUntil(wheel, start + MAX_DELAY + 10);
+
+            for (long delay : delays) {
+                assertEquals(start + delay, expiredAt.get(start + delay),
+                        "deadline " + (start + delay) + " scheduled at " + start);
+            }
+            assertEquals(0, wheel.size());
+        }
+    }
+
+    @Test
+    void capsDelaysToTheTopLevelSpan() {
+        TimingWheel<String> wheel = new TimingWheel<>(1, WHEEL_SIZE, LEVELS, 0);
+        wheel.advance(37);
+        wheel.schedule("far", 37 + 10_000);
+
+        assertTrue(wheel.advance(37 + MAX_DELAY - 1).isEmpty());
+        List<TimingWheel.Timeout<String>> expired = wheel.advance(37 + MAX_DELAY);
+        assertEquals(1, expired.size());
+        assertEquals("far", expired.get(0).getPayload());
+    }
+
+    @Test
+    void roundsUpToWholeTicksAndNeverExpiresInThePast() {
+        TimingWheel<String> wheel = new TimingWheel<>(10, WHEEL_SIZE, LEVELS, 1_000);
+        wheel.schedule("partial", 1_015);
+        wheel.schedule("past", 500);
+
+        List<TimingWheel.Timeout<String>> first = wheel.advance(1_010);
+        assertEquals(List.of("past"), first.stream().map(TimingWheel.Timeout::getPayload).toList());
+        assertTrue(wheel.advance(1_019).isEmpty());
+        assertEquals("partial", wheel.advance(1_020).get(0).getPayload());
+        assertEquals(1_030, wheel.nextTickMillis());
+    }
+
+    @Test
+    void skipsCancelledTimeoutsAndReturnsTheRestInDeadlineOrder() {
+        TimingWheel<Integer> wheel = new TimingWheel<>(1, WHEEL_SIZE, LEVELS, 0);
+        List<TimingWheel.Timeout<Integer>> timeouts = new ArrayList<>();
+        for (int deadline : new int[]{300, 5, 70, 9, 64}) {
+            timeouts.add(wheel.schedule(deadline, deadline));
+        }
+        timeouts.get(2).cancel();
+
+        List<Integer> expired = wheel.advance(400).stream().map(TimingWheel.Timeout::getPayload).toList();
+
+        assertEquals(List.of(5, 9, 64, 300), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    private static Map<Long, Long> stepUntil(TimingWheel<Long> wheel, long end) {
+        Map<Long, Long> expiredAt = new HashMap<>();
+        for (long now = 0; now <= end; now++) {
+            for (TimingWheel.Timeout<Long> timeout : wheel.advance(now)) {
+                expiredAt.putIfAbsent(timeout.getPayload(), now);
+            }
+        }
+        return expiredAt;
+    }
+}
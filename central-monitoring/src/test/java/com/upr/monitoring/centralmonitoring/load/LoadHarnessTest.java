@@ -0,0 +1,259 @@
+package com.upr.monitoring.centralmonitoring.load;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.apache.kafka.clients.consumer.Consumer;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.http.MediaType;
+import org.springframework.kafka.core.DefaultKafkaConsumerFactory;
+import org.springframework.kafka.test.EmbeddedKafkaBroker;
+import org.springframework.kafka.test.context.EmbeddedKafka;
+import org.springframework.kafka.test.utils.KafkaTestUtils;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+
+import com.upr.monitoring.centralmonitoring.service.ApplicationRegistry;
+import com.upr.monitoring.centralmonitoring.service.KafkaMetricsPublisher;
+import com.upr.monitoring.centralmonitoring.service.MetricsFetchEngine;
+import com.upr.monitoring.centralmonitoring.service.MetricsFetchEngine.Outcome;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Drives the whole application at production scale without Thanos or brokers.
+ * <p>
+ * Thanos is replaced by {@link ThanosStub}, Kafka by an embedded broker and
+ * RabbitMQ by {@link RecordingRabbitTemplate}. The driver registers every
+ * application of the stub through the REST API, then runs fetch cycles over
+ * all of them and reports registration time, cycle duration, publish
+ * throughput and heap usage. It is tagged {@code load} and only runs with
+ * the load profile. The scale is set with system properties, e.g.
+ * {@code ./mvnw -Pload test -Dload.applications=2000}:
+ * <ul>
+ * <li>{@code load.applications}: registered applications, 10000 by default</li>
+ * <li>{@code load.series-per-metric}: series of every metric and application, 3 by default</li>
+ * <li>{@code load.cycles}: fetch cycles to measure, 3 by default</li>
+ * <li>{@code load.latency} and {@code load.jitter}: Thanos response delay, 5ms and 10ms by default</li>
+ * <li>{@code load.rollups}: whether rollups are maintained, false by default</li>
+ * </ul>
+ */
+@Slf4j
+@SpringBootTest(properties = {
+        "spring.kafka.bootstrap-servers=${spring.embedded.kafka.brokers}",
+        // The driver runs the cycles itself
+        "metrics.scheduler.enabled=false",
+        "metrics.persistence.enabled=false",
+        // A week of rollup buckets costs about 20 KB per series, far beyond a test heap at 10k applications
+        "metrics.rollup.enabled=${load.rollups:false}"
+})
+@AutoConfigureMockMvc
+@EmbeddedKafka(partitions = 8, topics = LoadHarnessTest.TOPIC)
+@Tag("load")
+class LoadHarnessTest {
+
+    static final String TOPIC = "metrics-topic";
+
+    private static final int APPLICATIONS = Integer.getInteger("load.applications", 10_000);
+
+    private static final int SERIES_PER_METRIC = Integer.getInteger("load.series-per-metric", 3);
+
+    private static final int CYCLES = Integer.getInteger("load.cycles", 3);
+
+    private static final int REGISTRATION_THREADS = 16;
+
+    private static final Duration PUBLISH_TIMEOUT = Duration.ofMinutes(2);
+
+    private static final List<String> METRIC_NAMES = List.of(
+            "container_cpu_usage_seconds_total",
+            "container_memory_working_set_bytes",
+            "container_memory_rss",
+            "container_fs_reads_bytes_total",
+            "container_fs_writes_bytes_total",
+            "container_network_receive_bytes_total",
+            "container_network_transmit_bytes_total",
+            "kube_pod_container_status_restarts_total");
+
+    private static ThanosStub thanos;
+
+    @TestConfiguration
+    static class BrokerStandIns {
+
+        @Bean
+        RecordingRabbitTemplate rabbitTemplate() {
+            return new RecordingRabbitTemplate();
+        }
+    }
+
+    @DynamicPropertySource
+    static void thanosProperties(DynamicPropertyRegistry registry) throws IOException {
+        thanos = new ThanosStub(APPLICATIONS, METRIC_NAMES, SERIES_PER_METRIC);
+        thanos.setLatency(Duration.parse("PT" + System.getProperty("load.latency", "0.005S")),
+                Duration.parse("PT" + System.getProperty("load.jitter", "0.010S")));
+        registry.add("thanos.base-url", thanos::getBaseUrl);
+    }
+
+    @AfterAll
+    static void stopThanos() {
+        thanos.close();
+    }
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private MetricsFetchEngine fetchEngine;
+
+    @Autowired
+    private ApplicationRegistry applicationRegistry;
+
+    @Autowired
+    private KafkaMetricsPublisher kafkaPublisher;
+
+    @Autowired
+    private RecordingRabbitTemplate rabbitTemplate;
+
+    @Autowired
+    private EmbeddedKafkaBroker broker;
+
+    @Test
+    void fetchesAndPublishesEveryApplicationEachCycle() throws Exception {
+        long heapBefore = usedHeapAfterGc();
+
+        long start = System.nanoTime();
+        registerAll(thanos.getApplicationIds());
+        Duration registration = Duration.ofNanos(System.nanoTime() - start);
+        assertEquals(APPLICATIONS, applicationRegistry.getRegisteredApplicationIds().size());
+        long heapRegistered = usedHeapAfterGc();
+        log.info("Registered {} applications through the API in {} ms ({} Thanos requests), heap +{} MiB",
+                APPLICATIONS, registration.toMillis(), thanos.getRequests(), mib(heapRegistered - heapBefore));
+
+        for (int cycle = 1; cycle <= CYCLES; cycle++) {
+            long kafkaBefore = kafkaAcknowledged();
+            long rabbitBefore = rabbitTemplate.getMessages();
+            long seriesBefore = thanos.getSeriesServed();
+
+            long cycleStart = System.nanoTime();
+            Map<Outcome, AtomicInteger> outcomes = runCycle(applicationRegistry.getRegisteredApplicationIds());
+            Duration fetched = Duration.ofNanos(System.nanoTime() - cycleStart);
+            awaitCount(() -> kafkaAcknowledged() - kafkaBefore, APPLICATIONS, "Kafka acknowledgements");
+            awaitCount(() -> rabbitTemplate.getMessages() - rabbitBefore, APPLICATIONS, "RabbitMQ confirms");
+            double publishedSeconds = (System.nanoTime() - cycleStart) / 1e9;
+
+            assertEquals(APPLICATIONS, outcomes.get(Outcome.SUCCEEDED).get(),
+                    "applications fetched in cycle " + cycle);
+            assertEquals(0, outcomes.get(Outcome.FAILED).get(), "applications failed in cycle " + cycle);
+            log.info("Cycle {}: fetched {} applications ({} series served) in {} ms, all published after {} ms, "
+                            + "{} messages/s per broker, heap {} MiB",
+                    cycle, APPLICATIONS, thanos.getSeriesServed() - seriesBefore, fetched.toMillis(),
+                    Math.round(publishedSeconds * 1000), Math.round(APPLICATIONS / publishedSeconds),
+                    mib(usedHeapAfterGc()));
+        }
+
+        long records = recordsOnBroker();
+        assertEquals((long) APPLICATIONS * CYCLES, records, "records in " + TOPIC);
+        log.info("Load run finished: {} Kafka records, {} RabbitMQ messages ({} MiB), heap +{} MiB over start",
+                records, rabbitTemplate.getMessages(), mib(rabbitTemplate.getBytes()),
+                mib(usedHeapAfterGc() - heapBefore));
+    }
+
+    /**
+     * Submits every application at once, like the scheduler does for applications due in the same tick
+     */
+    private Map<Outcome, AtomicInteger> runCycle(Collection<String> appIds) throws Exception {
+        Map<Outcome, AtomicInteger> outcomes = new EnumMap<>(Outcome.class);
+        for (Outcome outcome : Outcome.values()) {
+            outcomes.put(outcome, new AtomicInteger());
+        }
+        List<Future<?>> tasks = fetchEngine.submit(appIds,
+                (appId, outcome) -> outcomes.get(outcome).incrementAndGet());
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        return outcomes;
+    }
+
+    private void registerAll(List<String> appIds) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(REGISTRATION_THREADS);
+        try {
+            List<Future<?>> registrations = new ArrayList<>(appIds.size());
+            for (String appId : appIds) {
+                registrations.add(executor.submit(() -> {
+                    mockMvc.perform(post("/metrics/add-application")
+                                    .contentType(MediaType.TEXT_PLAIN)
+                                    .content(appId))
+                            .andExpect(status().isOk());
+                    return null;
+                }));
+            }
+            for (Future<?> registration : registrations) {
+                registration.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private long kafkaAcknowledged() {
+        return kafkaPublisher.getStats().getPartitions().entrySet().stream()
+                .filter(partition -> partition.getKey().startsWith(TOPIC + "-"))
+                .mapToLong(partition -> partition.getValue().getSent())
+                .sum();
+    }
+
+    private long recordsOnBroker() {
+        Map<String, Object> properties = KafkaTestUtils.consumerProps("load-harness", "false", broker);
+        try (Consumer<String, byte[]> consumer = new DefaultKafkaConsumerFactory<>(properties,
+                new StringDeserializer(), new ByteArrayDeserializer()).createConsumer()) {
+            List<TopicPartition> partitions = consumer.partitionsFor(TOPIC).stream()
+                    .map(info -> new TopicPartition(TOPIC, info.partition()))
+                    .toList();
+            return consumer.endOffsets(partitions).values().stream().mapToLong(Long::longValue).sum();
+        }
+    }
+
+    private static void awaitCount(LongSupplier count, long expected, String what) throws InterruptedException {
+        long deadline = System.nanoTime() + PUBLISH_TIMEOUT.toNanos();
+        while (count.getAsLong() < expected) {
+            assertTrue(System.nanoTime() < deadline,
+                    "only " + count.getAsLong() + " of " + expected + " " + what + " after " + PUBLISH_TIMEOUT);
+            Thread.sleep(10);
+        }
+    }
+
+    private static long usedHeapAfterGc() {
+        System.gc();
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long mib(long bytes) {
+        return bytes / (1024 * 1024);
+    }
+}
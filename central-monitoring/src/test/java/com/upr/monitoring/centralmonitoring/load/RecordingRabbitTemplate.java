@@ -0,0 +1,47 @@
+package com.upr.monitoring.centralmonitoring.load;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.springframework.amqp.core.Message;
+import org.springframework.amqp.rabbit.connection.CachingConnectionFactory;
+import org.springframework.amqp.rabbit.connection.CorrelationData;
+import org.springframework.amqp.rabbit.core.RabbitTemplate;
+
+/**
+ * RabbitMQ stand-in that never opens a connection.
+ * Every message sent with correlation data is counted and confirmed right
+ * away, the way a broker with publisher confirms acknowledges it.
+ */
+class RecordingRabbitTemplate extends RabbitTemplate {
+
+    private final LongAdder messages = new LongAdder();
+
+    private final LongAdder bytes = new LongAdder();
+
+    RecordingRabbitTemplate() {
+        // Required by RabbitTemplate, but never connected
+        super(new CachingConnectionFactory("localhost"));
+    }
+
+    @Override
+    public <T> T invoke(OperationsCallback<T> action) {
+        return action.doInRabbit(this);
+    }
+
+    @Override
+    public void send(String exchange, String routingKey, Message message, CorrelationData correlationData) {
+        messages.increment();
+        bytes.add(message.getBody().length);
+        if (correlationData != null) {
+            correlationData.getFuture().complete(new CorrelationData.Confirm(true, null));
+        }
+    }
+
+    long getMessages() {
+        return messages.sum();
+    }
+
+    long getBytes() {
+        return bytes.sum();
+    }
+}
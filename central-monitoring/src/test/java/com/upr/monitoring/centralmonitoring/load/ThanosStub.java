@@ -0,0 +1,351 @@
+package com.upr.monitoring.centralmonitoring.load;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Embedded stand-in for the Thanos query API with synthetic data.
+ * <p>
+ * Knows a configurable number of applications, each exposing the given
+ * metric names with a fixed number of series per metric. Implements the
+ * endpoints central-monitoring uses: instant and range queries for selectors
+ * on {@code __name__} and {@code application_id}, the
+ * {@code count by (application_id, __name__)} discovery query, series
+ * lookups, label values and metadata. Counter values grow with wall-clock
+ * time and gauges change on every request, so every fetch sees new samples.
+ * Every request is delayed by a base latency plus a random jitter.
+ */
+class ThanosStub implements AutoCloseable {
+
+    private static final List<String> MATCHED_LABELS = List.of("__name__", "application_id");
+
+    private final JsonFactory jsonFactory = new JsonFactory();
+
+    private final HttpServer server;
+
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    private final List<String> appIds;
+
+    private final List<String> metricNames;
+
+    private final int seriesPerMetric;
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder seriesServed = new LongAdder();
+
+    private volatile long latencyNanos;
+
+    private volatile long jitterNanos;
+
+    /**
+     * @param applications The number of applications known to the stub
+     * @param metricNames The metric names every application exposes
+     * @param seriesPerMetric The number of series, one per pod, of every metric and application
+     */
+    ThanosStub(int applications, List<String> metricNames, int seriesPerMetric) throws IOException {
+        this.appIds = new ArrayList<>(applications);
+        for (int i = 0; i < applications; i++) {
+            appIds.add(applicationId(i));
+        }
+        this.metricNames = List.copyOf(metricNames);
+        this.seriesPerMetric = seriesPerMetric;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.setExecutor(executor);
+        server.createContext("/api/v1/query", exchange -> handle(exchange, this::query));
+        server.createContext("/api/v1/query_range", exchange -> handle(exchange, this::queryRange));
+        server.createContext("/api/v1/series", exchange -> handle(exchange, this::series));
+        server.createContext("/api/v1/label/application_id/values", exchange -> handle(exchange, this::labelValues));
+        server.createContext("/api/v1/metadata", exchange -> handle(exchange, this::metadata));
+        server.start();
+    }
+
+    static String applicationId(int index) {
+        return String.format("load-app-%05d", index);
+    }
+
+    /**
+     * Changes the delay of every following request
+     * @param latency The base latency
+     * @param jitter The maximum random delay added to the base latency
+     */
+    void setLatency(Duration latency, Duration jitter) {
+        this.latencyNanos = latency.toNanos();
+        this.jitterNanos = jitter.toNanos();
+    }
+
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    List<String> getApplicationIds() {
+        return appIds;
+    }
+
+    long getRequests() {
+        return requests.sum();
+    }
+
+    long getSeriesServed() {
+        return seriesServed.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    @FunctionalInterface
+    private interface Responder {
+        void respond(Map<String, List<String>> params, JsonGenerator json) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, Responder responder) throws IOException {
+        requests.increment();
+        try {
+            long delay = latencyNanos + (jitterNanos > 0 ? ThreadLocalRandom.current().nextLong(jitterNanos) : 0);
+            if (delay > 0) {
+                Thread.sleep(Duration.ofNanos(delay));
+            }
+            Map<String, List<String>> params = params(exchange.getRequestURI().getRawQuery());
+            exchange.getResponseHeaders().add("Content-Type", "application/json");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody();
+                 JsonGenerator json = jsonFactory.createGenerator(out)) {
+                json.writeStartObject();
+                json.writeStringField("status", "success");
+                responder.respond(params, json);
+                json.writeEndObject();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            // The client gave up, e.g. after a hedged request won
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void query(Map<String, List<String>> params, JsonGenerator json) throws IOException {
+        String query = first(params, "query");
+        Selection selection = select(query);
+        double now = System.currentTimeMillis() / 1000.0;
+        json.writeObjectFieldStart("data");
+        json.writeStringField("resultType", "vector");
+        json.writeArrayFieldStart("result");
+        if (query.startsWith("count by")) {
+            for (String appId : selection.appIds()) {
+                for (String name : selection.metricNames()) {
+                    json.writeStartObject();
+                    json.writeObjectFieldStart("metric");
+                    json.writeStringField("__name__", name);
+                    json.writeStringField("application_id", appId);
+                    json.writeEndObject();
+                    writeSample(json, "value", now, seriesPerMetric);
+                    json.writeEndObject();
+                }
+            }
+        } else {
+            forEachSeries(selection, (appId, name, pod) -> {
+                json.writeStartObject();
+                writeLabels(json, appId, name, pod);
+                writeSample(json, "value", now, value(name, pod, now));
+                json.writeEndObject();
+            });
+        }
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    private void queryRange(Map<String, List<String>> params, JsonGenerator json) throws IOException {
+        Selection selection = select(first(params, "query"));
+        double start = Double.parseDouble(first(params, "start"));
+        double end = Double.parseDouble(first(params, "end"));
+        double step = Math.max(1, Double.parseDouble(first(params, "step")));
+        json.writeObjectFieldStart("data");
+        json.writeStringField("resultType", "matrix");
+        json.writeArrayFieldStart("result");
+        forEachSeries(selection, (appId, name, pod) -> {
+            json.writeStartObject();
+            writeLabels(json, appId, name, pod);
+            json.writeArrayFieldStart("values");
+            for (double t = start; t <= end; t += step) {
+                json.writeStartArray();
+                json.writeNumber(t);
+                json.writeString(Double.toString(value(name, pod, t)));
+                json.writeEndArray();
+            }
+            json.writeEndArray();
+            json.writeEndObject();
+        });
+        json.writeEndArray();
+        json.writeEndObject();
+    }
+
+    private void series(Map<String, List<String>> params, JsonGenerator json) throws IOException {
+        json.writeArrayFieldStart("data");
+        for (String match : params.getOrDefault("match[]", List.of())) {
+            forEachSeries(select(match), (appId, name, pod) -> {
+                json.writeStartObject();
+                writeLabelFields(json, appId, name, pod);
+                json.writeEndObject();
+            });
+        }
+        json.writeEndArray();
+    }
+
+    private void labelValues(Map<String, List<String>> params, JsonGenerator json) throws IOException {
+        json.writeArrayFieldStart("data");
+        for (String appId : appIds) {
+            json.writeString(appId);
+        }
+        json.writeEndArray();
+    }
+
+    private void metadata(Map<String, List<String>> params, JsonGenerator json) throws IOException {
+        json.writeObjectFieldStart("data");
+        for (String name : metricNames) {
+            json.writeArrayFieldStart(name);
+            json.writeStartObject();
+            json.writeStringField("type", isCounter(name) ? "counter" : "gauge");
+            json.writeStringField("help", "Synthetic " + name);
+            json.writeStringField("unit", "");
+            json.writeEndObject();
+            json.writeEndArray();
+        }
+        json.writeEndObject();
+    }
+
+    @FunctionalInterface
+    private interface SeriesWriter {
+        void write(String appId, String metricName, int pod) throws IOException;
+    }
+
+    private void forEachSeries(Selection selection, SeriesWriter writer) throws IOException {
+        for (String appId : selection.appIds()) {
+            for (String name : selection.metricNames()) {
+                for (int pod = 0; pod < seriesPerMetric; pod++) {
+                    writer.write(appId, name, pod);
+                    seriesServed.increment();
+                }
+            }
+        }
+    }
+
+    private void writeLabels(JsonGenerator json, String appId, String name, int pod) throws IOException {
+        json.writeObjectFieldStart("metric");
+        writeLabelFields(json, appId, name, pod);
+        json.writeEndObject();
+    }
+
+    private static void writeLabelFields(JsonGenerator json, String appId, String name, int pod) throws IOException {
+        json.writeStringField("__name__", name);
+        json.writeStringField("application_id", appId);
+        json.writeStringField("namespace", "load");
+        json.writeStringField("pod", appId + "-" + pod);
+        json.writeStringField("instance", "10.0." + (pod % 250) + ".1:8080");
+        json.writeStringField("job", "kubelet");
+    }
+
+    private static void writeSample(JsonGenerator json, String field, double time, double value) throws IOException {
+        json.writeArrayFieldStart(field);
+        json.writeNumber(time);
+        json.writeString(Double.toString(value));
+        json.writeEndArray();
+    }
+
+    private static double value(String name, int pod, double time) {
+        if (isCounter(name)) {
+            // Monotonic, so rates stay positive
+            return Math.floor(time * (pod + 1) * 10);
+        }
+        return ThreadLocalRandom.current().nextDouble(1_000_000);
+    }
+
+    private static boolean isCounter(String name) {
+        return name.endsWith("_total");
+    }
+
+    private record Selection(List<String> appIds, List<String> metricNames) {
+    }
+
+    private Selection select(String query) {
+        List<String> selectedApps = appIds;
+        List<String> selectedNames = metricNames;
+        for (String label : MATCHED_LABELS) {
+            int at = query.indexOf(label + "=");
+            if (at < 0) {
+                continue;
+            }
+            // Scanned by hand, a regex over batch selectors of thousands of characters overflows the stack
+            int pos = at + label.length() + 1;
+            boolean regex = query.charAt(pos) == '~';
+            int open = query.indexOf('"', pos);
+            int close = open + 1;
+            while (query.charAt(close) != '"') {
+                close += query.charAt(close) == '\\' ? 2 : 1;
+            }
+            List<String> values = values(regex ? "=~" : "=", query.substring(open + 1, close));
+            if (label.equals("__name__")) {
+                selectedNames = metricNames.stream().filter(values::contains).toList();
+            } else {
+                selectedApps = values;
+            }
+        }
+        return new Selection(selectedApps, selectedNames);
+    }
+
+    private static List<String> values(String operator, String quoted) {
+        // Undo the string literal escaping first, then the regex escaping of each alternative
+        String literal = quoted.replace("\\\"", "\"").replace("\\\\", "\\");
+        if (operator.equals("=")) {
+            return List.of(literal);
+        }
+        List<String> values = new ArrayList<>();
+        for (String alternative : literal.split("(?<!\\\\)\\|")) {
+            values.add(alternative.replaceAll("\\\\(.)", "$1"));
+        }
+        return values;
+    }
+
+    private static Map<String, List<String>> params(String rawQuery) {
+        Map<String, List<String>> params = new LinkedHashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            String value = eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8);
+            params.computeIfAbsent(name, n -> new ArrayList<>()).add(value);
+        }
+        return params;
+    }
+
+    private static String first(Map<String, List<String>> params, String name) {
+        List<String> values = params.get(name);
+        if (values == null || values.isEmpty()) {
+            throw new IllegalArgumentException("Missing parameter " + name);
+        }
+        return values.get(0);
+    }
+}
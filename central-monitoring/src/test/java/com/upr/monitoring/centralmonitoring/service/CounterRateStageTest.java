@@ -0,0 +1,112 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.upr.monitoring.centralmonitoring.client.ThanosClient;
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+import com.upr.monitoring.centralmonitoring.service.CounterRateStage.Mode;
+
+/**
+ * Checks the rates computed between fetches, counter detection and the forgetting of idle counters.
+ */
+class CounterRateStageTest {
+
+    private static final long MINUTE = 60_000;
+
+    private final long now = System.currentTimeMillis();
+
+    private final ThanosClient thanosClient = mock(ThanosClient.class);
+
+    private final CounterRateStage stage = new CounterRateStage(thanosClient, Mode.ALONGSIDE, Duration.ofMinutes(10));
+
+    @Test
+    void rateIsIncreasePerSecondAndResetCountsFromZero() {
+        assertEquals(List.of("requests_total"), names(stage.apply("app", List.of(series("requests_total", now, 100)))));
+
+        List<MetricSeries> second = stage.apply("app", List.of(series("requests_total", now + MINUTE, 160)));
+        assertEquals(List.of("requests_total", "requests:rate"), names(second));
+        assertEquals(1.0, second.get(1).getLastValue());
+
+        // The counter dropped, so it restarted from zero and 30 is the whole increase
+        List<MetricSeries> reset = stage.apply("app", List.of(series("requests_total", now + 2 * MINUTE, 30)));
+        assertEquals(0.5, reset.get(1).getLastValue());
+    }
+
+    @Test
+    void gapLongerThanMaxGapStartsOver() {
+        stage.apply("app", List.of(series("requests_total", now, 100)));
+
+        assertEquals(List.of("requests_total"),
+                names(stage.apply("app", List.of(series("requests_total", now + 11 * MINUTE, 200)))));
+
+        List<MetricSeries> next = stage.apply("app", List.of(series("requests_total", now + 12 * MINUTE, 260)));
+        assertEquals(1.0, next.get(1).getLastValue());
+    }
+
+    @Test
+    void countersDetectedFromMetadataAndBySuffixWithout() {
+        assertTrue(stage.isCounter("http_requests_total"));
+        assertTrue(stage.isCounter("request_duration_seconds_count"));
+        assertFalse(stage.isCounter("requests_served"));
+        assertFalse(stage.isCounter("memory_bytes"));
+
+        when(thanosClient.fetchMetricTypes()).thenReturn(
+                Map.of("http_requests_total", "gauge", "requests_served", "counter"));
+        stage.refreshMetricTypes();
+
+        assertFalse(stage.isCounter("http_requests_total"));
+        assertTrue(stage.isCounter("requests_served"));
+        // Metrics without metadata still fall back to the suffix
+        assertTrue(stage.isCounter("request_duration_seconds_count"));
+        assertFalse(stage.isCounter("memory_bytes"));
+    }
+
+    @Test
+    void addedRatesAreOnlyThoseNextToTheirCounter() {
+        stage.apply("app", List.of(series("requests_total", now, 100), series("memory_bytes", now, 5)));
+        List<MetricSeries> alongside = stage.apply("app",
+                List.of(series("requests_total", now + MINUTE, 160), series("memory_bytes", now + MINUTE, 6)));
+        assertEquals(List.of("requests_total", "requests:rate", "memory_bytes"), names(alongside));
+        assertEquals(List.of(false, true, false), alongside.stream().map(stage::isAddedRate).toList());
+
+        CounterRateStage replacing = new CounterRateStage(thanosClient, Mode.REPLACE, Duration.ofMinutes(10));
+        replacing.apply("app", List.of(series("requests_total", now, 100)));
+        List<MetricSeries> replaced = replacing.apply("app",
+                List.of(series("requests_total", now + MINUTE, 160), series("memory_bytes", now + MINUTE, 6)));
+        assertEquals(List.of("requests:rate", "memory_bytes"), names(replaced));
+        assertFalse(replacing.isAddedRate(replaced.get(0)));
+    }
+
+    @Test
+    void expireIdleForgetsOnlyCountersOlderThanMaxGap() {
+        stage.apply("idle", List.of(series("requests_total", now - 11 * MINUTE, 100)));
+        stage.apply("busy", List.of(series("requests_total", now, 100)));
+
+        stage.expireIdle();
+
+        // The idle counter starts over, so there is nothing to compute a rate from
+        assertEquals(List.of("requests_total"),
+                names(stage.apply("idle", List.of(series("requests_total", now + MINUTE, 160)))));
+        assertEquals(List.of("requests_total", "requests:rate"),
+                names(stage.apply("busy", List.of(series("requests_total", now + MINUTE, 160)))));
+    }
+
+    private static MetricSeries series(String name, long timestamp, double value) {
+        return new MetricSeries(Map.of("__name__", name, "application_id", "app"),
+                new long[]{timestamp}, new double[]{value});
+    }
+
+    private static List<String> names(List<MetricSeries> series) {
+        return series.stream().map(MetricSeries::getName).toList();
+    }
+}
@@ -0,0 +1,67 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the bitset at the boundaries of its 64-bit words.
+ */
+class MetricIdSetTest {
+
+    @Test
+    void addsIdsAcrossWordBoundaries() {
+        MetricIdSet set = MetricIdSet.EMPTY.with(128).with(63).with(64);
+
+        assertEquals(3, set.size());
+        assertTrue(set.contains(63));
+        assertTrue(set.contains(64));
+        assertTrue(set.contains(128));
+        assertFalse(set.contains(0));
+        assertFalse(set.contains(127));
+        assertFalse(set.contains(192));
+        assertEquals(List.of(63, 64, 128), ids(set));
+    }
+
+    @Test
+    void removesIdsAcrossWordBoundaries() {
+        MetricIdSet set = MetricIdSet.EMPTY.with(63).with(64).with(128);
+
+        MetricIdSet withoutLast = set.without(128);
+        assertEquals(List.of(63, 64), ids(withoutLast));
+        assertFalse(withoutLast.contains(128));
+        // The trimmed set grows again when a higher ID comes back
+        assertEquals(List.of(63, 64, 128), ids(withoutLast.with(128)));
+
+        MetricIdSet withoutMiddle = set.without(64);
+        assertEquals(List.of(63, 128), ids(withoutMiddle));
+        assertEquals(2, withoutMiddle.size());
+
+        MetricIdSet emptied = set.without(63).without(64).without(128);
+        assertTrue(emptied.isEmpty());
+        assertEquals(List.of(), ids(emptied));
+        // The original is untouched by every update
+        assertEquals(List.of(63, 64, 128), ids(set));
+    }
+
+    @Test
+    void unchangedSetIsReturnedAsIs() {
+        MetricIdSet set = MetricIdSet.EMPTY.with(64);
+
+        assertSame(set, set.with(64));
+        assertSame(set, set.without(63));
+        assertSame(set, set.without(1000));
+    }
+
+    private static List<Integer> ids(MetricIdSet set) {
+        List<Integer> ids = new ArrayList<>();
+        set.forEach(ids::add);
+        return ids;
+    }
+}
@@ -0,0 +1,54 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the metrics kept per application on top of the shared name dictionary.
+ */
+class MetricsStorageServiceTest {
+
+    private final MetricsStorageService storage = new MetricsStorageService();
+
+    @Test
+    void metricsAreReturnedInDictionaryOrder() {
+        storage.storeMetrics("app-1", List.of("zeta", "alpha"));
+
+        storage.storeMetric("app-2", "mid");
+        storage.storeMetrics("app-2", List.of("alpha", "zeta", "alpha"));
+
+        // Neither insertion nor alphabetical order: the order names were first seen by any application
+        assertEquals(List.of("zeta", "alpha", "mid"), storage.getMetrics("app-2"));
+        assertEquals(5, storage.getTotalMetricsCount());
+    }
+
+    @Test
+    void removingLastMetricRemovesApplication() {
+        storage.storeMetrics("app", List.of("cpu", "memory"));
+
+        assertTrue(storage.removeMetric("app", "cpu"));
+        assertEquals(List.of("memory"), storage.getMetrics("app"));
+        assertTrue(storage.removeMetric("app", "memory"));
+
+        assertFalse(storage.applicationExists("app"));
+        assertNull(storage.getMetrics("app"));
+        assertEquals(0, storage.getApplicationCount());
+        assertFalse(storage.removeMetric("app", "memory"));
+    }
+
+    @Test
+    void unknownMetricIsNotRemoved() {
+        storage.storeMetric("app-1", "cpu");
+        storage.storeMetric("app-2", "memory");
+
+        assertFalse(storage.removeMetric("app-1", "disk"));
+        assertFalse(storage.removeMetric("app-1", "memory"));
+        assertEquals(List.of("cpu"), storage.getMetrics("app-1"));
+    }
+}
@@ -0,0 +1,138 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Writes registry changes through one journal and recovers them with a fresh one, like a restart.
+ */
+class RegistryJournalTest {
+
+    @TempDir
+    Path directory;
+
+    private Registry started() {
+        Registry registry = new Registry();
+        registry.journal.recover();
+        return registry;
+    }
+
+    @Test
+    void recoversFetchIntervalsFromLogAndSnapshot() {
+        Registry before = started();
+        before.applications.register("app-1");
+        before.applications.register("app-2");
+        before.applications.setFetchInterval("app-1", Duration.ofSeconds(15));
+
+        Registry fromLog = started();
+        assertEquals(Duration.ofSeconds(15), fromLog.applications.getFetchInterval("app-1"));
+        assertNull(fromLog.applications.getFetchInterval("app-2"));
+
+        fromLog.applications.setFetchInterval("app-2", Duration.ofMinutes(5));
+        fromLog.journal.close();
+
+        Registry fromSnapshot = started();
+        assertEquals(Set.of("app-1", "app-2"), fromSnapshot.applications.getRegisteredApplicationIds());
+        assertEquals(Duration.ofSeconds(15), fromSnapshot.applications.getFetchInterval("app-1"));
+        assertEquals(Duration.ofMinutes(5), fromSnapshot.applications.getFetchInterval("app-2"));
+        assertTrue(fromSnapshot.metrics.getAllMetrics().isEmpty());
+    }
+
+    @Test
+    void replaysLogOnTopOfSnapshot() {
+        Registry before = started();
+        before.applications.register("app-1");
+        before.metrics.storeMetrics("app-1", List.of("cpu", "memory"));
+        before.applications.register("app-2");
+        before.metrics.storeMetric("app-2", "cpu");
+        before.journal.close();
+        assertFalse(Files.exists(directory.resolve("registry.log")));
+
+        Registry afterSnapshot = started();
+        afterSnapshot.metrics.storeMetric("app-1", "disk");
+        afterSnapshot.metrics.removeApplication("app-2");
+        afterSnapshot.applications.register("app-3");
+
+        Registry recovered = started();
+        assertEquals(Set.of("app-1", "app-2", "app-3"), recovered.applications.getRegisteredApplicationIds());
+        assertEquals(Set.of("cpu", "memory", "disk"), Set.copyOf(recovered.metrics.getMetrics("app-1")));
+        assertFalse(recovered.metrics.applicationExists("app-2"));
+        assertFalse(recovered.metrics.applicationExists("app-3"));
+    }
+
+    @Test
+    void dropsTruncatedLogTailAndCompacts() throws IOException {
+        Registry before = started();
+        before.applications.register("app-1");
+        before.metrics.storeMetric("app-1", "cpu");
+        // A record header announcing more bytes than were written before the crash
+        Files.write(directory.resolve("registry.log"), new byte[]{0, 0, 0, 64, 1, 2, 3, 4, 5},
+                StandardOpenOption.APPEND);
+
+        Registry recovered = started();
+        assertTrue(recovered.applications.isRegistered("app-1"));
+        assertEquals(List.of("cpu"), recovered.metrics.getMetrics("app-1"));
+        assertFalse(Files.exists(directory.resolve("registry.log")), "the damaged log was not compacted");
+
+        recovered.metrics.storeMetric("app-1", "memory");
+        assertEquals(Set.of("cpu", "memory"), Set.copyOf(started().metrics.getMetrics("app-1")));
+    }
+
+    @Test
+    void stopsAtRecordWithBadChecksum() throws IOException {
+        Registry before = started();
+        before.applications.register("app-1");
+        before.applications.register("app-2");
+        before.applications.setFetchInterval("app-2", Duration.ofSeconds(30));
+        Path log = directory.resolve("registry.log");
+        byte[] bytes = Files.readAllBytes(log);
+        // Flips a bit of the interval in the last record
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(log, bytes);
+
+        Registry recovered = started();
+        assertEquals(Set.of("app-1", "app-2"), recovered.applications.getRegisteredApplicationIds());
+        assertNull(recovered.applications.getFetchInterval("app-2"));
+        assertFalse(Files.exists(log), "the damaged log was not compacted");
+        assertEquals(Set.of("app-1", "app-2"), started().applications.getRegisteredApplicationIds());
+    }
+
+    @Test
+    void laterRecordDoesNotRevokeRegistration() {
+        Registry registering = started();
+        // Shares the log but never sees the registration, like a record written from a stale state
+        Registry stale = started();
+        registering.applications.register("app-1");
+        stale.metrics.storeMetric("app-1", "cpu");
+
+        Registry recovered = started();
+        assertTrue(recovered.applications.isRegistered("app-1"));
+        assertEquals(List.of("cpu"), recovered.metrics.getMetrics("app-1"));
+    }
+
+    /**
+     * The services one journal persists, wired like the application context does
+     */
+    private final class Registry {
+
+        final ApplicationRegistry applications = new ApplicationRegistry(null, Duration.ofSeconds(5),
+                Duration.ofMinutes(5), 1000);
+
+        final MetricsStorageService metrics = new MetricsStorageService();
+
+        final RegistryJournal journal = new RegistryJournal(applications, metrics, true, directory.toString());
+    }
+}
@@ -0,0 +1,58 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.LongSupplier;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import com.upr.monitoring.centralmonitoring.client.HttpTransport;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Runs the scheduler with a short window against a transport that always fails.
+ */
+class RuleReloadSchedulerTest {
+
+    private final HttpTransport transport = mock(HttpTransport.class);
+
+    private final RuleReloadScheduler scheduler = new RuleReloadScheduler(transport, new SimpleMeterRegistry(), true,
+            "http://thanos-rule:10902/-/reload", Duration.ofMillis(20), Duration.ofSeconds(1), 1);
+
+    @AfterEach
+    void tearDown() {
+        scheduler.shutdown();
+    }
+
+    @Test
+    void newRequestStartsRetryBudgetOver() throws InterruptedException {
+        when(transport.post(any(), any())).thenAnswer(invocation -> CompletableFuture.failedFuture(
+                new IllegalStateException("ruler unavailable")));
+
+        scheduler.requestReload();
+        // The reload and its single retry
+        awaitValue(2, () -> scheduler.getStatus().getFailures());
+        Thread.sleep(200);
+        assertEquals(2, scheduler.getStatus().getReloads());
+
+        scheduler.requestReload();
+        awaitValue(4, () -> scheduler.getStatus().getFailures());
+        Thread.sleep(200);
+        assertEquals(4, scheduler.getStatus().getReloads());
+    }
+
+    private static void awaitValue(long expected, LongSupplier actual) throws InterruptedException {
+        long deadline = System.nanoTime() + Duration.ofSeconds(5).toNanos();
+        while (actual.getAsLong() < expected && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(expected, actual.getAsLong());
+    }
+}
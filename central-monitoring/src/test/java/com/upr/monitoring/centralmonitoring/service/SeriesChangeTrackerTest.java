@@ -0,0 +1,98 @@
+package com.upr.monitoring.centralmonitoring.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.upr.monitoring.centralmonitoring.model.MetricSeries;
+import com.upr.monitoring.centralmonitoring.service.SeriesChangeTracker.Delta;
+
+/**
+ * Checks which series, sequence numbers and keyframes the tracker hands out per publication.
+ */
+class SeriesChangeTrackerTest {
+
+    private final SeriesChangeTracker tracker = new SeriesChangeTracker(true, 3);
+
+    @Test
+    void emitsKeyframeEveryIntervalPublications() {
+        List<Boolean> keyframes = new ArrayList<>();
+        List<Long> sequences = new ArrayList<>();
+        for (int i = 0; i < 7; i++) {
+            Delta delta = tracker.track("app", List.of(series("cpu", i)));
+            keyframes.add(delta.keyframe());
+            sequences.add(delta.sequence());
+        }
+
+        assertEquals(List.of(true, false, false, true, false, false, true), keyframes);
+        assertEquals(List.of(1L, 2L, 3L, 4L, 5L, 6L, 7L), sequences);
+    }
+
+    @Test
+    void deltaHoldsOnlyChangedAndNewSeries() {
+        tracker.track("app", List.of(series("cpu", 1), series("memory", 2)));
+
+        Delta delta = tracker.track("app", List.of(series("cpu", 1), series("memory", 3), series("disk", 4)));
+        assertFalse(delta.keyframe());
+        assertEquals(List.of("memory", "disk"), names(delta));
+
+        Delta unchanged = tracker.track("app", List.of(series("cpu", 1), series("memory", 3), series("disk", 4)));
+        assertTrue(unchanged.isEmpty());
+        // Nothing is published, so the sequence stays where it was
+        assertEquals(delta.sequence(), unchanged.sequence());
+    }
+
+    @Test
+    void sequenceIncreasesPerApplication() {
+        assertEquals(1, tracker.track("app-1", List.of(series("cpu", 1))).sequence());
+        assertEquals(2, tracker.track("app-1", List.of(series("cpu", 2))).sequence());
+        assertEquals(1, tracker.track("app-2", List.of(series("cpu", 1))).sequence());
+        assertEquals(3, tracker.track("app-1", List.of(series("cpu", 3))).sequence());
+        assertEquals(2, tracker.track("app-2", List.of(series("cpu", 2))).sequence());
+    }
+
+    @Test
+    void removedSeriesLeaveWithTheNextKeyframe() {
+        tracker.track("app", List.of(series("cpu", 1), series("memory", 2)));
+
+        // A delta cannot express removal, the removed series is simply absent
+        Delta delta = tracker.track("app", List.of(series("cpu", 5)));
+        assertEquals(List.of("cpu"), names(delta));
+
+        // Once it is forgotten, a series that comes back counts as changed even with its old value
+        Delta returned = tracker.track("app", List.of(series("cpu", 5), series("memory", 2)));
+        assertFalse(returned.keyframe());
+        assertEquals(List.of("memory"), names(returned));
+
+        Delta keyframe = tracker.track("app", List.of(series("cpu", 5)));
+        assertTrue(keyframe.keyframe());
+        assertEquals(List.of("cpu"), names(keyframe));
+    }
+
+    @Test
+    void everyPublicationIsKeyframeWhenDisabled() {
+        SeriesChangeTracker disabled = new SeriesChangeTracker(false, 3);
+        disabled.track("app", List.of(series("cpu", 1), series("memory", 2)));
+
+        Delta delta = disabled.track("app", List.of(series("cpu", 1), series("memory", 2)));
+
+        assertTrue(delta.keyframe());
+        assertEquals(2, delta.sequence());
+        assertEquals(List.of("cpu", "memory"), names(delta));
+    }
+
+    private static MetricSeries series(String name, double value) {
+        return new MetricSeries(Map.of("__name__", name, "application_id", "app"),
+                new long[]{1_700_000_000_000L}, new double[]{value});
+    }
+
+    private static List<String> names(Delta delta) {
+        return delta.series().stream().map(MetricSeries::getName).toList();
+    }
+}
@@ -0,0 +1,154 @@
+package com.upr.monitoring.centralmonitoring.store;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntToDoubleFunction;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Round-trips samples through the chunk encoding, aimed at the edges of its bit layouts.
+ */
+class GorillaChunkTest {
+
+    private static final long START = 1_700_000_000_000L;
+
+    @Test
+    void roundTripsEveryDeltaOfDeltaBucket() {
+        // Bucket limits are asymmetric: n bits hold -(2^(n-1) - 1) up to 2^(n-1)
+        long[] deltaOfDeltas = {1_000_000, 0, 1, -1,
+                8192, -8191, 8193, -8192,
+                65536, -65535, 65537, -65536,
+                524288, -524287, 524289, -524288,
+                1L << 40, -(1L << 40)};
+        long[] timestamps = new long[deltaOfDeltas.length + 1];
+        timestamps[0] = START;
+        long delta = 0;
+        for (int i = 0; i < deltaOfDeltas.length; i++) {
+            delta += deltaOfDeltas[i];
+            timestamps[i + 1] = timestamps[i] + delta;
+        }
+
+        assertRoundTrip(timestamps, new double[timestamps.length]);
+    }
+
+    @Test
+    void roundTripsXorWithAllSignificantBits() {
+        // 0.0 XOR a value with the top and bottom bit set leaves no leading or trailing zeros,
+        // so 64 significant bits are written as 0 and must be read back as 64
+        double[] values = {0.0, Double.longBitsToDouble(0x8000_0000_0000_0001L), 0.0, -0.0};
+
+        assertRoundTrip(steadyTimestamps(values.length), values);
+    }
+
+    @Test
+    void roundTripsLeadingZerosBeyondFiveBits() {
+        // An XOR of 1 has 63 leading zeros, more than 5 bits hold, so 31 are written
+        double[] values = {0.0, Double.MIN_VALUE, 0.0, Double.longBitsToDouble(3), Double.longBitsToDouble(1L << 32)};
+
+        assertRoundTrip(steadyTimestamps(values.length), values);
+    }
+
+    @Test
+    void roundTripsXorReusingPreviousWindow() {
+        long first = 0x00F0_0000_0000_0F00L;
+        // Fits within the leading and trailing zeros of the previous XOR, so the window is reused
+        long second = first ^ 0x0010_0000_0000_0100L;
+        // Needs a wider window again
+        long third = second ^ 0x0100_0000_0000_0001L;
+        double[] values = {0.0, Double.longBitsToDouble(first), Double.longBitsToDouble(second),
+                Double.longBitsToDouble(third), Double.longBitsToDouble(third)};
+
+        assertRoundTrip(steadyTimestamps(values.length), values);
+    }
+
+    @Test
+    void roundTripsWordsSpanningWordBoundaries() {
+        // Random sizes move every field across the 64-bit word boundaries at some point
+        Random random = new Random(42);
+        long[] timestamps = new long[GorillaChunk.MAX_SAMPLES];
+        double[] values = new double[timestamps.length];
+        timestamps[0] = START;
+        for (int i = 1; i < timestamps.length; i++) {
+            timestamps[i] = timestamps[i - 1] + 1 + random.nextInt(random.nextBoolean() ? 100 : 2_000_000);
+        }
+        for (int i = 0; i < values.length; i++) {
+            values[i] = switch (random.nextInt(4)) {
+                case 0 -> i > 0 ? values[i - 1] : 0;
+                case 1 -> random.nextInt(1000);
+                case 2 -> Double.longBitsToDouble(random.nextLong());
+                default -> random.nextGaussian() * 1e6;
+            };
+        }
+
+        assertRoundTrip(timestamps, values);
+    }
+
+    @Test
+    void sealedChunkDecodesAndFiltersWindow() {
+        GorillaChunk chunk = new GorillaChunk();
+        long[] timestamps = steadyTimestamps(GorillaChunk.MAX_SAMPLES);
+        for (int i = 0; i < timestamps.length; i++) {
+            chunk.append(timestamps[i], i * 0.5);
+        }
+        assertTrue(chunk.isFull());
+        long unsealed = chunk.sizeBytes();
+
+        chunk.seal();
+
+        assertTrue(chunk.sizeBytes() < unsealed, "seal keeps " + chunk.sizeBytes() + " of " + unsealed + " bytes");
+        List<Double> window = new ArrayList<>();
+        chunk.forEach(timestamps[10], timestamps[19], (timestamp, value) -> window.add(value));
+        assertEquals(10, window.size());
+        assertEquals(5.0, window.get(0));
+        assertEquals(9.5, window.get(9));
+        assertDecodes(chunk, timestamps, values(timestamps.length, i -> i * 0.5));
+    }
+
+    private static void assertRoundTrip(long[] timestamps, double[] values) {
+        GorillaChunk chunk = new GorillaChunk();
+        for (int i = 0; i < timestamps.length; i++) {
+            chunk.append(timestamps[i], values[i]);
+        }
+        assertDecodes(chunk, timestamps, values);
+        chunk.seal();
+        assertDecodes(chunk, timestamps, values);
+    }
+
+    private static void assertDecodes(GorillaChunk chunk, long[] timestamps, double[] values) {
+        List<Long> decodedTimestamps = new ArrayList<>();
+        List<Long> decodedBits = new ArrayList<>();
+        chunk.forEach(Long.MIN_VALUE, Long.MAX_VALUE, (timestamp, value) -> {
+            decodedTimestamps.add(timestamp);
+            decodedBits.add(Double.doubleToRawLongBits(value));
+        });
+        assertArrayEquals(timestamps, decodedTimestamps.stream().mapToLong(Long::longValue).toArray());
+        long[] bits = new long[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bits[i] = Double.doubleToRawLongBits(values[i]);
+        }
+        // Compared bit for bit, so NaN payloads and negative zero count too
+        assertArrayEquals(bits, decodedBits.stream().mapToLong(Long::longValue).toArray());
+    }
+
+    private static long[] steadyTimestamps(int count) {
+        long[] timestamps = new long[count];
+        for (int i = 0; i < count; i++) {
+            timestamps[i] = START + i * 15_000L;
+        }
+        return timestamps;
+    }
+
+    private static double[] values(int count, IntToDoubleFunction value) {
+        double[] values = new double[count];
+        for (int i = 0; i < count; i++) {
+            values[i] = value.applyAsDouble(i);
+        }
+        return values;
+    }
+}